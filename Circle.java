@@ -44,8 +44,5 @@ public class Circle extends Shape {
             g2d.drawOval(x, y, width, height);
             g2d.setStroke(originalStroke);
         }
-        
-        // Draw selection handles if this shape is selected
-        drawSelectionHandles(g);
     }
 } 
\ No newline at end of file
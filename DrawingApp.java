@@ -1,9 +1,13 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -18,6 +22,9 @@ public class DrawingApp extends JFrame {
     private JToolBar toolBar;
     private JToolBar propertiesBar;
     private JLabel statusLabel;
+    private JButton cancelImportButton;     // Shown while an image is being imported
+    private ImageImporter imageImport;      // Image being decoded in the background, or null
+    private ImageBatchImporter batchImport; // Images being decoded for inserting together, or null
     // Constants for UI sizes and colors
     private static final Color DARK_BG_COLOR = new Color(220, 220, 220);
     private static final Color MID_BG_COLOR = new Color(240, 240, 240);
@@ -67,9 +74,32 @@ public class DrawingApp extends JFrame {
         drawingPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 //        drawingPanel.setBackground(Color.WHITE);
         
+        // Image files and folders dropped on the canvas are inserted into the current layer
+        drawingPanel.setTransferHandler(new TransferHandler() {
+            @Override
+            public boolean canImport(TransferSupport support) {
+                return support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+            }
+            
+            @Override
+            public boolean importData(TransferSupport support) {
+                if (!canImport(support)) {
+                    return false;
+                }
+                try {
+                    @SuppressWarnings("unchecked")
+                    List<File> files = (List<File>) support.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
+                    insertImages(files);
+                    return true;
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    return false;
+                }
+            }
+        });
+        
         // Create the layer panel - shows all layers in the drawing
         LayerPanel layerPanel = new LayerPanel(drawingPanel);
-        drawingPanel.setLayerPanel(layerPanel);
         layerPanel.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createMatteBorder(1, 1, 0, 0, Color.GRAY),
             BorderFactory.createEmptyBorder(5, 5, 5, 5)
@@ -163,12 +193,21 @@ public class DrawingApp extends JFrame {
         addMenuItem(editMenu, "Undo", KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.undo());
         addMenuItem(editMenu, "Redo", KeyStroke.getKeyStroke(KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.redo());
         addMenuItem(editMenu, "Delete", KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), e -> drawingPanel.deleteSelectedShape());
+        addMenuItem(editMenu, "Select All", KeyStroke.getKeyStroke(KeyEvent.VK_A, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.selectAll());
+        addMenuItem(editMenu, "Scale Selection Up", KeyStroke.getKeyStroke(KeyEvent.VK_CLOSE_BRACKET, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.scaleSelection(1.25));
+        addMenuItem(editMenu, "Scale Selection Down", KeyStroke.getKeyStroke(KeyEvent.VK_OPEN_BRACKET, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.scaleSelection(0.8));
         
         // View Menu - for view operations like Zoom In, Zoom Out, Reset View
         JMenu viewMenu = createMenu("View", KeyEvent.VK_V);
         addMenuItem(viewMenu, "Zoom In", KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.zoomIn());
         addMenuItem(viewMenu, "Zoom Out", KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.zoomOut());
         addMenuItem(viewMenu, "Reset View", KeyStroke.getKeyStroke(KeyEvent.VK_0, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), e -> drawingPanel.resetView());
+        viewMenu.addSeparator();
+        JCheckBoxMenuItem backgroundRenderingItem = new JCheckBoxMenuItem("Background Rendering", drawingPanel.isBackgroundRendering());
+        backgroundRenderingItem.setForeground(TEXT_COLOR);
+        backgroundRenderingItem.setBackground(DARK_BG_COLOR);
+        backgroundRenderingItem.addActionListener(e -> drawingPanel.setBackgroundRendering(backgroundRenderingItem.isSelected()));
+        viewMenu.add(backgroundRenderingItem);
         
         // Insert Menu - for inserting images
         JMenu insertMenu = createMenu("Insert", KeyEvent.VK_I);
@@ -231,21 +270,14 @@ public class DrawingApp extends JFrame {
                 drawingPanel.setShape(shape);
                 textField.setEnabled(shape.equals("Text"));
                 
-                // When Select tool is chosen
-                if (shape.equals("Select")) {
-                    drawingPanel.setSelectMode(true);
-                    updateStatusMessage("Select Mode: Click to select shapes. Use Delete key to remove selected shapes.");
-                } else {
-                    drawingPanel.setSelectMode(false);
-                    updateStatusMessage("Ready");
-                }
+                // The status bar follows the tool through the view state
+                drawingPanel.setSelectMode(shape.equals("Select"));
             });
             
             // Default select Select tool
             if (shape.equals("Select")) {
                 button.setSelected(true);
                 drawingPanel.setSelectMode(true);
-                updateStatusMessage("Select Mode: Click to select shapes. Use Delete key to remove selected shapes.");
             }
             
             shapeGroup.add(button);
@@ -295,7 +327,7 @@ public class DrawingApp extends JFrame {
             @Override
             public void stateChanged(ChangeEvent e) {
                 float strokeWidth = (float) strokeSlider.getValue();
-                drawingPanel.setStrokeWidth(strokeWidth);
+                drawingPanel.setStrokeWidth(strokeWidth, strokeSlider.getValueIsAdjusting());
             }
         });
         strokePanel.add(Box.createRigidArea(new Dimension(0, 5)));
@@ -424,6 +456,12 @@ public class DrawingApp extends JFrame {
         helpButton.addActionListener(e -> showNavigationHelp());
         centerPanel.add(helpButton);
         
+        cancelImportButton = new JButton("Cancel Import");
+        cancelImportButton.setToolTipText("Stop loading the image");
+        cancelImportButton.addActionListener(e -> cancelImport());
+        cancelImportButton.setVisible(false);
+        centerPanel.add(cancelImportButton);
+        
         statusBar.add(centerPanel, BorderLayout.CENTER);
         
         // Add zoom controls on the right side
@@ -452,16 +490,28 @@ public class DrawingApp extends JFrame {
         
         statusBar.add(zoomPanel, BorderLayout.EAST);
         
-        // Update zoom percentage display every 100ms
-        Timer zoomUpdateTimer = new Timer(100, e -> {
-            int zoomPercentage = (int)(drawingPanel.getZoomFactor() * 100);
-            zoomLabel.setText(zoomPercentage + "%");
-        });
-        zoomUpdateTimer.start();
+        // Show the zoom and tool whenever the view state changes them
+        ViewState viewState = drawingPanel.getViewState();
+        viewState.addPropertyChangeListener(ViewState.ZOOM,
+            e -> zoomLabel.setText((int) (viewState.getZoomFactor() * 100) + "%"));
+        viewState.addPropertyChangeListener(ViewState.TOOL,
+            e -> updateStatusMessage(toolMessage(viewState.getTool())));
+        zoomLabel.setText((int) (viewState.getZoomFactor() * 100) + "%");
+        updateStatusMessage(toolMessage(viewState.getTool()));
         
         return statusBar;
     }
     
+    /**
+     * Gets the status message shown while a tool is active
+     */
+    private static String toolMessage(String tool) {
+        if (tool.equals("Select")) {
+            return "Select Mode: Click to select shapes. Use Delete key to remove selected shapes.";
+        }
+        return "Ready";
+    }
+    
     /**
      * Updates the status message shown at the bottom of the window
      */
@@ -472,25 +522,42 @@ public class DrawingApp extends JFrame {
     }
     
     /**
-     * Opens a PNG image file and displays it in the drawing panel
+     * Opens an image file and displays it in the drawing panel
+     * Images too large to decode at once are shown as a tiled background instead,
+     * which is read region by region as the view moves over it
      */
     private void openFile() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
-            "PNG Images", "png"));
+            "Images (PNG, JPEG, TIFF)", "png", "jpg", "jpeg", "tif", "tiff"));
         
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try {
-                BufferedImage image = ImageIO.read(file);
-                drawingPanel.reset();
-                drawingPanel.setCurrentImage(image);
-            } catch (Exception ex) {
-                showError("Error loading image", ex.getMessage());
+            if (TiledImageSource.isLarge(file)) {
+                openTiledImage(file);
+            } else {
+                importImage(file, true);
             }
         }
     }
     
+    /**
+     * Starts a new drawing on top of a huge image
+     * The image is not part of the drawing's layers; the layers annotate it.
+     */
+    private void openTiledImage(File file) {
+        cancelImport();
+        try {
+            TiledImageSource source = new TiledImageSource(file);
+            drawingPanel.reset();
+            drawingPanel.setBackgroundImage(source);
+            updateStatusMessage(file.getName() + " (" + source.getWidth() + " x " + source.getHeight()
+                + ") opened as background, loading the visible part as needed");
+        } catch (IOException e) {
+            showError("Error loading image", e.getMessage());
+        }
+    }
+    
     /**
      * Saves the current drawing as a PNG image file
      */
@@ -509,24 +576,157 @@ public class DrawingApp extends JFrame {
     }
     
     /**
-     * Inserts an image into the drawing
+     * Inserts images into the drawing
+     * One image becomes the image tool's image; several are placed in the current layer
      */
     private void insertImage() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
             "Image Files", "jpg", "jpeg", "png", "gif"));
+        fileChooser.setMultiSelectionEnabled(true);
         
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                File file = fileChooser.getSelectedFile();
-                BufferedImage image = ImageIO.read(file);
+            File[] files = fileChooser.getSelectedFiles();
+            if (files.length == 1) {
+                importImage(files[0], false);
+            } else if (files.length > 1) {
+                insertImages(Arrays.asList(files));
+            }
+        }
+    }
+    
+    /**
+     * Loads image files in parallel and places them in the current layer as one undoable step
+     * The files of a folder are inserted in the order of their names
+     */
+    private void insertImages(List<File> files) {
+        List<File> imageFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles(File::isFile);
+                if (children != null) {
+                    Arrays.sort(children);
+                    imageFiles.addAll(Arrays.asList(children));
+                }
+            } else {
+                imageFiles.add(file);
+            }
+        }
+        
+        cancelImport();
+        batchImport = new ImageBatchImporter(imageFiles, new ImageBatchImporter.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                updateStatusMessage("Loading images: " + done + " of " + total + "...");
+            }
+            
+            private String message;  // Status shown once the full images are in
+            
+            @Override
+            public void batchReady(List<BufferedImage> images, List<File> failed) {
+                drawingPanel.insertImages(images, ImageBatchImporter.PREVIEW_SIZE / 2);
+                message = "Inserted " + images.size() + " images";
+                if (!failed.isEmpty()) {
+                    message += ", " + failed.size() + " files could not be read (" + failed.get(0).getName()
+                        + (failed.size() > 1 ? ", ..." : "") + ")";
+                }
+                updateStatusMessage(message + ", loading full size...");
+            }
+            
+            @Override
+            public void imageReady(BufferedImage preview, BufferedImage image) {
+                drawingPanel.replaceImage(preview, image);
+            }
+            
+            @Override
+            public void batchFinished() {
+                finishImport(message);
+            }
+        });
+        cancelImportButton.setVisible(true);
+        updateStatusMessage("Loading images: 0 of " + imageFiles.size() + "...");
+        batchImport.start();
+    }
+    
+    /**
+     * Loads an image file in the background and makes it the image tool's image
+     * A large image is first available as a preview, which is replaced by the full image
+     * once that has been decoded, also in the shapes already placed with it
+     * 
+     * @param file          The image file to load
+     * @param replaceDrawing True to start a new drawing with the image (File > Open)
+     */
+    private void importImage(File file, boolean replaceDrawing) {
+        cancelImport();
+        imageImport = new ImageImporter(file, replaceDrawing ? "open" : "insert", new ImageImporter.Listener() {
+            private BufferedImage preview;  // Preview in use until the full image arrives, or null
+            
+            @Override
+            public void previewReady(BufferedImage image, int width, int height) {
+                preview = image;
+                useImage(image);
+                updateStatusMessage("Loading " + file.getName() + " (" + width + " x " + height + "), showing a preview...");
+            }
+            
+            @Override
+            public void imageReady(BufferedImage image) {
+                if (preview != null) {
+                    drawingPanel.replaceImage(preview, image);
+                } else {
+                    useImage(image);
+                }
+                finishImport(file.getName() + " loaded");
+            }
+            
+            @Override
+            public void importFailed(IOException error) {
+                if (preview != null) {
+                    finishImport(error.getMessage() + ", keeping the preview");
+                } else {
+                    finishImport("Ready");
+                    showError("Error loading image", error.getMessage());
+                }
+            }
+            
+            /**
+             * Starts a new drawing if asked to and selects the image tool with the image
+             */
+            private void useImage(BufferedImage image) {
+                if (replaceDrawing) {
+                    drawingPanel.reset();
+                }
                 drawingPanel.setCurrentImage(image);
-            } catch (Exception ex) {
-                showError("Error loading image", ex.getMessage());
             }
+        });
+        cancelImportButton.setVisible(true);
+        updateStatusMessage("Loading " + file.getName() + "...");
+        imageImport.start();
+    }
+    
+    /**
+     * Stops the image import in progress, if there is one
+     */
+    private void cancelImport() {
+        if (imageImport != null) {
+            imageImport.cancel();
+            finishImport("Loading " + imageImport.getFile().getName() + " cancelled");
+        }
+        if (batchImport != null) {
+            batchImport.cancel();
+            finishImport("Loading " + batchImport.getFileCount() + " images cancelled");
         }
     }
     
+    /**
+     * Forgets the finished image import and shows a status message
+     */
+    private void finishImport(String message) {
+        imageImport = null;
+        batchImport = null;
+        cancelImportButton.setVisible(false);
+        updateStatusMessage(message);
+    }
+    
     /**
      * Opens a color chooser dialog to select a new drawing color
      */
@@ -579,12 +779,15 @@ public class DrawingApp extends JFrame {
      * Shows a splash screen and then launches the main window
      */
     public static void main(String[] args) {
+        // Report events that freeze the user interface
+        EdtWatchdog.install();
+        
         SwingUtilities.invokeLater(() -> {
             // Show splash screen first
             SplashScreen splash = new SplashScreen();
             splash.showSplash(null);
             
-            // Main application will be launched after splash screen fades out
+            // Main application is shown by the splash screen once it has loaded
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,188 @@
+import java.util.BitSet;
+
+/**
+ * DrawingChange describes one change to the drawing document
+ * Changes are collected for an edit and handed to every DrawingChangeListener together,
+ * so listeners can update only what a change touched instead of rescanning the drawing.
+ *
+ * Shape changes carry the area the shapes covered before and after the change. When
+ * neither is known, the whole layer has to be treated as changed.
+ *
+ * Shapes added or removed also carry their rows, and a shape moved in the drawing order
+ * its old and new row, so listeners that keep rows of a layer can move them along.
+ */
+public class DrawingChange {
+    /**
+     * The kinds of changes a document reports
+     */
+    public enum Type {
+        SHAPE_ADDED,              // Shapes were added to a layer
+        SHAPE_REMOVED,            // Shapes were removed from a layer
+        SHAPE_GEOMETRY_CHANGED,   // Shapes of a layer were moved, resized or restyled
+        SHAPE_REORDERED,          // Shapes of a layer changed their drawing order
+        LAYER_ADDED,              // A layer was added to the document
+        LAYER_REMOVED,            // A layer was removed from the document
+        LAYER_REORDERED,          // A layer moved to another position in the stack
+        LAYER_VISIBILITY_CHANGED, // A layer was shown or hidden
+        LAYER_RENAMED             // A layer got a new name
+    }
+
+    private final Type type;                     // What changed
+    private final Layer layer;                   // The layer that changed or contains the changed shapes
+    private final int count;                     // Number of shapes changed, or 0 if not known
+    private final java.awt.Rectangle oldBounds;  // Area the shapes covered before, or null
+    private final java.awt.Rectangle newBounds;  // Area the shapes cover now, or null
+    private final BitSet rows;                   // Rows added (new rows) or removed (old rows), or null
+    private final int fromRow, toRow;            // Old and new row of a reordered shape, or -1
+
+    /**
+     * Constructor - creates a change of a whole layer
+     */
+    public DrawingChange(Type type, Layer layer) {
+        this(type, layer, 0, null, null);
+    }
+
+    /**
+     * Constructor - creates a change of some shapes of a layer
+     *
+     * @param count     Number of shapes changed, or 0 if not known
+     * @param oldBounds Area the shapes covered before the change, or null
+     * @param newBounds Area the shapes cover after the change, or null
+     */
+    public DrawingChange(Type type, Layer layer, int count, java.awt.Rectangle oldBounds, java.awt.Rectangle newBounds) {
+        this(type, layer, count, oldBounds, newBounds, null, -1, -1);
+    }
+
+    /**
+     * Constructor - creates a change that added or removed some rows of a layer
+     *
+     * @param type      SHAPE_ADDED or SHAPE_REMOVED
+     * @param rows      The rows added, after the change, or removed, before it; the change keeps the set
+     * @param oldBounds Area the shapes covered before the change, or null
+     * @param newBounds Area the shapes cover after the change, or null
+     */
+    public DrawingChange(Type type, Layer layer, BitSet rows, java.awt.Rectangle oldBounds, java.awt.Rectangle newBounds) {
+        this(type, layer, rows.cardinality(), oldBounds, newBounds, rows, -1, -1);
+    }
+
+    /**
+     * Constructor - creates a change that moved one shape of a layer in the drawing order
+     *
+     * @param fromRow Row of the shape before the change
+     * @param toRow   Row of the shape after the change; the rows in between shift by one
+     * @param bounds  Area of the shape
+     */
+    public DrawingChange(Layer layer, int fromRow, int toRow, java.awt.Rectangle bounds) {
+        this(Type.SHAPE_REORDERED, layer, 1, bounds, bounds, null, fromRow, toRow);
+    }
+
+    private DrawingChange(Type type, Layer layer, int count, java.awt.Rectangle oldBounds, java.awt.Rectangle newBounds,
+                          BitSet rows, int fromRow, int toRow) {
+        this.type = type;
+        this.layer = layer;
+        this.count = count;
+        this.oldBounds = oldBounds;
+        this.newBounds = newBounds;
+        this.rows = rows;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+    }
+
+    /**
+     * Gets what kind of change this is
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the layer that changed or contains the changed shapes
+     */
+    public Layer getLayer() {
+        return layer;
+    }
+
+    /**
+     * Gets the number of shapes changed
+     *
+     * @return The number of shapes, or 0 if not known
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the area the changed shapes covered before the change
+     *
+     * @return The area in canvas coordinates, or null if not known
+     */
+    public java.awt.Rectangle getOldBounds() {
+        return oldBounds;
+    }
+
+    /**
+     * Gets the area the changed shapes cover after the change
+     *
+     * @return The area in canvas coordinates, or null if not known
+     */
+    public java.awt.Rectangle getNewBounds() {
+        return newBounds;
+    }
+
+    /**
+     * Gets the rows of the shapes added or removed
+     * Added shapes are given by their rows after the change, removed shapes by their
+     * rows before it. The set must not be modified.
+     *
+     * @return The rows, or null if not known or the change did not add or remove shapes
+     */
+    public BitSet getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the row a reordered shape had before the change
+     *
+     * @return The row, or -1 if this is not a reorder of a known shape
+     */
+    public int getFromRow() {
+        return fromRow;
+    }
+
+    /**
+     * Gets the row a reordered shape has after the change
+     *
+     * @return The row, or -1 if this is not a reorder of a known shape
+     */
+    public int getToRow() {
+        return toRow;
+    }
+
+    /**
+     * Checks if this change is about shapes rather than the layer itself
+     */
+    public boolean isShapeChange() {
+        return type == Type.SHAPE_ADDED || type == Type.SHAPE_REMOVED
+            || type == Type.SHAPE_GEOMETRY_CHANGED || type == Type.SHAPE_REORDERED;
+    }
+
+    /**
+     * Gets the part of the canvas that may look different after this change
+     *
+     * @return The union of the old and new bounds, or null if the whole layer may look different
+     */
+    public java.awt.Rectangle getArea() {
+        if (!isShapeChange() || (oldBounds == null && newBounds == null)) {
+            return null;
+        }
+        if (oldBounds == null) {
+            return new java.awt.Rectangle(newBounds);
+        }
+        return newBounds == null ? new java.awt.Rectangle(oldBounds) : oldBounds.union(newBounds);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + layer.getName() + (count > 0 ? " (" + count + " shapes)" : "");
+    }
+}
@@ -0,0 +1,15 @@
+import java.util.EventListener;
+import java.util.List;
+
+/**
+ * DrawingChangeListener is notified when the drawing document changes
+ * All changes of one edit arrive together, after the edit has finished
+ */
+public interface DrawingChangeListener extends EventListener {
+    /**
+     * Called on the Event Dispatch Thread after an edit changed the document
+     *
+     * @param changes The changes of the edit, in the order they were made
+     */
+    void drawingChanged(List<DrawingChange> changes);
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DrawingDocument holds the layers of the drawing and reports every change to them
+ * Layers added to the document report their shape changes through it as well. The
+ * changes of an edit are collected between beginEdit() and endEdit() and handed to
+ * the listeners together; changes made outside an edit are handed over right away.
+ *
+ * Undo snapshots are restored into the same Layer objects, so only the layers and
+ * shapes that actually differ produce changes and their caches stay valid elsewhere.
+ * All methods must be called on the Event Dispatch Thread.
+ */
+public class DrawingDocument {
+    private final ArrayList<Layer> layers = new ArrayList<>(); // All layers, in drawing order
+    private final List<Layer> readOnlyLayers = Collections.unmodifiableList(layers);
+    private final ArrayList<DrawingChangeListener> listeners = new ArrayList<>();
+    private final ArrayList<DrawingChange> pending = new ArrayList<>(); // Changes of the open edit
+    private int editDepth;                                      // Number of edits currently open
+
+    /**
+     * Snapshot keeps the layers of the document and their shapes for undo
+     * The shapes are kept as frozen columns of each layer. They share their chunks with
+     * the document until an edit changes them, so later edits never reach the snapshot
+     * and only the parts that were edited take extra memory.
+     */
+    public static class Snapshot {
+        private final Layer[] layers;                 // The layers in drawing order
+        private final String[] names;                 // Name of each layer
+        private final boolean[] visible;              // Visibility of each layer
+        private final ShapeColumns[] shapes;          // Frozen shapes of each layer
+        private final int shapeCount;                 // Number of shapes in all layers
+
+        private Snapshot(List<Layer> layers) {
+            this.layers = layers.toArray(new Layer[0]);
+            this.names = new String[this.layers.length];
+            this.visible = new boolean[this.layers.length];
+            this.shapes = new ShapeColumns[this.layers.length];
+            int count = 0;
+            for (int i = 0; i < this.layers.length; i++) {
+                names[i] = this.layers[i].getName();
+                visible[i] = this.layers[i].isVisible();
+                shapes[i] = this.layers[i].freezeColumns();
+                count += shapes[i].size();
+            }
+            this.shapeCount = count;
+        }
+
+        /**
+         * Gets the number of layers in the snapshot
+         */
+        public int getLayerCount() {
+            return layers.length;
+        }
+
+        /**
+         * Gets the number of shapes in all layers of the snapshot
+         */
+        public int getShapeCount() {
+            return shapeCount;
+        }
+    }
+
+    /**
+     * Gets the layers of the document in drawing order
+     * The list follows later changes but cannot be modified; use the methods of the document
+     */
+    public List<Layer> getLayers() {
+        return readOnlyLayers;
+    }
+
+    /**
+     * Adds a layer to the document
+     *
+     * @param index Position of the new layer in the list
+     */
+    public void addLayer(int index, Layer layer) {
+        layers.add(index, layer);
+        layer.setDocument(this);
+        changed(new DrawingChange(DrawingChange.Type.LAYER_ADDED, layer));
+    }
+
+    /**
+     * Removes a layer from the document
+     */
+    public void removeLayer(Layer layer) {
+        if (layers.remove(layer)) {
+            layer.setDocument(null);
+            changed(new DrawingChange(DrawingChange.Type.LAYER_REMOVED, layer));
+        }
+    }
+
+    /**
+     * Moves a layer to another position in the list
+     *
+     * @param from Current position of the layer
+     * @param to   New position of the layer
+     */
+    public void moveLayer(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        Layer layer = layers.remove(from);
+        layers.add(to, layer);
+        changed(new DrawingChange(DrawingChange.Type.LAYER_REORDERED, layer));
+    }
+
+    /**
+     * Registers a listener for the changes of the document
+     */
+    public void addChangeListener(DrawingChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener
+     */
+    public void removeChangeListener(DrawingChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts an edit; its changes are handed to the listeners when it ends
+     * Edits can be nested, the changes are handed over when the outermost edit ends
+     */
+    public void beginEdit() {
+        editDepth++;
+    }
+
+    /**
+     * Ends an edit and hands its changes to the listeners
+     */
+    public void endEdit() {
+        editDepth--;
+        if (editDepth == 0) {
+            fireChanges();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the layers and their shapes for undo
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(layers);
+    }
+
+    /**
+     * Brings the document back to a snapshot, as one edit
+     * Layers and shapes are put back into the same objects; only what differs from the
+     * snapshot is changed and reported.
+     */
+    public void restore(Snapshot snapshot) {
+        beginEdit();
+        try {
+            List<Layer> target = Arrays.asList(snapshot.layers);
+            for (Layer layer : new ArrayList<>(layers)) {
+                if (!target.contains(layer)) {
+                    removeLayer(layer);
+                }
+            }
+            for (int i = 0; i < target.size(); i++) {
+                Layer layer = target.get(i);
+                int index = layers.indexOf(layer);
+                if (index < 0) {
+                    addLayer(i, layer);
+                } else {
+                    moveLayer(index, i);
+                }
+            }
+            for (int i = 0; i < target.size(); i++) {
+                Layer layer = target.get(i);
+                layer.setName(snapshot.names[i]);
+                layer.setVisible(snapshot.visible[i]);
+                layer.restore(snapshot.shapes[i]);
+            }
+        } finally {
+            endEdit();
+        }
+    }
+
+    /**
+     * Records a change made to the document or one of its layers
+     * Called by the layers themselves; the change is handed over at the end of the edit
+     */
+    void changed(DrawingChange change) {
+        pending.add(change);
+        if (editDepth == 0) {
+            fireChanges();
+        }
+    }
+
+    /**
+     * Hands the collected changes to all listeners
+     */
+    private void fireChanges() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        DrawingEvents.DocumentChangeEvent event = new DrawingEvents.DocumentChangeEvent();
+        event.begin();
+        List<DrawingChange> changes = Collections.unmodifiableList(new ArrayList<>(pending));
+        pending.clear();
+        for (DrawingChangeListener listener : new ArrayList<>(listeners)) {
+            listener.drawingChanged(changes);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.changeCount = changes.size();
+            event.listenerCount = listeners.size();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * DrawingEvents groups the JDK Flight Recorder events emitted by the drawing tool
+ * Each event marks one piece of domain work (painting, hit-testing, undo, image I/O)
+ * so a recording shows what the editor was doing instead of only generic Swing stacks
+ *
+ * The events are enabled by the bundled drawingtool.jfc settings file. When no
+ * recording is running, begin()/commit() cost next to nothing.
+ */
+public final class DrawingEvents {
+    private static final String CATEGORY = "Drawing Tool";
+
+    private DrawingEvents() {
+        // Only holds the nested event types
+    }
+
+    /**
+     * One call of DrawingPanel.paintComponent
+     */
+    @Name("drawingtool.PaintFrame")
+    @Label("Paint Frame")
+    @Category({CATEGORY, "Rendering"})
+    @Description("Painting of the whole drawing canvas")
+    @StackTrace(false)
+    public static class PaintFrameEvent extends Event {
+        @Label("Layers")
+        public int layerCount;
+
+        @Label("Shapes")
+        public int shapeCount;
+
+        @Label("Zoom Factor")
+        public double zoomFactor;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+    }
+
+    /**
+     * One call of Layer.draw
+     */
+    @Name("drawingtool.LayerDraw")
+    @Label("Layer Draw")
+    @Category({CATEGORY, "Rendering"})
+    @Description("Drawing of all shapes in a single layer")
+    @StackTrace(false)
+    public static class LayerDrawEvent extends Event {
+        @Label("Layer")
+        public String layerName;
+
+        @Label("Shapes")
+        public int shapeCount;
+
+        @Label("Visible")
+        public boolean visible;
+    }
+
+    /**
+     * One call of Layer.getShapeAt
+     */
+    @Name("drawingtool.HitTest")
+    @Label("Hit Test")
+    @Category({CATEGORY, "Interaction"})
+    @Description("Search for the topmost shape under a canvas point")
+    @StackTrace(false)
+    public static class HitTestEvent extends Event {
+        @Label("Layer")
+        public String layerName;
+
+        @Label("X")
+        public int x;
+
+        @Label("Y")
+        public int y;
+
+        @Label("Shapes Tested")
+        public int shapesTested;
+
+        @Label("Hit")
+        public boolean hit;
+    }
+
+    /**
+     * One call of Layer.getShapesIn
+     */
+    @Name("drawingtool.RegionSelect")
+    @Label("Region Select")
+    @Category({CATEGORY, "Interaction"})
+    @Description("Search for the shapes touching a selection rectangle or lasso")
+    @StackTrace(false)
+    public static class RegionSelectEvent extends Event {
+        @Label("Layer")
+        public String layerName;
+
+        @Label("Lasso")
+        public boolean lasso;
+
+        @Label("Shapes")
+        public int shapeCount;
+
+        @Label("Selected")
+        public int selected;
+    }
+
+    /**
+     * One snapshot pushed onto the undo stack
+     */
+    @Name("drawingtool.UndoSnapshot")
+    @Label("Undo Snapshot")
+    @Category({CATEGORY, "Editing"})
+    @Description("Copy of the layer state taken for undo")
+    public static class UndoSnapshotEvent extends Event {
+        @Label("Layers")
+        public int layerCount;
+
+        @Label("Shapes")
+        public int shapeCount;
+
+        @Label("Undo Depth")
+        public int undoDepth;
+    }
+
+    /**
+     * One batch of document changes handed to the listeners
+     */
+    @Name("drawingtool.DocumentChange")
+    @Label("Document Change")
+    @Category({CATEGORY, "Editing"})
+    @Description("Delivery of the changes of one edit to the LayerPanel, canvas and caches")
+    @StackTrace(false)
+    public static class DocumentChangeEvent extends Event {
+        @Label("Changes")
+        public int changeCount;
+
+        @Label("Listeners")
+        public int listenerCount;
+    }
+
+    /**
+     * One image decoded from disk (File > Open or Insert > Image)
+     */
+    @Name("drawingtool.ImageDecode")
+    @Label("Image Decode")
+    @Category({CATEGORY, "I/O"})
+    @Description("Reading and decoding an image file")
+    public static class ImageDecodeEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Path")
+        public String path;
+
+        @Label("File Size")
+        @DataAmount
+        public long fileBytes;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+    }
+
+    /**
+     * One export of the drawing to an image file
+     */
+    @Name("drawingtool.Export")
+    @Label("Export")
+    @Category({CATEGORY, "I/O"})
+    @Description("Rendering and encoding the drawing into an image file")
+    public static class ExportEvent extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Format")
+        public String format;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Zoom Factor")
+        public double zoomFactor;
+
+        @Label("File Size")
+        @DataAmount
+        public long fileBytes;
+    }
+
+    /**
+     * One start-up warm-up task run behind the splash screen
+     */
+    @Name("drawingtool.Warmup")
+    @Label("Warm-up")
+    @Category({CATEGORY, "Start-up"})
+    @Description("Loading fonts, image plug-ins, icons or shape code before the editor opens")
+    @StackTrace(false)
+    public static class WarmupEvent extends Event {
+        @Label("Task")
+        public String task;
+    }
+}
@@ -12,13 +12,14 @@ import javax.imageio.ImageIO;
  * It handles mouse interactions, drawing shapes, and managing layers.
  */
 public class DrawingPanel extends JPanel {
-    // Lists to store layers and shapes
-    private ArrayList<Layer> layers;
+    // The document holds the layers and reports every change to them
+    private final DrawingDocument document = new DrawingDocument();
+    private final java.util.List<Layer> layers = document.getLayers();
     private Layer currentLayer;
     
     // For undo and redo functionality
-    private Stack<ArrayList<Layer>> undoStack;
-    private Stack<ArrayList<Layer>> redoStack;
+    private Stack<DrawingDocument.Snapshot> undoStack;
+    private Stack<DrawingDocument.Snapshot> redoStack;
     
     // Drawing properties
     private Color currentColor;
@@ -33,11 +34,20 @@ public class DrawingPanel extends JPanel {
     
     // Selection properties
     private Shape selectedShape;
+    private final SelectionOverlay selection = new SelectionOverlay(); // Selected shapes, drawn as an overlay
+    private final PickBuffer pickBuffer = PickBuffer.isEnabled() ? new PickBuffer() : null; // ID raster for hit-testing, or null
     private boolean isResizing;
+    private Shape resizePreview;                    // Copy of the shape being resized, stored when the mouse is released
     private boolean isMoving;
     private int lastX, lastY;
     private boolean selectMode = false;
     
+    // Region selection by dragging over empty space in select mode
+    private Point regionStart;                      // Canvas point where the drag started, or null
+    private Point regionEnd;                        // Opposite corner of the rubber-band rectangle
+    private ArrayList<Point> lassoPoints;           // Outline of the lasso, or null for a rectangle
+    private boolean regionAdds;                     // Whether the region adds to the selection
+    
     // Canvas navigation properties
     private double zoomFactor = 1.0;
     private int panX = 0;
@@ -47,14 +57,54 @@ public class DrawingPanel extends JPanel {
     private static final double MIN_ZOOM = 0.1;
     private static final double MAX_ZOOM = 5.0;
     private static final double ZOOM_STEP = 0.1;
+    private static final int CHECKER_SIZE = 10;          // Size of one checkerboard square in canvas pixels
+    private static final Color CHECKER_LIGHT = new Color(240, 240, 240);
+    private static final Color CHECKER_DARK = new Color(220, 220, 220);
+    private static TexturePaint checkerboard;            // Pattern of the checkerboard, drawn once
+    private final ViewState viewState = new ViewState(); // Zoom, pan and tool published to listeners
+    
+    // Input waiting for the next frame (coalesced by the frame scheduler)
+    private FrameScheduler frameScheduler;
+    private int pendingPanX, pendingPanY;          // Pan distance not yet applied
+    private boolean hasPendingDrag;                 // Whether a drag position is waiting
+    private int pendingDragX, pendingDragY;         // Latest drag position in canvas coordinates
+    private int pendingZoomSteps;                   // Wheel steps not yet applied (negative = zoom in)
+    private int pendingZoomX, pendingZoomY;         // Mouse position the wheel zoom is centred on
+    
+    // Optional background rendering - frames are rasterized by a RenderThread
+    private boolean backgroundRendering = Boolean.getBoolean("drawingtool.backgroundRendering");
+    private RenderThread renderThread;
+    private boolean contentChanged = true;          // Whether a repaint was requested since the last snapshot
+    private RenderSnapshot lastSubmitted;           // Snapshot most recently handed to the render thread
+    private int snapshotSequence;                   // Number of snapshots submitted so far
+    private final ArrayList<Shape> settlingShapes = new ArrayList<>(); // Drawn live until a frame contains them
+    private Layer settlingLayer;       // Layer of the moved rows drawn live until a frame contains them, or null
+    private BitSet settlingRows;       // Rows of settlingLayer drawn live until a frame contains them
+    private int settlingRevision;      // Revision of settlingLayer the rows belong to
+    private int settledAtSequence;                  // First snapshot that contains the settling shapes
+    private boolean exporting;                      // Whether paint() is rendering an export
     
-    private LayerPanel layerPanel; // Add reference to LayerPanel
+    // Composited layers of the last frame, shifted instead of redrawn when only the pan changes
+    private BufferedImage viewBuffer;
+    private ArrayList<Object> bufferContentKey;     // Layers, revisions and visibility the buffer shows
+    private double bufferZoom, bufferScale;         // Zoom and device scale of the buffer
+    private int bufferPanX, bufferPanY;             // Pan of the buffer
+    private boolean bufferComplete;                 // Whether all tiles of the buffer were rendered
+    private ArrayList<Integer> bufferRevisions;     // Layer revisions the buffer shows
+    private java.awt.Rectangle bufferDirty;         // Canvas area changed since the buffer was composed, or null
+    private boolean bufferDirtyAll;                 // Whether a change of unknown area happened since then
+    
+    // Huge image shown under the layers, read tile by tile as the view needs it
+    private TiledImageSource backgroundImage;
+    private int backgroundRevision;                 // Number of tile loads so far, part of the buffer revisions
+    
+    // Draws in draft quality while the user interacts and refines when idle
+    private RenderQuality renderQuality;
     
     /**
      * Constructor - initializes the drawing panel and sets up event listeners
      */
     public DrawingPanel() {
-        layers = new ArrayList<>();
         undoStack = new Stack<>();
         redoStack = new Stack<>();
         currentColor = Color.BLACK;
@@ -67,6 +117,12 @@ public class DrawingPanel extends JPanel {
         isResizing = false;
         isMoving = false;
         
+        frameScheduler = FrameScheduler.forDisplay(this::applyPendingInput);
+        renderQuality = new RenderQuality(frameScheduler.getFrameNanos(), this::repaintFrame);
+        
+        // Repaint only what the changes of an edit touched
+        document.addChangeListener(this::drawingChanged);
+        
         setBackground(Color.WHITE);
         setFocusable(true);
         requestFocusInWindow();
@@ -75,6 +131,7 @@ public class DrawingPanel extends JPanel {
         addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
                 requestFocusInWindow();
+                frameScheduler.flush();
                 
                 // Convert screen coordinates to canvas coordinates
                 int canvasX = screenToCanvasX(e.getX());
@@ -97,44 +154,60 @@ public class DrawingPanel extends JPanel {
                 
                 // Handle selection mode - check if we clicked on a shape
                 if (selectMode || e.isControlDown()) {
-                    // Look through all layers from top to bottom
-                    for (int i = layers.size() - 1; i >= 0; i--) {
-                        Layer layer = layers.get(i);
-                        if (layer.isVisible()) {
-                            Shape shape = layer.getShapeAt(canvasX, canvasY);
-                            if (shape != null) {
-                                // Deselect previous shape if any
-                                if (selectedShape != null) {
-                                    selectedShape.setSelected(false);
-                                }
-                                
-                                // Select the new shape
-                                selectedShape = shape;
-                                selectedShape.setSelected(true);
-                                currentLayer = layer;
-                                
-                                // Check if we're clicking on a resize handle
-                                if (shape.isResizeHandle(canvasX, canvasY)) {
-                                    isResizing = true;
-                                } else {
-                                    isMoving = true;
-                                }
-                                
-                                repaint();
-                                return;
+                    // Ask the pick buffer for the topmost shape under the mouse; while it
+                    // is out of date, look through all layers from top to bottom
+                    Shape shape = null;
+                    Layer owner = null;
+                    int candidate = pickBuffer == null ? PickBuffer.NOT_READY
+                        : pickBuffer.candidateAt(layers, zoomFactor, panX, panY, getWidth(), getHeight(), e.getX(), e.getY());
+                    if (candidate >= 0 && pickBuffer.getShape(candidate).containsPoint(canvasX, canvasY)) {
+                        shape = pickBuffer.getShape(candidate);
+                        owner = pickBuffer.getLayer(candidate);
+                    } else if (candidate != PickBuffer.NONE) {
+                        for (int i = layers.size() - 1; i >= 0 && shape == null; i--) {
+                            Layer layer = layers.get(i);
+                            if (layer.isVisible()) {
+                                shape = layer.getShapeAt(canvasX, canvasY);
+                                owner = layer;
                             }
                         }
                     }
+                    if (shape != null && selectMode && e.isShiftDown()) {
+                        // Shift-click adds the shape to the selection or takes it out again
+                        toggleSelection(owner, shape);
+                        currentLayer = owner;
+                        return;
+                    }
+                    if (shape != null) {
+                        // Clicking a shape of a multiple selection drags the whole selection,
+                        // otherwise the new shape is selected instead of the previous ones
+                        boolean group = selection.size() > 1 && selection.contains(shape);
+                        if (!group) {
+                            selectShape(owner, shape);
+                        }
+                        selectedShape = shape;
+                        currentLayer = owner;
+                        
+                        // Check if we're clicking on a resize handle
+                        if (!group && shape.isResizeHandle(canvasX, canvasY)) {
+                            isResizing = true;
+                            resizePreview = shape.copy();
+                        } else {
+                            isMoving = true;
+                        }
+                        return;
+                    }
                     
                     // If we clicked on empty space, deselect any selected shape
-                    if (selectedShape != null) {
-                        selectedShape.setSelected(false);
-                        selectedShape = null;
-                        repaint();
+                    // (Shift keeps the selection so a region can add to it)
+                    if (!(selectMode && e.isShiftDown())) {
+                        clearSelection();
                     }
                     
-                    // If in select mode, don't start drawing
+                    // If in select mode, don't start drawing; dragging selects the shapes
+                    // in a rectangle, or in a freehand lasso while Alt is held
                     if (selectMode) {
+                        beginRegion(canvasX, canvasY, e.isAltDown(), e.isShiftDown());
                         return;
                     }
                 }
@@ -159,7 +232,6 @@ public class DrawingPanel extends JPanel {
                                 currentLayer.addShape(currentDrawing);
                                 saveState();
                                 currentDrawing = null;
-                                repaint();
                             } else {
                                 // If no text is set, prompt the user
                                 String text = JOptionPane.showInputDialog(this, "Enter text:");
@@ -169,7 +241,6 @@ public class DrawingPanel extends JPanel {
                                     currentLayer.addShape(currentDrawing);
                                     saveState();
                                     currentDrawing = null;
-                                    repaint();
                                 }
                             }
                             break;
@@ -192,6 +263,9 @@ public class DrawingPanel extends JPanel {
             }
             
             public void mouseReleased(MouseEvent e) {
+                // Apply the last drag positions before finishing the gesture
+                frameScheduler.flush();
+                
                 // End panning mode if active
                 if (isPanning) {
                     isPanning = false;
@@ -199,14 +273,32 @@ public class DrawingPanel extends JPanel {
                     return;
                 }
                 
+                // Select the shapes in the dragged rectangle or lasso
+                if (regionStart != null) {
+                    finishRegion();
+                    return;
+                }
+                
+                // The resized copy replaces the shape, as one undoable step; like a moved
+                // shape it is drawn live until the render thread catches up
+                if (isResizing && selectedShape != null) {
+                    finishResize();
+                }
+                
+                // The dragged selection is moved in one pass, as one undoable step
+                if (isMoving) {
+                    finishMove();
+                }
+                
                 // Finalize the current drawing and add it to the layer
                 if (currentDrawing != null && !currentShape.equals("Text") && currentLayer != null) {
+                    settleShape(currentDrawing);
                     currentLayer.addShape(currentDrawing);
                     saveState();
                     currentDrawing = null;
-                    repaint();
                 }
                 isResizing = false;
+                resizePreview = null;
                 isMoving = false;
             }
         });
@@ -216,15 +308,13 @@ public class DrawingPanel extends JPanel {
             public void mouseDragged(MouseEvent e) {
                 requestFocusInWindow();
                 
-                // Handle panning - move the view around
+                // Handle panning - collect the distance and move the view in the next frame
                 if (isPanning) {
-                    int dx = e.getX() - panStartX;
-                    int dy = e.getY() - panStartY;
-                    panX += dx;
-                    panY += dy;
+                    pendingPanX += e.getX() - panStartX;
+                    pendingPanY += e.getY() - panStartY;
                     panStartX = e.getX();
                     panStartY = e.getY();
-                    repaint();
+                    frameScheduler.requestFrame();
                     return;
                 }
                 
@@ -232,20 +322,20 @@ public class DrawingPanel extends JPanel {
                 int canvasX = screenToCanvasX(e.getX());
                 int canvasY = screenToCanvasY(e.getY());
                 
-                // Handle resizing or moving selected shapes
-                if (selectedShape != null) {
-                    if (isResizing) {
-                        selectedShape.setEndPoint(canvasX, canvasY);
-                    } else if (isMoving) {
-                        selectedShape.move(canvasX - lastX, canvasY - lastY);
-                    }
-                    lastX = canvasX;
-                    lastY = canvasY;
-                    repaint();
-                } else if (currentDrawing != null && !currentShape.equals("Text")) {
-                    // Update the end point of the current drawing
+                if (regionStart != null) {
+                    // The region grows with every sample, only the repaint waits for the frame
+                    extendRegion(canvasX, canvasY);
+                    frameScheduler.requestFrame();
+                } else if (currentDrawing instanceof FreeDrawing && selectedShape == null) {
+                    // Freehand strokes keep every sample, only the repaint waits for the frame
                     currentDrawing.setEndPoint(canvasX, canvasY);
-                    repaint();
+                    frameScheduler.requestFrame();
+                } else if (selectedShape != null || (currentDrawing != null && !currentShape.equals("Text"))) {
+                    // Other shapes only need the latest position
+                    hasPendingDrag = true;
+                    pendingDragX = canvasX;
+                    pendingDragY = canvasY;
+                    frameScheduler.requestFrame();
                 }
             }
         });
@@ -254,36 +344,12 @@ public class DrawingPanel extends JPanel {
         addMouseWheelListener(new MouseWheelListener() {
             @Override
             public void mouseWheelMoved(MouseWheelEvent e) {
-                // Zoom in/out with Ctrl + mouse wheel
+                // Zoom in/out with Ctrl + mouse wheel, applied in the next frame
                 if (e.isControlDown()) {
-                    int wheelRotation = e.getWheelRotation();
-                    
-                    // Get mouse position for zoom centering
-                    int mouseX = e.getX();
-                    int mouseY = e.getY();
-                    
-                    // Convert to canvas coordinates before zoom
-                    double oldCanvasX = (mouseX - panX) / zoomFactor;
-                    double oldCanvasY = (mouseY - panY) / zoomFactor;
-                    
-                    // Adjust zoom factor
-                    if (wheelRotation < 0) {
-                        // Zoom in
-                        zoomFactor = Math.min(MAX_ZOOM, zoomFactor + ZOOM_STEP);
-                    } else {
-                        // Zoom out
-                        zoomFactor = Math.max(MIN_ZOOM, zoomFactor - ZOOM_STEP);
-                    }
-                    
-                    // Calculate new screen position for the same canvas point
-                    double newScreenX = oldCanvasX * zoomFactor + panX;
-                    double newScreenY = oldCanvasY * zoomFactor + panY;
-                    
-                    // Adjust pan to keep mouse position stable
-                    panX += (mouseX - newScreenX);
-                    panY += (mouseY - newScreenY);
-                    
-                    repaint();
+                    pendingZoomSteps += e.getWheelRotation() < 0 ? -1 : 1;
+                    pendingZoomX = e.getX();
+                    pendingZoomY = e.getY();
+                    frameScheduler.requestFrame();
                 }
             }
         });
@@ -292,9 +358,9 @@ public class DrawingPanel extends JPanel {
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                // Delete selected shape with Delete or Backspace key
+                // Delete selected shapes with Delete or Backspace key
                 if ((e.getKeyCode() == KeyEvent.VK_BACK_SPACE || e.getKeyCode() == KeyEvent.VK_DELETE) 
-                    && selectedShape != null && currentLayer != null) {
+                    && !selection.isEmpty()) {
                     deleteSelectedShape();
                 }
                 
@@ -329,6 +395,66 @@ public class DrawingPanel extends JPanel {
         });
     }
     
+    /**
+     * Applies all input collected since the last frame and repaints once
+     * Called by the frame scheduler at most once per display frame
+     */
+    private void applyPendingInput() {
+        // Interactive frames are drawn in draft quality until the input stops
+        renderQuality.interacting();
+        
+        // Pan the view by the collected distance
+        if (pendingPanX != 0 || pendingPanY != 0) {
+            panX += pendingPanX;
+            panY += pendingPanY;
+            pendingPanX = 0;
+            pendingPanY = 0;
+        }
+        
+        // Apply the wheel steps one by one, keeping the point under the mouse in place
+        while (pendingZoomSteps != 0) {
+            // Convert to canvas coordinates before zoom
+            double oldCanvasX = (pendingZoomX - panX) / zoomFactor;
+            double oldCanvasY = (pendingZoomY - panY) / zoomFactor;
+            
+            if (pendingZoomSteps < 0) {
+                // Zoom in
+                zoomFactor = Math.min(MAX_ZOOM, zoomFactor + ZOOM_STEP);
+                pendingZoomSteps++;
+            } else {
+                // Zoom out
+                zoomFactor = Math.max(MIN_ZOOM, zoomFactor - ZOOM_STEP);
+                pendingZoomSteps--;
+            }
+            
+            // Adjust pan to keep mouse position stable
+            panX += (pendingZoomX - (oldCanvasX * zoomFactor + panX));
+            panY += (pendingZoomY - (oldCanvasY * zoomFactor + panY));
+        }
+        
+        // Resize or move the selected shape, or stretch the shape being drawn
+        if (hasPendingDrag) {
+            hasPendingDrag = false;
+            if (selectedShape != null) {
+                if (isResizing) {
+                    // Only the copy follows the mouse; the shape changes when the mouse is released
+                    resizePreview.setEndPoint(pendingDragX, pendingDragY);
+                } else if (isMoving) {
+                    // The selection is drawn at an offset; its shapes move when the drag ends
+                    selection.drag(pendingDragX - lastX, pendingDragY - lastY);
+                }
+                lastX = pendingDragX;
+                lastY = pendingDragY;
+            } else if (currentDrawing != null) {
+                currentDrawing.setEndPoint(pendingDragX, pendingDragY);
+            }
+        }
+        
+        // Only the view and the live shapes changed, so the layers need no new snapshot
+        publishView();
+        repaintFrame();
+    }
+    
     /**
      * Convert screen X coordinate to canvas coordinate
      * This is needed because of zooming and panning
@@ -368,6 +494,7 @@ public class DrawingPanel extends JPanel {
         zoomFactor = 1.0;
         panX = 0;
         panY = 0;
+        publishView();
         repaint();
     }
     
@@ -376,6 +503,7 @@ public class DrawingPanel extends JPanel {
      */
     public void zoomIn() {
         zoomFactor = Math.min(MAX_ZOOM, zoomFactor + ZOOM_STEP);
+        publishView();
         repaint();
     }
     
@@ -384,6 +512,7 @@ public class DrawingPanel extends JPanel {
      */
     public void zoomOut() {
         zoomFactor = Math.max(MIN_ZOOM, zoomFactor - ZOOM_STEP);
+        publishView();
         repaint();
     }
     
@@ -394,50 +523,305 @@ public class DrawingPanel extends JPanel {
         return zoomFactor;
     }
     
+    /**
+     * Gets the view state, which tells listeners about zoom, pan and tool changes
+     */
+    public ViewState getViewState() {
+        return viewState;
+    }
+    
+    /**
+     * Hands the current zoom and pan to the view state
+     */
+    private void publishView() {
+        viewState.setView(zoomFactor, panX, panY);
+    }
+    
+    /**
+     * Hands the active tool to the view state
+     */
+    private void publishTool() {
+        viewState.setTool(selectMode ? "Select" : currentShape);
+    }
+    
     /**
      * Toggle selection mode on or off
      */
     public void setSelectMode(boolean selectMode) {
         this.selectMode = selectMode;
-        if (!selectMode && selectedShape != null) {
-            selectedShape.setSelected(false);
-            selectedShape = null;
-            repaint();
+        if (!selectMode) {
+            clearSelection();
         }
+        publishTool();
     }
     
     /**
-     * Delete the currently selected shape
+     * Delete the currently selected shapes
+     * All of them are removed from their layer in one pass, as one undoable step
      */
     public void deleteSelectedShape() {
-        if (selectedShape != null && currentLayer != null) {
-            currentLayer.removeShape(selectedShape);
+        if (!selection.isEmpty()) {
+            selection.getLayer().removeShapes(selection.getRows());
             saveState();
-            selectedShape = null;
-            repaint();
+            clearSelection();
+        }
+    }
+    
+    /**
+     * Selects all shapes of the current layer
+     */
+    public void selectAll() {
+        if (currentLayer != null && !currentLayer.getShapes().isEmpty()) {
+            clearSelection();
+            selection.selectAll(currentLayer);
+            selectedShape = currentLayer.getShapes().get(currentLayer.getShapes().size() - 1);
+            repaintHandles();
+        }
+    }
+    
+    /**
+     * Scales the selected shapes around the centre of the selection
+     * All of them are changed in one pass, as one undoable step
+     * 
+     * @param factor Scale factor, e.g. 2 to double the size
+     */
+    public void scaleSelection(double factor) {
+        if (!selection.isEmpty()) {
+            java.awt.Rectangle bounds = selection.getBounds();
+            int centerX = (int) bounds.getCenterX();
+            int centerY = (int) bounds.getCenterY();
+            repaintHandles();
+            selection.getLayer().updateShapes(selection.getRows(), shape -> shape.scale(factor, factor, centerX, centerY));
+            saveState();
+            repaintHandles();
+        }
+    }
+    
+    /**
+     * Applies the drag offset of the selection to its shapes
+     * The shapes are moved in one pass and are drawn live until the render thread catches up
+     */
+    private void finishMove() {
+        int dx = selection.getOffsetX();
+        int dy = selection.getOffsetY();
+        repaintHandles();
+        selection.resetOffset();
+        if (dx != 0 || dy != 0) {
+            selection.getLayer().updateShapes(selection.getRows(), shape -> shape.move(dx, dy));
+            settleRows(selection.getLayer(), selection.getRows());
+            saveState();
+        }
+        repaintHandles();
+    }
+    
+    /**
+     * Replaces the resized shape by the copy that followed the mouse
+     */
+    private void finishResize() {
+        Layer layer = selection.getLayer();
+        int index = layer == null ? -1 : layer.indexOf(selectedShape);
+        if (index >= 0) {
+            repaintHandles();
+            layer.setShape(index, resizePreview);
+            settleShape(selectedShape);
+            saveState();
+            repaintHandles();
+        }
+    }
+    
+    /**
+     * Starts selecting by region at a canvas point
+     * 
+     * @param lasso Whether to drag a freehand lasso instead of a rectangle
+     * @param adds  Whether the shapes in the region are added to the current selection
+     */
+    private void beginRegion(int x, int y, boolean lasso, boolean adds) {
+        regionStart = new Point(x, y);
+        regionEnd = new Point(x, y);
+        lassoPoints = null;
+        if (lasso) {
+            lassoPoints = new ArrayList<>();
+            lassoPoints.add(new Point(x, y));
+        }
+        regionAdds = adds;
+    }
+    
+    /**
+     * Moves the corner of the rectangle, or adds a point to the lasso
+     */
+    private void extendRegion(int x, int y) {
+        regionEnd.setLocation(x, y);
+        if (lassoPoints != null && !lassoPoints.get(lassoPoints.size() - 1).equals(regionEnd)) {
+            lassoPoints.add(new Point(x, y));
+        }
+    }
+    
+    /**
+     * Gets the region being dragged
+     * 
+     * @return The region, or null if none is being dragged or it is still empty
+     */
+    private SelectionRegion currentRegion() {
+        if (regionStart == null) {
+            return null;
+        }
+        if (lassoPoints != null) {
+            return lassoPoints.size() < 3 ? null : SelectionRegion.lasso(lassoPoints);
+        }
+        if (regionStart.equals(regionEnd)) {
+            return null;
+        }
+        return SelectionRegion.rectangle(regionStart.x, regionStart.y, regionEnd.x, regionEnd.y);
+    }
+    
+    /**
+     * Selects the shapes of the current layer that touch the dragged region
+     */
+    private void finishRegion() {
+        SelectionRegion region = currentRegion();
+        regionStart = null;
+        lassoPoints = null;
+        repaintFrame();
+        if (region == null || currentLayer == null || !currentLayer.isVisible()) {
+            return;
+        }
+        BitSet found = currentLayer.getShapesIn(region);
+        if (found.isEmpty()) {
+            return;
+        }
+        if (!regionAdds) {
+            clearSelection();
+        }
+        selection.addAll(currentLayer, found);
+        selectedShape = currentLayer.getShapes().get(found.length() - 1);
+        repaintHandles();
+    }
+    
+    /**
+     * Draws the outline of the region being dragged
+     * 
+     * @param g2d Graphics with the zoom and pan transform applied
+     */
+    private void drawRegion(Graphics2D g2d) {
+        SelectionRegion region = currentRegion();
+        if (region == null) {
+            return;
         }
+        java.awt.geom.Path2D outline = region.toPath();
+        g2d.setColor(new Color(0, 120, 215, 40));
+        g2d.fill(outline);
+        g2d.setColor(new Color(0, 120, 215));
+        g2d.setStroke(new BasicStroke((float) (1 / zoomFactor), BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+            10, new float[] {(float) (4 / zoomFactor)}, 0));
+        g2d.draw(outline);
     }
     
     /**
-     * Set the LayerPanel reference so DrawingPanel can notify it of layer changes
+     * Makes a shape the only selected shape
+     * Only the handle areas are repainted; the layers themselves do not change
      */
-    public void setLayerPanel(LayerPanel layerPanel) {
-        this.layerPanel = layerPanel;
+    private void selectShape(Layer layer, Shape shape) {
+        clearSelection();
+        selectedShape = shape;
+        selection.add(layer, shape);
+        repaintHandles();
     }
     
     /**
-     * Set the layers for this drawing panel
+     * Adds a shape to the selection or removes it if it was selected
+     * A shape of another layer starts a new selection
      */
-    public void setLayers(ArrayList<Layer> layers) {
-        this.layers = layers;
-        if (!layers.isEmpty() && currentLayer == null) {
-            currentLayer = layers.get(0);
+    private void toggleSelection(Layer layer, Shape shape) {
+        repaintHandles();
+        if (layer == selection.getLayer() && selection.remove(shape)) {
+            int last = selection.getRows().length() - 1;
+            selectedShape = last < 0 ? null : layer.getShapes().get(last);
+        } else {
+            selection.add(layer, shape);
+            selectedShape = shape;
         }
-        if (layerPanel != null) {
-            layerPanel.setLayers(layers);
+        repaintHandles();
+    }
+    
+    /**
+     * Deselects all shapes and repaints the areas their handles covered
+     */
+    private void clearSelection() {
+        repaintHandles();
+        selection.clear();
+        selectedShape = null;
+    }
+    
+    /**
+     * Repaints the part of the view covered by the selection handles
+     */
+    private void repaintHandles() {
+        if (!selection.isEmpty()) {
+            repaintCanvasArea(selection.getHandleBounds());
         }
     }
     
+    /**
+     * Repaints the part of the view that shows an area of the canvas
+     * 
+     * @param bounds The area in canvas coordinates
+     */
+    private void repaintCanvasArea(java.awt.Rectangle bounds) {
+        int left = (int) Math.floor(bounds.x * zoomFactor) + panX - 1;
+        int top = (int) Math.floor(bounds.y * zoomFactor) + panY - 1;
+        int right = (int) Math.ceil((bounds.x + bounds.width) * zoomFactor) + panX + 1;
+        int bottom = (int) Math.ceil((bounds.y + bounds.height) * zoomFactor) + panY + 1;
+        super.repaint(0, left, top, right - left, bottom - top);
+    }
+    
+    /**
+     * Repaints what the changes of an edit touched
+     * Changes of shapes repaint their old and new area and are composited again into just
+     * that part of the view buffer; changes of whole layers repaint the whole view.
+     * The selection first moves its rows along with the shapes added, removed or reordered.
+     */
+    private void drawingChanged(java.util.List<DrawingChange> changes) {
+        selection.drawingChanged(changes);
+        java.awt.Rectangle area = null;
+        boolean all = false;
+        for (DrawingChange change : changes) {
+            if (change.getType() == DrawingChange.Type.LAYER_RENAMED) {
+                continue;
+            }
+            java.awt.Rectangle changed = change.getArea();
+            if (changed == null) {
+                all = true;
+            } else if (change.getLayer().isVisible()) {
+                area = area == null ? changed : area.union(changed);
+            }
+        }
+        if (all) {
+            bufferDirtyAll = true;
+            repaint();
+        } else if (area != null) {
+            bufferDirty = bufferDirty == null ? area : bufferDirty.union(area);
+            repaintCanvasArea(area);
+        } else {
+            // Shapes of hidden layers changed; only their revisions have to be taken over
+            bufferDirty = bufferDirty == null ? new java.awt.Rectangle() : bufferDirty;
+        }
+        
+        // Keep the current layer and the selection in layers that are still in the document
+        if (currentLayer != null && !layers.contains(currentLayer)) {
+            currentLayer = layers.isEmpty() ? null : layers.get(0);
+        }
+        if (selection.getLayer() != null && !layers.contains(selection.getLayer())) {
+            clearSelection();
+        }
+    }
+    
+    /**
+     * Gets the document that holds the layers of the drawing
+     */
+    public DrawingDocument getDocument() {
+        return document;
+    }
+    
     /**
      * Set the current active layer
      */
@@ -447,34 +831,33 @@ public class DrawingPanel extends JPanel {
     
     /**
      * Save the current state for undo/redo functionality
-     * Creates a deep copy of all layers and shapes
+     * Keeps frozen columns of all layers; edits made later copy what they change,
+     * so the saved shapes stay as they are now
      */
     private void saveState() {
-        ArrayList<Layer> state = new ArrayList<>();
-        for (Layer layer : layers) {
-            Layer newLayer = new Layer(layer.getName());
-            newLayer.setVisible(layer.isVisible());
-            for (Shape shape : layer.getShapes()) {
-                newLayer.addShape(shape);
-            }
-            state.add(newLayer);
-        }
+        DrawingEvents.UndoSnapshotEvent event = new DrawingEvents.UndoSnapshotEvent();
+        event.begin();
+        DrawingDocument.Snapshot state = document.snapshot();
         undoStack.push(state);
         redoStack.clear();
+        event.end();
+        if (event.shouldCommit()) {
+            event.layerCount = state.getLayerCount();
+            event.shapeCount = state.getShapeCount();
+            event.undoDepth = undoStack.size();
+            event.commit();
+        }
     }
     
     /**
      * Undo the last action
+     * The layers are restored in place, so only the shapes that differ are redrawn
      */
     public void undo() {
         if (!undoStack.isEmpty()) {
-            ArrayList<Layer> currentState = new ArrayList<>(layers);
-            redoStack.push(currentState);
-            layers = undoStack.pop();
-            if (layerPanel != null) {
-                layerPanel.setLayers(layers);
-            }
-            repaint();
+            redoStack.push(document.snapshot());
+            clearSelection();
+            document.restore(undoStack.pop());
         }
     }
     
@@ -483,56 +866,101 @@ public class DrawingPanel extends JPanel {
      */
     public void redo() {
         if (!redoStack.isEmpty()) {
-            ArrayList<Layer> currentState = new ArrayList<>(layers);
-            undoStack.push(currentState);
-            layers = redoStack.pop();
-            if (layerPanel != null) {
-                layerPanel.setLayers(layers);
-            }
-            repaint();
+            undoStack.push(document.snapshot());
+            clearSelection();
+            document.restore(redoStack.pop());
         }
     }
     
+    /**
+     * Shows a huge image under the layers, or removes it
+     * The image is drawn at 0,0 with one image pixel per canvas pixel. Its tiles are
+     * loaded in the background and the view is recomposed where they arrive.
+     * 
+     * @param source The tiled image, or null for none; a previous image is closed
+     */
+    public void setBackgroundImage(TiledImageSource source) {
+        if (backgroundImage == source) {
+            return;
+        }
+        if (backgroundImage != null) {
+            backgroundImage.close();
+        }
+        backgroundImage = source;
+        if (source != null) {
+            source.setTileListener(area -> {
+                if (backgroundImage != source) {
+                    return;
+                }
+                backgroundRevision++;
+                bufferDirty = bufferDirty == null ? area : bufferDirty.union(area);
+                contentChanged = true;
+                repaintCanvasArea(area);
+            });
+        }
+        repaint();
+    }
+    
+    /**
+     * Gets the huge image shown under the layers, or null
+     */
+    public TiledImageSource getBackgroundImage() {
+        return backgroundImage;
+    }
+    
     /**
      * Reset the drawing panel to its initial state
      * Clears all layers and creates a new initial layer
      */
     public void reset() {
-        layers.clear();
         undoStack.clear();
         redoStack.clear();
         currentDrawing = null;
-        if (selectedShape != null) {
-            selectedShape.setSelected(false);
-            selectedShape = null;
-        }
+        clearSelection();
+        setBackgroundImage(null);
         
         Layer initialLayer = new Layer("Layer 1");
-        layers.add(initialLayer);
         currentLayer = initialLayer;
-        
-        if (layerPanel != null) {
-            layerPanel.setLayers(layers);
+        document.beginEdit();
+        for (Layer layer : new ArrayList<>(layers)) {
+            document.removeLayer(layer);
         }
-        
-        repaint();
+        document.addLayer(0, initialLayer);
+        document.endEdit();
     }
     
     /**
      * Save the current drawing to a PNG file
      */
     public void saveDrawing(File file) {
+        DrawingEvents.ExportEvent event = new DrawingEvents.ExportEvent();
+        event.begin();
         try {
             BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
             Graphics2D g2d = image.createGraphics();
             g2d.setColor(Color.WHITE);
             g2d.fillRect(0, 0, getWidth(), getHeight());
-            paint(g2d);
+            exporting = true;
+            try {
+                paint(g2d);
+            } finally {
+                exporting = false;
+            }
             g2d.dispose();
             ImageIO.write(image, "PNG", file);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getAbsolutePath();
+            event.format = "PNG";
+            event.width = getWidth();
+            event.height = getHeight();
+            event.zoomFactor = zoomFactor;
+            event.fileBytes = file.length();
+            event.commit();
+        }
     }
     
     /**
@@ -550,70 +978,516 @@ public class DrawingPanel extends JPanel {
     // similar to private methods in that they cannot be accessed in the public scope. Neither the client nor the program can invoke them. objects of the same class can access each other's protected methods.
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
+        DrawingEvents.PaintFrameEvent event = new DrawingEvents.PaintFrameEvent();
+        event.begin();
+        long start = System.nanoTime();
+        
+        if (backgroundRendering && !exporting) {
+            paintRenderedFrame((Graphics2D) g);
+        } else {
+            paintLayers((Graphics2D) g);
+        }
+        
+        // Frame times tune the idle delay and refine budget of the render quality
+        if (!exporting) {
+            renderQuality.frameRendered(System.nanoTime() - start);
+            StartupProfile.mark(StartupProfile.PAINT, this);
+        }
         
+        // Once the view has settled, build the pick buffer for the next click in the background
+        if (pickBuffer != null && !exporting && !renderQuality.isDraft()) {
+            pickBuffer.prepare(layers, zoomFactor, panX, panY, getWidth(), getHeight());
+        }
+        
+        event.end();
+        if (event.shouldCommit()) {
+            int shapeCount = 0;
+            for (Layer layer : layers) {
+                shapeCount += layer.getShapes().size();
+            }
+            event.layerCount = layers.size();
+            event.shapeCount = shapeCount;
+            event.zoomFactor = zoomFactor;
+            event.width = getWidth();
+            event.height = getHeight();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Draws all layers directly on the Event Dispatch Thread
+     * The layers are composited into a view buffer first. When only the pan changed,
+     * the buffer is shifted and just the newly exposed strips are composited again.
+     */
+    private void paintLayers(Graphics2D g2d) {
         // Store original transform
         AffineTransform originalTransform = g2d.getTransform();
         
-        // Enable antialiasing for smoother drawing, input choice of algorithm when rendering
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Bring the view buffer up to date and blit it 1:1 in device pixels
+        SelectionOverlay live = (isMoving || isResizing) && !selection.isEmpty() ? selection : null;
+        boolean draft = renderQuality.isDraft() && !exporting;
+        if (!updateViewBuffer(live, Math.abs(originalTransform.getScaleX()), draft) && !exporting) {
+            // Continue rendering in the next frame, after the input that arrived meanwhile
+            if (draft) {
+                repaintFrame();
+            } else {
+                renderQuality.refineIncomplete();
+            }
+        }
+        g2d.setTransform(new AffineTransform(1, 0, 0, 1,
+            originalTransform.getTranslateX(), originalTransform.getTranslateY()));
+        g2d.drawImage(viewBuffer, 0, 0, null);
+        g2d.setTransform(originalTransform);
+        
+        // Antialiasing is only switched off for draft frames during an interaction
+        RenderQuality.applyHints(g2d, draft);
         
         // Apply zoom and pan transformations
         g2d.translate(panX, panY);
         g2d.scale(zoomFactor, zoomFactor);
         
-        // Draw checkerboard pattern for transparent background
-        drawCheckerboardBackground(g2d);
-        
-        // Draw all layers
-        for (Layer layer : layers) {
-            layer.draw(g2d);
-        }
+        // Draw the shapes being moved or resized on top of the cached layers
+        drawLiveSelection(g2d, live);
         
         // Draw current drawing in progress
         if (currentDrawing != null) {
             currentDrawing.draw(g2d);
         }
         
+        // Draw the selection handles and region on top; they are not part of an export
+        if (!exporting) {
+            drawSelectionHandles(g2d);
+            drawRegion(g2d);
+        }
+        
         // Restore original transform
         g2d.setTransform(originalTransform);
     }
     
+    /**
+     * Makes the view buffer show the layers for the current view
+     * Reuses the previous content when only the pan changed: the buffer is shifted
+     * with copyArea and only the exposed L-shaped strip is composited. When shapes
+     * changed, only the area the document reported as changed is composited again.
+     * 
+     * @param draft Whether newly rendered content may be drawn in draft quality
+     * @return False if tiles are still being rendered or refined
+     */
+    private boolean updateViewBuffer(SelectionOverlay live, double deviceScale, boolean draft) {
+        int bufferWidth = Math.max(1, (int) Math.ceil(getWidth() * deviceScale));
+        int bufferHeight = Math.max(1, (int) Math.ceil(getHeight() * deviceScale));
+        
+        // Everything the buffer content depends on, except the pan and the layer revisions
+        ArrayList<Object> contentKey = new ArrayList<>();
+        ArrayList<Integer> revisions = new ArrayList<>();
+        for (Layer layer : layers) {
+            contentKey.add(layer);
+            contentKey.add(layer.isVisible());
+            revisions.add(layer.getRevision());
+        }
+        contentKey.add(live == null ? null : live.getLayer());
+        contentKey.add(live == null ? 0 : live.getVersion());
+        contentKey.add(getBackground());
+        contentKey.add(renderQuality.getGeneration());
+        contentKey.add(backgroundImage);
+        revisions.add(backgroundRevision);
+        
+        // Exports always compose a fresh full quality image, unfinished frames are composed again
+        boolean reusable = !exporting && bufferComplete && viewBuffer != null
+            && viewBuffer.getWidth() == bufferWidth && viewBuffer.getHeight() == bufferHeight
+            && bufferZoom == zoomFactor && bufferScale == deviceScale
+            && contentKey.equals(bufferContentKey);
+        
+        // Changed shapes only need their reported area composited again
+        java.awt.Rectangle dirty = null;
+        if (reusable && !revisions.equals(bufferRevisions)) {
+            if (bufferDirtyAll || bufferDirty == null) {
+                reusable = false;
+            } else {
+                dirty = canvasToDevice(bufferDirty, deviceScale)
+                    .intersection(new java.awt.Rectangle(0, 0, bufferWidth, bufferHeight));
+            }
+        }
+        bufferDirty = null;
+        bufferDirtyAll = false;
+        double shiftX = (panX - bufferPanX) * deviceScale;
+        double shiftY = (panY - bufferPanY) * deviceScale;
+        int dx = (int) shiftX;
+        int dy = (int) shiftY;
+        
+        if (reusable && dirty == null && dx == 0 && dy == 0 && shiftX == 0 && shiftY == 0) {
+            return true;
+        }
+        if (viewBuffer == null || viewBuffer.getWidth() != bufferWidth || viewBuffer.getHeight() != bufferHeight) {
+            viewBuffer = new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        
+        long deadline = System.nanoTime() + (exporting ? Long.MAX_VALUE / 2 : renderQuality.getRenderBudgetNanos());
+        boolean complete = true;
+        Graphics2D bufferGraphics = viewBuffer.createGraphics();
+        if (reusable && dx == shiftX && dy == shiftY
+                && Math.abs(dx) < bufferWidth && Math.abs(dy) < bufferHeight) {
+            // Shift what is still visible and fill in the exposed strips
+            if (dx != 0 || dy != 0) {
+                bufferGraphics.copyArea(0, 0, bufferWidth, bufferHeight, dx, dy);
+            }
+            int keptTop = Math.max(0, dy);
+            int keptBottom = Math.min(bufferHeight, bufferHeight + dy);
+            if (dy > 0) {
+                complete &= composeArea(bufferGraphics, new java.awt.Rectangle(0, 0, bufferWidth, dy), live, deviceScale, draft, deadline);
+            } else if (dy < 0) {
+                complete &= composeArea(bufferGraphics, new java.awt.Rectangle(0, keptBottom, bufferWidth, -dy), live, deviceScale, draft, deadline);
+            }
+            if (dx > 0) {
+                complete &= composeArea(bufferGraphics, new java.awt.Rectangle(0, keptTop, dx, keptBottom - keptTop), live, deviceScale, draft, deadline);
+            } else if (dx < 0) {
+                complete &= composeArea(bufferGraphics, new java.awt.Rectangle(bufferWidth + dx, keptTop, -dx, keptBottom - keptTop), live, deviceScale, draft, deadline);
+            }
+            if (dirty != null && !dirty.isEmpty()) {
+                complete &= composeArea(bufferGraphics, dirty, live, deviceScale, draft, deadline);
+            }
+        } else {
+            complete &= composeArea(bufferGraphics, new java.awt.Rectangle(0, 0, bufferWidth, bufferHeight), live, deviceScale, draft, deadline);
+        }
+        bufferGraphics.dispose();
+        
+        bufferComplete = complete;
+        bufferContentKey = exporting ? null : contentKey;
+        bufferRevisions = revisions;
+        bufferZoom = zoomFactor;
+        bufferScale = deviceScale;
+        bufferPanX = panX;
+        bufferPanY = panY;
+        return bufferComplete;
+    }
+    
+    /**
+     * Converts an area of the view to canvas coordinates, rounded outwards
+     */
+    private java.awt.Rectangle screenToCanvas(java.awt.Rectangle area) {
+        int left = (int) Math.floor((area.x - panX) / zoomFactor);
+        int top = (int) Math.floor((area.y - panY) / zoomFactor);
+        int right = (int) Math.ceil((area.x + area.width - panX) / zoomFactor);
+        int bottom = (int) Math.ceil((area.y + area.height - panY) / zoomFactor);
+        return new java.awt.Rectangle(left, top, right - left, bottom - top);
+    }
+    
+    /**
+     * Converts an area of the canvas to the device pixels of the view buffer, rounded outwards
+     */
+    private java.awt.Rectangle canvasToDevice(java.awt.Rectangle bounds, double deviceScale) {
+        double scale = zoomFactor * deviceScale;
+        int left = (int) Math.floor(bounds.x * scale + panX * deviceScale) - 1;
+        int top = (int) Math.floor(bounds.y * scale + panY * deviceScale) - 1;
+        int right = (int) Math.ceil((bounds.x + bounds.width) * scale + panX * deviceScale) + 1;
+        int bottom = (int) Math.ceil((bounds.y + bounds.height) * scale + panY * deviceScale) + 1;
+        return new java.awt.Rectangle(left, top, right - left, bottom - top);
+    }
+    
+    /**
+     * Composites background, checkerboard and layers into part of the view buffer
+     * 
+     * @param bufferGraphics Graphics of the view buffer
+     * @param deviceArea     Area to composite, in device pixels
+     * @param draft          Whether tiles are rendered in draft quality
+     * @param deadline       System.nanoTime() at which tile rendering stops for this frame
+     * @return True if all tiles of the area were rendered
+     */
+    private boolean composeArea(Graphics2D bufferGraphics, java.awt.Rectangle deviceArea, SelectionOverlay live,
+                                double deviceScale, boolean draft, long deadline) {
+        Graphics2D g2d = (Graphics2D) bufferGraphics.create();
+        g2d.clip(deviceArea);
+        g2d.setColor(getBackground());
+        g2d.fill(deviceArea);
+        g2d.scale(deviceScale, deviceScale);
+        
+        // The same area in screen coordinates, rounded outwards
+        int left = (int) Math.floor(deviceArea.x / deviceScale);
+        int top = (int) Math.floor(deviceArea.y / deviceScale);
+        int right = (int) Math.ceil((deviceArea.x + deviceArea.width) / deviceScale);
+        int bottom = (int) Math.ceil((deviceArea.y + deviceArea.height) / deviceScale);
+        java.awt.Rectangle area = new java.awt.Rectangle(left, top, right - left, bottom - top);
+        
+        // Draw checkerboard pattern for transparent background
+        AffineTransform screenTransform = g2d.getTransform();
+        RenderQuality.applyHints(g2d, draft);
+        g2d.translate(panX, panY);
+        g2d.scale(zoomFactor, zoomFactor);
+        drawCheckerboard(g2d, area, zoomFactor, panX, panY);
+        if (backgroundImage != null) {
+            backgroundImage.draw(g2d, screenToCanvas(area), zoomFactor * deviceScale);
+        }
+        g2d.setTransform(screenTransform);
+        
+        // Draw all layers through their cached tiles; only missing tiles are rendered
+        boolean complete = LayerRenderer.drawLayers(g2d, layers, live, zoomFactor, panX, panY,
+            area, draft, Math.max(0, deadline - System.nanoTime()));
+        g2d.dispose();
+        return complete;
+    }
+    
+    /**
+     * Blits the latest frame of the render thread and draws the live shapes on top
+     * A new snapshot is handed to the render thread whenever the drawing or view changed
+     */
+    private void paintRenderedFrame(Graphics2D g2d) {
+        if (renderThread == null) {
+            renderThread = new RenderThread(this::repaintFrame);
+        }
+        
+        // The shapes being moved or resized are left out of the frame and drawn live instead
+        SelectionOverlay live = (isMoving || isResizing) && !selection.isEmpty() ? selection : null;
+        double deviceScale = Math.abs(g2d.getTransform().getScaleX());
+        if (contentChanged || lastSubmitted == null
+                || !lastSubmitted.hasView(zoomFactor, panX, panY, getWidth(), getHeight(), deviceScale)) {
+            contentChanged = false;
+            snapshotSequence++;
+            lastSubmitted = new RenderSnapshot(layers, live, zoomFactor, panX, panY,
+                getWidth(), getHeight(), deviceScale, getBackground(), backgroundImage, snapshotSequence);
+            renderThread.submit(lastSubmitted);
+        }
+        
+        RenderSnapshot shown = renderThread.drawLatestFrame(g2d, zoomFactor, panX, panY, deviceScale);
+        if (shown == null) {
+            // No frame yet - show the empty background until the first one arrives
+            g2d.setColor(getBackground());
+            g2d.fillRect(0, 0, getWidth(), getHeight());
+        } else if (shown.getSequence() >= settledAtSequence) {
+            settlingShapes.clear();
+            settlingLayer = null;
+        }
+        
+        // Overlay the live interaction preview
+        AffineTransform originalTransform = g2d.getTransform();
+        RenderQuality.applyHints(g2d, renderQuality.isDraft());
+        g2d.translate(panX, panY);
+        g2d.scale(zoomFactor, zoomFactor);
+        for (Shape shape : settlingShapes) {
+            shape.draw(g2d);
+        }
+        drawSettlingRows(g2d);
+        drawLiveSelection(g2d, live);
+        if (currentDrawing != null) {
+            currentDrawing.draw(g2d);
+        }
+        drawSelectionHandles(g2d);
+        drawRegion(g2d);
+        g2d.setTransform(originalTransform);
+    }
+    
+    /**
+     * Draws the selection that is left out of its layer during a move or resize
+     * A resized shape is drawn as the copy that follows the mouse; a moved selection is
+     * drawn at its drag offset, limited to the visible part of the canvas
+     * 
+     * @param g2d  Graphics with the zoom and pan transform applied
+     * @param live The selection being moved or resized, or null
+     */
+    private void drawLiveSelection(Graphics2D g2d, SelectionOverlay live) {
+        if (live == null) {
+            return;
+        }
+        if (isResizing) {
+            resizePreview.draw(g2d);
+        } else {
+            live.drawShapes(g2d, visibleCanvasArea());
+        }
+    }
+    
+    /**
+     * Draws the rows moved by the last drag until a rendered frame contains them
+     * Only the rows inside the visible area are drawn, straight from the columns. The
+     * rows are dropped if the layer changed again, since the next frame is on its way.
+     * 
+     * @param g2d Graphics with the zoom and pan transform applied
+     */
+    private void drawSettlingRows(Graphics2D g2d) {
+        if (settlingLayer == null) {
+            return;
+        }
+        if (settlingLayer.getRevision() != settlingRevision) {
+            settlingLayer = null;
+            return;
+        }
+        java.awt.Rectangle visible = visibleCanvasArea();
+        ShapeColumns columns = settlingLayer.getColumns();
+        RenderPlanner planner = new RenderPlanner(g2d);
+        for (int i = settlingRows.nextSetBit(0); i >= 0 && i < columns.size(); i = settlingRows.nextSetBit(i + 1)) {
+            if (columns.getRight(i) >= visible.x && columns.getLeft(i) <= visible.x + visible.width
+                && columns.getBottom(i) >= visible.y && columns.getTop(i) <= visible.y + visible.height) {
+                columns.draw(i, planner);
+            }
+        }
+    }
+    
+    /**
+     * Gets the part of the canvas the view shows, grown by a pixel on every side
+     */
+    private java.awt.Rectangle visibleCanvasArea() {
+        return new java.awt.Rectangle(screenToCanvasX(0) - 1, screenToCanvasY(0) - 1,
+            (int) Math.ceil(getWidth() / zoomFactor) + 2, (int) Math.ceil(getHeight() / zoomFactor) + 2);
+    }
+    
+    /**
+     * Draws the outline and handles of the selection
+     * While a shape is resized they follow the copy that is drawn instead of the shape
+     */
+    private void drawSelectionHandles(Graphics2D g2d) {
+        if (isResizing && resizePreview != null) {
+            resizePreview.drawSelectionHandles(g2d);
+        } else {
+            selection.draw(g2d);
+        }
+    }
+    
+    /**
+     * Keeps drawing a shape live until a rendered frame contains it
+     * Avoids a flicker between finishing an edit and the next background frame
+     */
+    private void settleShape(Shape shape) {
+        if (backgroundRendering) {
+            settlingShapes.add(shape);
+            settledAtSequence = snapshotSequence + 1;
+        }
+    }
+    
+    /**
+     * Keeps drawing some rows of a layer live until a rendered frame contains them
+     * Used after moving a selection, so no handle is made for each of its shapes
+     */
+    private void settleRows(Layer layer, BitSet rows) {
+        if (backgroundRendering) {
+            settlingLayer = layer;
+            settlingRows = (BitSet) rows.clone();
+            settlingRevision = layer.getRevision();
+            settledAtSequence = snapshotSequence + 1;
+        }
+    }
+    
+    /**
+     * Requests a repaint that only shows the new frame of the render thread
+     * Unlike repaint(), this does not mark the drawing as changed
+     */
+    private void repaintFrame() {
+        super.repaint(0, 0, 0, getWidth(), getHeight());
+    }
+    
+    /**
+     * Marks the drawing as changed before scheduling the repaint
+     * All repaint() calls end up here, so the render thread always gets a fresh snapshot
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        contentChanged = true;
+        super.repaint(tm, x, y, width, height);
+    }
+    
+    /**
+     * Turns background rendering on or off
+     * When on, a RenderThread rasterizes the layers and the EDT only blits finished frames
+     */
+    public void setBackgroundRendering(boolean backgroundRendering) {
+        this.backgroundRendering = backgroundRendering;
+        if (!backgroundRendering && renderThread != null) {
+            // The next time background rendering is turned on a new thread is started
+            renderThread.stop();
+            renderThread = null;
+        }
+        settlingShapes.clear();
+        settlingLayer = null;
+        // Shapes moved while rendering in the background did not update the tile caches
+        for (Layer layer : layers) {
+            layer.invalidate();
+        }
+        lastSubmitted = null;
+        repaint();
+    }
+    
+    /**
+     * Checks if background rendering is turned on
+     */
+    public boolean isBackgroundRendering() {
+        return backgroundRendering;
+    }
+    
+    /**
+     * Draw the checkerboard pattern for a view of the given size, zoom and pan
+     * Shared with RenderSnapshot so background frames look the same
+     */
+    static void drawCheckerboard(Graphics2D g2d, int width, int height, double zoomFactor, int panX, int panY) {
+        drawCheckerboard(g2d, new java.awt.Rectangle(0, 0, width, height), zoomFactor, panX, panY);
+    }
+    
     /**
      * Draw a checkerboard pattern to indicate transparent areas
      * This is similar to how Photoshop shows transparency
+     * 
+     * @param area The part of the view to cover, in screen coordinates
      */
-    private void drawCheckerboardBackground(Graphics2D g2d) {
-        int tileSize = 10;
-        int width = getWidth();
-        int height = getHeight();
+    static void drawCheckerboard(Graphics2D g2d, java.awt.Rectangle area, double zoomFactor, int panX, int panY) {
+        int tileSize = CHECKER_SIZE;
         
         // Calculate visible area in canvas coordinates
-        int startX = screenToCanvasX(0);
-        int startY = screenToCanvasY(0);
-        int endX = screenToCanvasX(width);
-        int endY = screenToCanvasY(height);
+        int startX = (int)Math.floor((area.x - panX) / zoomFactor);
+        int startY = (int)Math.floor((area.y - panY) / zoomFactor);
+        int endX = (int)Math.ceil((area.x + area.width - panX) / zoomFactor);
+        int endY = (int)Math.ceil((area.y + area.height - panY) / zoomFactor);
         
         // Adjust to tile boundaries
-        startX = (startX / tileSize) * tileSize;
-        startY = (startY / tileSize) * tileSize;
+        startX = Math.floorDiv(startX, tileSize) * tileSize;
+        startY = Math.floorDiv(startY, tileSize) * tileSize;
+        
+        // Zoomed out the squares are small and many, so fill the area with the pattern
+        // at once; from 100% up the few large squares are quicker to fill one by one
+        if (zoomFactor < 1.0) {
+            Paint oldPaint = g2d.getPaint();
+            g2d.setPaint(checkerboardPaint());
+            g2d.fillRect(startX, startY, endX - startX + tileSize, endY - startY + tileSize);
+            g2d.setPaint(oldPaint);
+            return;
+        }
         
         // Draw tiles in a checkerboard pattern
         for (int y = startY; y <= endY; y += tileSize) {
             for (int x = startX; x <= endX; x += tileSize) {
                 boolean isLightTile = ((x / tileSize) + (y / tileSize)) % 2 == 0;
-                g2d.setColor(isLightTile ? new Color(240, 240, 240) : new Color(220, 220, 220));
+                g2d.setColor(isLightTile ? CHECKER_LIGHT : CHECKER_DARK);
                 g2d.fillRect(x, y, tileSize, tileSize);
             }
         }
     }
     
+    /**
+     * Gets the checkerboard pattern, drawing its two-by-two tile the first time
+     * The light squares sit where the canvas coordinates divided by the square size add up
+     * to an even number, so the pattern lines up with the canvas origin at every zoom.
+     */
+    static synchronized TexturePaint checkerboardPaint() {
+        if (checkerboard == null) {
+            int size = CHECKER_SIZE * 2;
+            BufferedImage tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = tile.createGraphics();
+            g2d.setColor(CHECKER_DARK);
+            g2d.fillRect(0, 0, size, size);
+            g2d.setColor(CHECKER_LIGHT);
+            g2d.fillRect(0, 0, CHECKER_SIZE, CHECKER_SIZE);
+            g2d.fillRect(CHECKER_SIZE, CHECKER_SIZE, CHECKER_SIZE, CHECKER_SIZE);
+            g2d.dispose();
+            checkerboard = new TexturePaint(tile, new java.awt.geom.Rectangle2D.Double(0, 0, size, size));
+        }
+        return checkerboard;
+    }
+    
     /**
      * Set the current drawing color
+     * The selected shapes are recolored as well, as one undoable step
      */
     public void setColor(Color color) {
         currentColor = color;
+        if (!selection.isEmpty()) {
+            selection.getLayer().updateShapes(selection.getRows(), shape -> shape.setColor(color));
+            saveState();
+        }
     }
     
     /**
@@ -621,6 +1495,7 @@ public class DrawingPanel extends JPanel {
      */
     public void setShape(String shape) {
         currentShape = shape;
+        publishTool();
     }
     
     /**
@@ -637,6 +1512,78 @@ public class DrawingPanel extends JPanel {
         this.currentImage = image;
         if (image != null) {
             currentShape = "Image";
+            publishTool();
+        }
+    }
+    
+    /**
+     * Inserts images into the current layer, laid out in rows from the top-left of the view
+     * Each image keeps its proportions and is scaled down to fit a square of cellSize;
+     * a row ends where the view ends. All images are inserted as one undoable step.
+     * 
+     * @param images   The images, in the order they should be laid out
+     * @param cellSize Longest side of an inserted image, in canvas pixels
+     */
+    public void insertImages(java.util.List<BufferedImage> images, int cellSize) {
+        if (currentLayer == null || images.isEmpty()) {
+            return;
+        }
+        int spacing = 10;
+        int left = screenToCanvasX(spacing);
+        int right = Math.max(left + cellSize, screenToCanvasX(getWidth() - spacing));
+        int x = left;
+        int y = screenToCanvasY(spacing);
+        int rowHeight = 0;
+        
+        document.beginEdit();
+        try {
+            for (BufferedImage image : images) {
+                double scale = Math.min(1.0, (double) cellSize / Math.max(image.getWidth(), image.getHeight()));
+                int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+                
+                // Start a new row when the image would stick out of the view
+                if (x > left && x + width > right) {
+                    x = left;
+                    y += rowHeight + spacing;
+                    rowHeight = 0;
+                }
+                currentLayer.addShape(new ImageShape(image, x, y, x + width, y + height));
+                x += width + spacing;
+                rowHeight = Math.max(rowHeight, height);
+            }
+        } finally {
+            document.endEdit();
+        }
+        saveState();
+    }
+    
+    /**
+     * Replaces an image everywhere it is used: by the image tool and by placed image shapes
+     * Used when the full image of an imported preview has finished loading. This is not
+     * an undoable step, the shapes only get a better copy of the same picture.
+     */
+    public void replaceImage(BufferedImage oldImage, BufferedImage newImage) {
+        if (currentImage == oldImage) {
+            currentImage = newImage;
+        }
+        document.beginEdit();
+        try {
+            for (Layer layer : layers) {
+                BitSet rows = new BitSet();
+                ShapeColumns columns = layer.getColumns();
+                for (int i = 0; i < columns.size(); i++) {
+                    Shape shape = columns.getObject(i);
+                    if (shape instanceof ImageShape && ((ImageShape) shape).getImage() == oldImage) {
+                        rows.set(i);
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    layer.updateShapes(rows, shape -> ((ImageShape) shape).setImage(newImage));
+                }
+            }
+        } finally {
+            document.endEdit();
         }
     }
     
@@ -647,6 +1594,7 @@ public class DrawingPanel extends JPanel {
         this.currentText = text;
         if (!text.isEmpty()) {
             currentShape = "Text";
+            publishTool();
         }
     }
     
@@ -673,12 +1621,25 @@ public class DrawingPanel extends JPanel {
     
     /**
      * Set the stroke width (line thickness)
+     * The selected shapes get the new width as well, as one undoable step
      */
     public void setStrokeWidth(float width) {
+        setStrokeWidth(width, false);
+    }
+    
+    /**
+     * Set the stroke width while the user may still be adjusting it
+     * The selected shapes follow every change, but only the final width is saved for undo
+     * 
+     * @param adjusting Whether more changes of the same adjustment will follow
+     */
+    public void setStrokeWidth(float width, boolean adjusting) {
         this.currentStrokeWidth = width;
-        if (selectedShape != null) {
-            selectedShape.setStrokeWidth(width);
-            repaint();
+        if (!selection.isEmpty()) {
+            selection.getLayer().updateShapes(selection.getRows(), shape -> shape.setStrokeWidth(width));
+            if (!adjusting) {
+                saveState();
+            }
         }
     }
     
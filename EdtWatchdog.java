@@ -0,0 +1,281 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.InvocationEvent;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EdtWatchdog detects events that block the Event Dispatch Thread for too long
+ * While a stall is going on it samples the EDT stack at a high rate, and when the
+ * event finally finishes it appends a short report to a local log file
+ *
+ * The watchdog thread is parked while the EDT is idle and is only woken when the
+ * EDT starts working after being idle, so it costs almost nothing when nothing stalls.
+ *
+ * Settings (system properties):
+ *   drawingtool.edt.watchdog  - set to "false" to disable the watchdog
+ *   drawingtool.edt.threshold - stall threshold in milliseconds (default 200)
+ *   drawingtool.edt.sample    - stack sampling interval in milliseconds (default 5)
+ *   drawingtool.edt.log       - report file (default ~/.interactive-drawing-tool/edt-stalls.log)
+ */
+public class EdtWatchdog extends EventQueue {
+    private static final int MAX_SAMPLES = 10000;  // Stop sampling after this many stacks
+    private static final int HOT_FRAMES = 8;       // Number of hot frames written per report
+    private static final int STACK_DEPTH = 12;     // Frames of the most common stack written per report
+
+    private final long thresholdNanos;
+    private final long sampleNanos;
+    private final File logFile;
+    private final Thread monitor;
+
+    // State shared between the EDT and the monitor thread
+    private volatile Thread edt;
+    private volatile long dispatchStart;      // Start time of the current event, 0 when idle
+    private volatile long dispatchSequence;   // Incremented for every dispatched event
+    private volatile AWTEvent currentEvent;   // The event being dispatched
+    private volatile boolean monitorParked;   // Whether the monitor waits for the EDT to get busy
+
+    /**
+     * Installs the watchdog on the system event queue, using the system property settings
+     * Does nothing if the watchdog is disabled
+     */
+    public static void install() {
+        if ("false".equals(System.getProperty("drawingtool.edt.watchdog"))) {
+            return;
+        }
+        long threshold = Long.getLong("drawingtool.edt.threshold", 200);
+        long sample = Long.getLong("drawingtool.edt.sample", 5);
+        String logPath = System.getProperty("drawingtool.edt.log");
+        File logFile = logPath != null
+            ? new File(logPath)
+            : new File(new File(System.getProperty("user.home"), ".interactive-drawing-tool"), "edt-stalls.log");
+        if (threshold <= 0) {
+            return;
+        }
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EdtWatchdog(threshold, sample, logFile));
+    }
+
+    /**
+     * Constructor - creates the watchdog and starts its monitor thread
+     *
+     * @param thresholdMillis How long an event may run before it counts as a stall
+     * @param sampleMillis    Interval between stack samples during a stall
+     * @param logFile         File the stall reports are appended to
+     */
+    public EdtWatchdog(long thresholdMillis, long sampleMillis, File logFile) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        this.sampleNanos = Math.max(1, sampleMillis) * 1_000_000L;
+        this.logFile = logFile;
+        this.monitor = new Thread(this::monitorLoop, "EDT Watchdog");
+        this.monitor.setDaemon(true);
+        this.monitor.start();
+    }
+
+    /**
+     * Dispatches the event while recording when it started
+     * This is the only work done on the EDT: a few field writes per event
+     */
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        Thread current = Thread.currentThread();
+        if (edt != current) {
+            edt = current;
+        }
+        // A modal dialog pumps events inside the outer event; each of them is timed on
+        // its own and the outer event is timed again once the nested one has finished
+        AWTEvent outerEvent = currentEvent;
+        long outerStart = dispatchStart;
+        startTiming(event);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            resumeTiming(outerEvent, outerStart);
+        }
+    }
+
+    /**
+     * Waits for the next event without counting the wait as part of the event being dispatched
+     * A modal dialog waits here for the user while the event that opened it is still running
+     */
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        if (Thread.currentThread() != edt || dispatchStart == 0) {
+            return super.getNextEvent();
+        }
+        AWTEvent outerEvent = currentEvent;
+        long outerStart = dispatchStart;
+        dispatchSequence++;
+        dispatchStart = 0;
+        try {
+            return super.getNextEvent();
+        } finally {
+            resumeTiming(outerEvent, outerStart);
+        }
+    }
+
+    /**
+     * Starts timing an event and wakes the monitor if it waits for the EDT to get busy
+     */
+    private void startTiming(AWTEvent event) {
+        currentEvent = event;
+        dispatchSequence++;
+        dispatchStart = System.nanoTime();
+        if (monitorParked) {
+            LockSupport.unpark(monitor);
+        }
+    }
+
+    /**
+     * Goes back to timing the outer event after a nested event or wait, from now on
+     *
+     * @param outerStart Start time of the outer event, 0 if the EDT was idle before
+     */
+    private void resumeTiming(AWTEvent outerEvent, long outerStart) {
+        if (outerStart == 0) {
+            dispatchStart = 0;
+            currentEvent = null;
+        } else {
+            startTiming(outerEvent);
+        }
+    }
+
+    /**
+     * Main loop of the monitor thread
+     * Parks while the EDT is idle, otherwise checks the running event once per threshold
+     */
+    private void monitorLoop() {
+        while (true) {
+            long start = dispatchStart;
+            if (start == 0) {
+                // EDT is idle - wait until the next event starts
+                monitorParked = true;
+                if (dispatchStart == 0) {
+                    LockSupport.park(this);
+                }
+                monitorParked = false;
+                continue;
+            }
+
+            long sequence = dispatchSequence;
+            long remaining = start + thresholdNanos - System.nanoTime();
+            if (remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                continue;
+            }
+
+            if (dispatchStart == start && dispatchSequence == sequence) {
+                sampleStall(start, sequence);
+            }
+        }
+    }
+
+    /**
+     * Samples the EDT stack until the stalled event finishes and writes the report
+     */
+    private void sampleStall(long start, long sequence) {
+        AWTEvent event = currentEvent;
+        Thread thread = edt;
+        List<StackTraceElement[]> samples = new ArrayList<>();
+
+        while (dispatchStart == start && dispatchSequence == sequence) {
+            if (samples.size() < MAX_SAMPLES && thread != null) {
+                StackTraceElement[] stack = thread.getStackTrace();
+                if (stack.length > 0) {
+                    samples.add(stack);
+                }
+            }
+            LockSupport.parkNanos(this, sampleNanos);
+        }
+
+        long durationMillis = (System.nanoTime() - start) / 1_000_000L;
+        writeReport(describe(event), durationMillis, samples);
+    }
+
+    /**
+     * Creates a short description of the event that caused the stall
+     */
+    private static String describe(AWTEvent event) {
+        if (event == null) {
+            return "unknown";
+        }
+        if (event instanceof ActionEvent) {
+            return "ActionEvent \"" + ((ActionEvent) event).getActionCommand() + "\" from "
+                + event.getSource().getClass().getSimpleName();
+        }
+        if (event instanceof InvocationEvent) {
+            // Keep only the "runnable=..." part of the parameter string
+            String text = event.paramString();
+            int begin = text.indexOf("runnable=");
+            int end = begin >= 0 ? text.indexOf(',', begin) : -1;
+            return "InvocationEvent " + (begin < 0 ? text : end < 0 ? text.substring(begin) : text.substring(begin, end));
+        }
+        String text = event.paramString();
+        int comma = text.indexOf(',');
+        return event.getClass().getSimpleName() + " " + (comma > 0 ? text.substring(0, comma) : text)
+            + " on " + event.getSource().getClass().getSimpleName();
+    }
+
+    /**
+     * Appends one stall report to the log file
+     * Lists the frames seen most often at the top of the stack and the most common stack
+     */
+    private void writeReport(String operation, long durationMillis, List<StackTraceElement[]> samples) {
+        Map<String, Integer> topFrames = new HashMap<>();
+        Map<String, Integer> stacks = new HashMap<>();
+        for (StackTraceElement[] stack : samples) {
+            topFrames.merge(stack[0].toString(), 1, Integer::sum);
+
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < Math.min(STACK_DEPTH, stack.length); i++) {
+                key.append(stack[i]).append('\n');
+            }
+            stacks.merge(key.toString(), 1, Integer::sum);
+        }
+
+        List<Map.Entry<String, Integer>> hot = new ArrayList<>(topFrames.entrySet());
+        hot.sort((a, b) -> b.getValue() - a.getValue());
+        String commonStack = null;
+        int commonCount = 0;
+        for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+            if (entry.getValue() > commonCount) {
+                commonStack = entry.getKey();
+                commonCount = entry.getValue();
+            }
+        }
+
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(logFile, true))) {
+            out.println("=== EDT stall " + LocalDateTime.now() + " ===");
+            out.println("operation: " + operation);
+            out.println("duration:  " + durationMillis + " ms");
+            out.println("samples:   " + samples.size());
+            out.println("hot frames:");
+            for (int i = 0; i < Math.min(HOT_FRAMES, hot.size()); i++) {
+                Map.Entry<String, Integer> entry = hot.get(i);
+                out.printf("  %5.1f%%  %s%n", 100.0 * entry.getValue() / samples.size(), entry.getKey());
+            }
+            if (commonStack != null) {
+                out.printf("most common stack (%d samples):%n", commonCount);
+                for (String frame : commonStack.split("\n")) {
+                    out.println("  at " + frame);
+                }
+            }
+            out.println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
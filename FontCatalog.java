@@ -0,0 +1,160 @@
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * FontCatalog lists the installed font families once, in the background
+ * Asking the system for its font families can take seconds when thousands of fonts
+ * are installed, so the list is kept in a cache file together with a fingerprint of
+ * the font folders. While the fingerprint still matches, the next start reads the
+ * list from the file instead of asking the system again.
+ *
+ * The fingerprint covers the Java version, the language and the modification times
+ * of the usual font folders of Windows, macOS and Linux and their subfolders, so
+ * installing or removing a font makes the catalog list the families again.
+ *
+ * Settings (system properties):
+ *   drawingtool.fonts.cache - cache file (default ~/.interactive-drawing-tool/font-families.txt)
+ */
+public class FontCatalog {
+    private static final int FOLDER_DEPTH = 2;     // Levels of subfolders in the fingerprint
+    private static CompletableFuture<String[]> familyNames; // The list, once it has been asked for
+
+    private FontCatalog() {
+        // Only holds static methods
+    }
+
+    /**
+     * Gets the names of the installed font families, loading them the first time
+     * The first call starts loading on a worker thread and returns right away; later
+     * calls return the same future, which is already complete once the list is known.
+     */
+    public static synchronized CompletableFuture<String[]> getFamilyNames() {
+        if (familyNames == null) {
+            familyNames = CompletableFuture.supplyAsync(FontCatalog::loadFamilyNames);
+        }
+        return familyNames;
+    }
+
+    /**
+     * Reads the family names from the cache file, or asks the system and updates the file
+     */
+    private static String[] loadFamilyNames() {
+        File cacheFile = getCacheFile();
+        String fingerprint = fingerprint();
+        String[] cached = readCache(cacheFile, fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        String[] names = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        writeCache(cacheFile, fingerprint, names);
+        return names;
+    }
+
+    /**
+     * Reads the cached family names if the file was written for the same fingerprint
+     *
+     * @return The family names, or null if there is no usable cache
+     */
+    private static String[] readCache(File cacheFile, String fingerprint) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() < 2 || !lines.get(0).equals(fingerprint)) {
+                return null;
+            }
+            return lines.subList(1, lines.size()).toArray(new String[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the family names to the cache file, replacing it in one step
+     */
+    private static void writeCache(File cacheFile, String fingerprint, String[] names) {
+        List<String> lines = new ArrayList<>(names.length + 1);
+        lines.add(fingerprint);
+        lines.addAll(Arrays.asList(names));
+        try {
+            File folder = cacheFile.getAbsoluteFile().getParentFile();
+            folder.mkdirs();
+            File temporary = File.createTempFile("font-families", ".tmp", folder);
+            Files.write(temporary.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(temporary.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the cache file, from the setting or in the application folder of the user
+     */
+    private static File getCacheFile() {
+        String path = System.getProperty("drawingtool.fonts.cache");
+        return path != null ? new File(path)
+            : new File(new File(System.getProperty("user.home"), ".interactive-drawing-tool"), "font-families.txt");
+    }
+
+    /**
+     * Sums up everything that changes the list of font families into a short text
+     */
+    private static String fingerprint() {
+        StringBuilder text = new StringBuilder();
+        text.append(System.getProperty("java.version")).append('|').append(Locale.getDefault());
+        String home = System.getProperty("user.home");
+        List<File> folders = new ArrayList<>(Arrays.asList(
+            new File("/usr/share/fonts"),
+            new File("/usr/local/share/fonts"),
+            new File(home, ".fonts"),
+            new File(home, ".local/share/fonts"),
+            new File("/Library/Fonts"),
+            new File("/System/Library/Fonts"),
+            new File(home, "Library/Fonts")));
+        if (System.getenv("WINDIR") != null) {
+            folders.add(new File(System.getenv("WINDIR"), "Fonts"));
+        }
+        if (System.getenv("LOCALAPPDATA") != null) {
+            folders.add(new File(System.getenv("LOCALAPPDATA"), "Microsoft\\Windows\\Fonts"));
+        }
+        for (File folder : folders) {
+            addFolder(text, folder, FOLDER_DEPTH);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        return "fonts-" + Long.toHexString(crc.getValue()) + "-" + text.length();
+    }
+
+    /**
+     * Adds the path and modification time of a folder and of its subfolders
+     * Adding or removing a file changes the modification time of its folder
+     */
+    private static void addFolder(StringBuilder text, File folder, int depth) {
+        if (!folder.isDirectory()) {
+            return;
+        }
+        text.append('|').append(folder.getPath()).append('=').append(folder.lastModified());
+        if (depth == 0) {
+            return;
+        }
+        File[] children = folder.listFiles(File::isDirectory);
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                addFolder(text, child, depth - 1);
+            }
+        }
+    }
+}
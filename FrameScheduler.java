@@ -0,0 +1,104 @@
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * FrameScheduler runs a frame action at most once per display frame
+ * Input handlers call requestFrame() as often as they like; all requests that arrive
+ * before the next frame are coalesced into a single call of the frame action
+ *
+ * When the last frame is older than one frame interval, the frame runs right after the
+ * input events that are already queued, so an idle editor reacts without extra delay.
+ * Otherwise a one-shot timer waits for the next frame slot. Nothing runs while idle.
+ */
+public class FrameScheduler {
+    private final Runnable frameAction;  // Work done once per frame (apply input, repaint)
+    private final long frameNanos;       // Length of one frame in nanoseconds
+    private final Timer timer;           // One-shot timer used to wait for the next frame slot
+    private long lastFrameTime;          // When the last frame ran (System.nanoTime)
+    private boolean framePending;        // Whether a frame is already scheduled
+
+    /**
+     * Constructor - creates a scheduler for the given frame rate
+     *
+     * @param framesPerSecond Target frame rate (for example 60 or 120)
+     * @param frameAction     Action run once per frame on the Event Dispatch Thread
+     */
+    public FrameScheduler(int framesPerSecond, Runnable frameAction) {
+        this.frameAction = frameAction;
+        this.frameNanos = 1_000_000_000L / Math.max(1, framesPerSecond);
+        this.timer = new Timer(0, e -> runFrame());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Creates a scheduler paced to the refresh rate of the default screen
+     * The rate can be overridden with the drawingtool.frameRate system property
+     *
+     * @param frameAction Action run once per frame on the Event Dispatch Thread
+     */
+    public static FrameScheduler forDisplay(Runnable frameAction) {
+        return new FrameScheduler(Integer.getInteger("drawingtool.frameRate", displayRefreshRate()), frameAction);
+    }
+
+    /**
+     * Gets the refresh rate of the default screen, or 60 Hz if it is unknown
+     */
+    private static int displayRefreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return 60;
+        }
+        int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
+    }
+
+    /**
+     * Gets the length of one frame in nanoseconds
+     */
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+
+    /**
+     * Asks for the frame action to run in the next frame
+     * Several requests before that frame result in only one call
+     */
+    public void requestFrame() {
+        if (framePending) {
+            return;
+        }
+        framePending = true;
+
+        long wait = lastFrameTime + frameNanos - System.nanoTime();
+        if (wait <= 0) {
+            // Run after the input events that are already waiting in the queue
+            SwingUtilities.invokeLater(this::runFrame);
+        } else {
+            timer.setInitialDelay((int) Math.max(1, wait / 1_000_000L));
+            timer.restart();
+        }
+    }
+
+    /**
+     * Runs a pending frame immediately
+     * Used when the input sequence ends (e.g. mouse released) and must be applied now
+     */
+    public void flush() {
+        if (framePending) {
+            runFrame();
+        }
+    }
+
+    /**
+     * Runs the frame action if a frame is still pending
+     */
+    private void runFrame() {
+        if (!framePending) {
+            return;
+        }
+        timer.stop();
+        framePending = false;
+        lastFrameTime = System.nanoTime();
+        frameAction.run();
+    }
+}
@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.awt.geom.Path2D;
 import java.util.ArrayList;
 
 /**
@@ -8,6 +9,10 @@ import java.util.ArrayList;
  */
 public class FreeDrawing extends Shape{
     private ArrayList<Point> points;  // List of points that make up the drawing
+    private int minX, minY, maxX, maxY; // Bounding box of all points
+    private static final int SELECT_TOLERANCE = 5; // Distance in pixels within which a click selects the path
+    private static final int BVH_MIN_POINTS = 64;  // Paths with more points are searched through a SegmentBVH
+    private transient SegmentBVH segments;          // Built at the first query of a long path, or null
     
     /**
      * Constructor for creating a new free drawing
@@ -24,6 +29,10 @@ public class FreeDrawing extends Shape{
         points = new ArrayList<>();
         points.add(new Point(x1, y1));  // Add the starting point
         points.add(new Point(x2, y2));  // Add the current point
+        minX = Math.min(x1, x2);
+        minY = Math.min(y1, y2);
+        maxX = Math.max(x1, x2);
+        maxY = Math.max(y1, y2);
     }
     
     /**
@@ -40,6 +49,11 @@ public class FreeDrawing extends Shape{
         y1 = Math.min(y1, y);
         x2 = Math.max(x2, x);
         y2 = Math.max(y2, y);
+        // Update the bounding box of the points
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
     }
     
     /**
@@ -62,18 +76,27 @@ public class FreeDrawing extends Shape{
         
         Graphics2D g2d = (Graphics2D) g;
         g2d.setColor(color);
-        // Use round caps and joins for smooth lines
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
         
-        // Draw lines between consecutive points
-        for (int i = 0; i < points.size() - 1; i++) {
-            Point p1 = points.get(i);
-            Point p2 = points.get(i + 1);
-            g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+        if (RenderQuality.isDraft(g2d)) {
+            // Draft quality: one polyline with plain caps and joins is much cheaper to stroke
+            g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL));
+            Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points.size());
+            path.moveTo(points.get(0).x, points.get(0).y);
+            for (int i = 1; i < points.size(); i++) {
+                path.lineTo(points.get(i).x, points.get(i).y);
+            }
+            g2d.draw(path);
+        } else {
+            // Use round caps and joins for smooth lines
+            g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            
+            // Draw lines between consecutive points
+            for (int i = 0; i < points.size() - 1; i++) {
+                Point p1 = points.get(i);
+                Point p2 = points.get(i + 1);
+                g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+            }
         }
-        
-        // Draw selection handles if selected
-        drawSelectionHandles(g);
     }
     
     /**
@@ -88,6 +111,57 @@ public class FreeDrawing extends Shape{
             p.x += dx;
             p.y += dy;
         }
+        minX += dx;
+        minY += dy;
+        maxX += dx;
+        maxY += dy;
+        if (segments != null) {
+            segments.translate(dx, dy);
+        }
+    }
+
+    /**
+     * Scales the entire free drawing path relative to a fixed point
+     * The segment hierarchy is built again at the next query
+     */
+    @Override
+    public void scale(double sx, double sy, int originX, int originY) {
+        super.scale(sx, sy, originX, originY);
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+        for (Point p : points) {
+            p.x = scaleCoordinate(p.x, sx, originX);
+            p.y = scaleCoordinate(p.y, sy, originY);
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        segments = null;
+    }
+
+    /**
+     * Creates a copy with its own points, so moving or scaling it leaves this path as it is
+     */
+    @Override
+    public Shape copy() {
+        FreeDrawing copy = (FreeDrawing) super.copy();
+        copy.points = new ArrayList<>(points.size());
+        for (Point p : points) {
+            copy.points.add(new Point(p));
+        }
+        copy.segments = null;
+        return copy;
+    }
+
+    /**
+     * Gets the area the path paints, based on the bounding box of its points
+     */
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return padBounds(minX, minY, maxX, maxY);
     }
     
     /**
@@ -96,6 +170,11 @@ public class FreeDrawing extends Shape{
      */
     @Override
     public boolean containsPoint(int x, int y) {
+        // Long paths are searched through their segment hierarchy
+        if (points.size() > BVH_MIN_POINTS) {
+            return segments().isNear(x, y, SELECT_TOLERANCE);
+        }
+        
         // For free drawing, check if point is near any segment of the path
         for (int i = 0; i < points.size() - 1; i++) {
             Point p1 = points.get(i);
@@ -103,13 +182,51 @@ public class FreeDrawing extends Shape{
             
             // Calculate distance from point to line segment
             double distance = pointToLineDistance(x, y, p1.x, p1.y, p2.x, p2.y);
-            if (distance < 5) {  // 5 pixel tolerance for selection
+            if (distance < SELECT_TOLERANCE) {
                 return true;
             }
         }
         return false;
     }
     
+    /**
+     * Gets the box around the points grown by the selection tolerance
+     */
+    @Override
+    public java.awt.Rectangle getHitBounds() {
+        return new java.awt.Rectangle(minX - SELECT_TOLERANCE, minY - SELECT_TOLERANCE,
+            maxX - minX + 2 * SELECT_TOLERANCE, maxY - minY + 2 * SELECT_TOLERANCE);
+    }
+    
+    /**
+     * Checks if any segment of the path touches a selection rectangle or lasso
+     */
+    @Override
+    public boolean intersects(SelectionRegion region) {
+        if (points.size() > BVH_MIN_POINTS) {
+            return segments().intersects(region);
+        }
+        for (int i = 0; i < points.size() - 1; i++) {
+            Point p1 = points.get(i);
+            Point p2 = points.get(i + 1);
+            if (region.intersectsSegment(p1.x, p1.y, p2.x, p2.y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the segment hierarchy of the path, creating it on first use
+     * Points added later are picked up by the hierarchy at its next query
+     */
+    private SegmentBVH segments() {
+        if (segments == null) {
+            segments = new SegmentBVH(points);
+        }
+        return segments;
+    }
+    
     /**
      * Calculates the shortest distance from a point to a line segment
      * Used to determine if a click is near enough to select the drawing
@@ -142,9 +259,32 @@ public class FreeDrawing extends Shape{
         return Math.sqrt((x - projX) * (x - projX) + (y - projY) * (y - projY));
     }
     
+    /**
+     * Strokes the path as wide as the selection tolerance, grown by a margin
+     */
+    @Override
+    public void drawPickMask(Graphics2D g2d, double dilation) {
+        g2d.setStroke(new BasicStroke((float) (2 * (SELECT_TOLERANCE + dilation)),
+            BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points.size());
+        path.moveTo(points.get(0).x, points.get(0).y);
+        for (int i = 1; i < points.size(); i++) {
+            path.lineTo(points.get(i).x, points.get(i).y);
+        }
+        g2d.draw(path);
+    }
+    
+    /**
+     * Gets the area the selection outline and handles cover, based on the points
+     */
+    @Override
+    public java.awt.Rectangle getHandleBounds() {
+        return padHandles(minX, minY, maxX, maxY);
+    }
+    
     @Override
-    protected void drawSelectionHandles(Graphics g) {
-        if (!selected || points.isEmpty()) return;
+    public void drawSelectionHandles(Graphics g) {
+        if (points.isEmpty()) return;
         int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
         int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
         for (Point p : points) {
@@ -0,0 +1,61 @@
+/**
+ * HitKernels tests many boxes against a point or a rectangle in one pass
+ * The boxes are given as four parallel arrays of left, top, right and bottom edges,
+ * edges included. Each kernel writes 1 or 0 per box into a mask.
+ *
+ * The loops compare with subtractions and combine the results through the sign bit,
+ * without branches, so the JIT compiles them to SIMD instructions and they run about
+ * as fast as the arrays can be read. Coordinates must stay within +-2^30 so the
+ * subtractions cannot overflow.
+ */
+public class HitKernels {
+    public static final int BLOCK = 512;   // Rows per pass, so the mask stays in the L1 cache
+
+    private HitKernels() {
+        // Only static helpers
+    }
+
+    /**
+     * Marks the boxes that contain a point
+     *
+     * @param from First row to test
+     * @param to   Row after the last row to test
+     * @param mask Receives 1 for a hit and 0 otherwise, at index row - from
+     */
+    public static void containsPoint(int[] left, int[] top, int[] right, int[] bottom,
+                                     int from, int to, int x, int y, int[] mask) {
+        for (int i = from; i < to; i++) {
+            mask[i - from] = ~((x - left[i]) | (right[i] - x) | (y - top[i]) | (bottom[i] - y)) >>> 31;
+        }
+    }
+
+    /**
+     * Marks the boxes that overlap a rectangle
+     *
+     * @param from First row to test
+     * @param to   Row after the last row to test
+     * @param mask Receives 1 for an overlap and 0 otherwise, at index row - from
+     */
+    public static void intersects(int[] left, int[] top, int[] right, int[] bottom, int from, int to,
+                                  int areaLeft, int areaTop, int areaRight, int areaBottom, int[] mask) {
+        for (int i = from; i < to; i++) {
+            mask[i - from] = ~((right[i] - areaLeft) | (areaRight - left[i])
+                | (bottom[i] - areaTop) | (areaBottom - top[i])) >>> 31;
+        }
+    }
+
+    /**
+     * Marks the boxes that lie completely inside a rectangle
+     *
+     * @param from First row to test
+     * @param to   Row after the last row to test
+     * @param mask Receives 1 for a box inside and 0 otherwise, at index row - from
+     */
+    public static void containedIn(int[] left, int[] top, int[] right, int[] bottom, int from, int to,
+                                   int areaLeft, int areaTop, int areaRight, int areaBottom, int[] mask) {
+        for (int i = from; i < to; i++) {
+            mask[i - from] = ~((left[i] - areaLeft) | (areaRight - right[i])
+                | (top[i] - areaTop) | (areaBottom - bottom[i])) >>> 31;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * HitTestBenchmark compares hit-testing shape by shape with the HitKernels over ShapeColumns
+ * Run it with: java HitTestBenchmark [shapes]
+ *
+ * For each variant it prints the average time of a point query (topmost shape under a
+ * random point) and of a rectangle query (count of shapes overlapping a random area),
+ * after a warm-up so the JIT has compiled the loops. Both variants must find the
+ * same shapes, otherwise the benchmark stops with an error.
+ */
+public class HitTestBenchmark {
+    private static final int QUERIES = 200;   // Queries per measured round
+    private static final int ROUNDS = 5;      // Measured rounds, after as many warm-up rounds
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(20_000);
+            int y = random.nextInt(20_000);
+            int w = 5 + random.nextInt(60);
+            int h = 5 + random.nextInt(60);
+            Color color = new Color(random.nextInt());
+            switch (i % 3) {
+                case 0:
+                    shapes.add(new Rectangle(color, x, y, x + w, y + h, random.nextBoolean()));
+                    break;
+                case 1:
+                    shapes.add(new Circle(color, x, y, x + w, y + h, random.nextBoolean()));
+                    break;
+                default:
+                    shapes.add(new Line(color, x, y, x + w, y + h, false));
+                    break;
+            }
+        }
+        ShapeColumns columns = ShapeColumns.of(shapes);
+        System.out.println(count + " shapes");
+
+        for (int round = 0; round < ROUNDS * 2; round++) {
+            boolean measured = round >= ROUNDS;
+            long seed = random.nextLong();
+
+            long start = System.nanoTime();
+            long scalarResult = pointQueriesScalar(shapes, new Random(seed));
+            long scalarPoint = System.nanoTime() - start;
+            start = System.nanoTime();
+            long columnResult = pointQueriesColumns(columns, new Random(seed));
+            long columnPoint = System.nanoTime() - start;
+            check(scalarResult, columnResult, "point");
+
+            start = System.nanoTime();
+            scalarResult = areaQueriesScalar(shapes, new Random(seed));
+            long scalarArea = System.nanoTime() - start;
+            start = System.nanoTime();
+            columnResult = areaQueriesColumns(columns, new Random(seed));
+            long columnArea = System.nanoTime() - start;
+            check(scalarResult, columnResult, "area");
+
+            if (measured) {
+                System.out.printf("point: scalar %.1f us, kernels %.1f us   area: scalar %.1f us, kernels %.1f us%n",
+                    scalarPoint / 1000.0 / QUERIES, columnPoint / 1000.0 / QUERIES,
+                    scalarArea / 1000.0 / QUERIES, columnArea / 1000.0 / QUERIES);
+            }
+        }
+    }
+
+    /**
+     * Finds the topmost shape under random points by asking every shape, like Layer.getShapeAt did
+     */
+    private static long pointQueriesScalar(List<Shape> shapes, Random random) {
+        long sum = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            int x = random.nextInt(20_000);
+            int y = random.nextInt(20_000);
+            int found = -1;
+            for (int i = shapes.size() - 1; i >= 0; i--) {
+                if (shapes.get(i).containsPoint(x, y)) {
+                    found = i;
+                    break;
+                }
+            }
+            sum += found;
+        }
+        return sum;
+    }
+
+    private static long pointQueriesColumns(ShapeColumns columns, Random random) {
+        long sum = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            sum += columns.shapeAt(random.nextInt(20_000), random.nextInt(20_000));
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the shapes overlapping random areas by asking every shape for its bounds
+     */
+    private static long areaQueriesScalar(List<Shape> shapes, Random random) {
+        long sum = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            java.awt.Rectangle area = randomArea(random);
+            for (Shape shape : shapes) {
+                java.awt.Rectangle bounds = shape.getBounds();
+                if (bounds.x + bounds.width >= area.x && bounds.x <= area.x + area.width
+                    && bounds.y + bounds.height >= area.y && bounds.y <= area.y + area.height) {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static long areaQueriesColumns(ShapeColumns columns, Random random) {
+        long sum = 0;
+        int[] mask = new int[HitKernels.BLOCK];
+        for (int q = 0; q < QUERIES; q++) {
+            java.awt.Rectangle area = randomArea(random);
+            for (int from = 0; from < columns.size(); from += HitKernels.BLOCK) {
+                int to = Math.min(columns.size(), from + HitKernels.BLOCK);
+                columns.overlapping(from, to, area.x, area.y, area.x + area.width, area.y + area.height, mask);
+                for (int i = 0; i < to - from; i++) {
+                    sum += mask[i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static java.awt.Rectangle randomArea(Random random) {
+        return new java.awt.Rectangle(random.nextInt(20_000), random.nextInt(20_000),
+            random.nextInt(2_000), random.nextInt(2_000));
+    }
+
+    private static void check(long expected, long actual, String query) {
+        if (expected != actual) {
+            throw new IllegalStateException(query + " queries differ: " + expected + " != " + actual);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.EventQueue;
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.event.InvocationEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.swing.SwingUtilities;
+
+/**
+ * IdleBenchmark checks that an idle editor leaves the Event Dispatch Thread asleep
+ * Run it with: java -cp build/drawingtool.jar IdleBenchmark [seconds]
+ *
+ * It opens the editor the way DrawingApp does, draws a few shapes, zooms and switches
+ * to the select tool, then waits for the editor to settle. After that it counts every
+ * event the EDT dispatches while nobody touches the editor. A timer that polls
+ * something, like the 100 ms timer the status bar used to have, shows up as a steady
+ * stream of events. The benchmark prints the events by kind and exits with status 1
+ * if there were more than a few, which stops build.sh.
+ *
+ * Without a display the main window cannot be opened, so only the canvas and the
+ * layer panel are checked.
+ */
+public class IdleBenchmark {
+    private static final int MAX_IDLE_EVENTS = 2;      // Events allowed while idle, e.g. a late repaint
+    private static final long SETTLE_MILLIS = 2000;    // Time for the editor to finish its work first
+    private static final long OPEN_TIMEOUT_MILLIS = 60_000; // Longest the main window may take to open
+
+    /**
+     * EventQueue that counts the events it dispatches, by kind
+     */
+    private static class CountingQueue extends EventQueue {
+        private final Map<String, Integer> counts = new TreeMap<>();
+        private boolean counting;
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            synchronized (this) {
+                if (counting) {
+                    counts.merge(describe(event), 1, Integer::sum);
+                }
+            }
+            super.dispatchEvent(event);
+        }
+
+        synchronized void start() {
+            counts.clear();
+            counting = true;
+        }
+
+        synchronized Map<String, Integer> stop() {
+            counting = false;
+            return new TreeMap<>(counts);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        final DrawingPanel[] panel = new DrawingPanel[1];
+
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("No display, checking the canvas without the main window");
+            SwingUtilities.invokeAndWait(() -> {
+                panel[0] = new DrawingPanel();
+                panel[0].setSize(900, 700);
+                new LayerPanel(panel[0]);
+            });
+        } else {
+            DrawingApp.main(new String[0]);
+            long deadline = System.currentTimeMillis() + OPEN_TIMEOUT_MILLIS;
+            while (panel[0] == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("The main window did not open");
+                }
+                Thread.sleep(100);
+                SwingUtilities.invokeAndWait(() -> panel[0] = findPanel());
+            }
+        }
+        // Pushed after DrawingApp installed the EdtWatchdog, so it sees every event too
+        CountingQueue queue = new CountingQueue();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(queue);
+
+        SwingUtilities.invokeAndWait(() -> use(panel[0]));
+        Thread.sleep(SETTLE_MILLIS);
+
+        queue.start();
+        Thread.sleep(seconds * 1000);
+        Map<String, Integer> counts = queue.stop();
+
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            System.out.println(String.format("%6d  %s", entry.getValue(), entry.getKey()));
+            total += entry.getValue();
+        }
+        System.out.println(total + " events in " + seconds + " s while idle");
+        if (total > MAX_IDLE_EVENTS) {
+            System.out.println("The Event Dispatch Thread woke up while the editor was idle");
+            System.exit(1);
+        }
+        System.out.println("The Event Dispatch Thread stayed asleep");
+        System.exit(0);
+    }
+
+    /**
+     * Finds the canvas of the main window once it is showing
+     *
+     * @return The canvas, or null if the main window is not showing yet
+     */
+    private static DrawingPanel findPanel() {
+        for (Frame frame : Frame.getFrames()) {
+            if (frame instanceof DrawingApp && frame.isShowing()) {
+                return (DrawingPanel) find(frame);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches a container and everything inside it for the canvas
+     */
+    private static Component find(Container container) {
+        for (Component child : container.getComponents()) {
+            if (child instanceof DrawingPanel) {
+                return child;
+            }
+            if (child instanceof Container) {
+                Component found = find((Container) child);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Uses the editor briefly, so the idle time follows real work: draws shapes,
+     * zooms in and switches to the select tool
+     */
+    private static void use(DrawingPanel panel) {
+        String[] tools = {"Line", "Rectangle", "Circle", "Free"};
+        for (int i = 0; i < tools.length; i++) {
+            panel.setShape(tools[i]);
+            drag(panel, 40 + i * 60, 40, 90 + i * 60, 100);
+        }
+        panel.zoomIn();
+        panel.setSelectMode(true);
+        drag(panel, 65, 70, 75, 80);
+        if (panel.isShowing()) {
+            panel.paintImmediately(0, 0, panel.getWidth(), panel.getHeight());
+        } else {
+            BufferedImage image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = image.createGraphics();
+            panel.paint(g2d);
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Sends a mouse press, a few drags and a release to the canvas
+     */
+    private static void drag(DrawingPanel panel, int x1, int y1, int x2, int y2) {
+        long when = System.currentTimeMillis();
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_PRESSED, when,
+            MouseEvent.BUTTON1_DOWN_MASK, x1, y1, 1, false, MouseEvent.BUTTON1));
+        for (int step = 1; step <= 4; step++) {
+            int x = x1 + (x2 - x1) * step / 4;
+            int y = y1 + (y2 - y1) * step / 4;
+            panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_DRAGGED, when + step,
+                MouseEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.NOBUTTON));
+        }
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_RELEASED, when + 5,
+            0, x2, y2, 1, false, MouseEvent.BUTTON1));
+    }
+
+    /**
+     * Describes an event by its kind and source, e.g. the timer or runnable that posted it
+     */
+    private static String describe(AWTEvent event) {
+        String source = event.getSource() == null ? "null" : event.getSource().getClass().getName();
+        if (event instanceof InvocationEvent) {
+            return "InvocationEvent from " + source;
+        }
+        return event.getClass().getSimpleName() + " on " + source;
+    }
+}
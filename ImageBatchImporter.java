@@ -0,0 +1,212 @@
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ImageBatchImporter decodes many image files at once for inserting them together
+ * The files are decoded on the decoder threads of ImageImporter, so the number of
+ * decodes running at the same time is bounded. Like a single import, the batch first
+ * reads a preview of each image with at most PREVIEW_SIZE pixels on its longest side,
+ * twice its size in the layout, so the images can be inserted quickly. Afterwards the
+ * images that were read subsampled are decoded again at full size, one per decoder
+ * thread at a time, and handed over to replace their previews.
+ *
+ * The listener is called on the Event Dispatch Thread, and never after cancel().
+ */
+public class ImageBatchImporter {
+    public static final int PREVIEW_SIZE = 512;  // Longest side of a preview, in pixels
+
+    /**
+     * Listener is told about the progress of a batch
+     */
+    public interface Listener {
+        /**
+         * Called from time to time while the files are decoded
+         *
+         * @param done  Number of files finished so far
+         * @param total Number of files in the batch
+         */
+        void progress(int done, int total);
+
+        /**
+         * Called once every file has been decoded or has failed
+         * Large images are previews at this point; their full images follow.
+         *
+         * @param images The decoded images, in the order of the files
+         * @param failed The files that could not be decoded
+         */
+        void batchReady(List<BufferedImage> images, List<File> failed);
+
+        /**
+         * Called when the full image of a file that was delivered as a preview is ready
+         *
+         * @param preview The preview given to batchReady
+         * @param image   The full image
+         */
+        void imageReady(BufferedImage preview, BufferedImage image);
+
+        /**
+         * Called after every full image was delivered or failed; this ends the batch
+         * A preview whose full image failed stays in use.
+         */
+        void batchFinished();
+    }
+
+    private final List<File> files;               // The image files, in insertion order
+    private final Listener listener;
+    private final BufferedImage[] images;         // Decoded image of each file, or null
+    private final boolean[] subsampled;           // Whether the image of each file is a preview
+    private final AtomicInteger done = new AtomicInteger();             // Files finished
+    private final AtomicInteger fullPending = new AtomicInteger();      // Full images still to decode
+    private final AtomicBoolean progressPending = new AtomicBoolean();  // A progress call is queued
+    private final List<Future<?>> tasks = new ArrayList<>();            // One decode job per file
+    private volatile boolean cancelled;           // Set by cancel(), checked by the decoders
+
+    /**
+     * Constructor - prepares the import of a list of image files
+     *
+     * @param files    The image files to decode, in the order they should be inserted
+     * @param listener Told about the progress and the decoded images
+     */
+    public ImageBatchImporter(List<File> files, Listener listener) {
+        this.files = new ArrayList<>(files);
+        this.listener = listener;
+        this.images = new BufferedImage[files.size()];
+        this.subsampled = new boolean[files.size()];
+    }
+
+    /**
+     * Starts decoding the files in the background
+     */
+    public void start() {
+        if (files.isEmpty()) {
+            deliver(() -> listener.batchReady(new ArrayList<>(), new ArrayList<>()));
+            deliver(listener::batchFinished);
+            return;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            tasks.add(ImageImporter.DECODERS.submit(() -> decode(index)));
+        }
+    }
+
+    /**
+     * Stops the batch; decodes in progress are aborted and nothing more is delivered
+     * Must be called on the Event Dispatch Thread
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Future<?> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Gets the number of files in the batch
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Decodes the preview of one file of the batch and hands the batch over after the
+     * last one; then starts decoding the full images
+     * Runs on a decoder thread
+     */
+    private void decode(int index) {
+        File file = files.get(index);
+        try {
+            BufferedImage image = ImageImporter.readScaled(file, PREVIEW_SIZE, "batch insert", () -> cancelled);
+            if (image != null) {
+                subsampled[index] = ImageImporter.isSubsampled(file, image);
+                images[index] = image;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Reported as a failed file when the batch is handed over
+        } catch (OutOfMemoryError e) {
+            // Reported as a failed file as well; the images decoded so far are kept
+        }
+        if (done.incrementAndGet() == files.size()) {
+            List<BufferedImage> decoded = new ArrayList<>();
+            List<File> failed = new ArrayList<>();
+            for (int i = 0; i < images.length; i++) {
+                if (images[i] != null) {
+                    decoded.add(images[i]);
+                } else {
+                    failed.add(files.get(i));
+                }
+            }
+            deliver(() -> listener.batchReady(decoded, failed));
+            decodeFullImages();
+        } else if (progressPending.compareAndSet(false, true)) {
+            // At most one progress call waits on the event queue at any time
+            deliver(() -> {
+                progressPending.set(false);
+                listener.progress(done.get(), files.size());
+            });
+        }
+    }
+
+    /**
+     * Queues the full decode of every image that was read as a preview
+     * The decoder pool runs at most one decode per thread, so only that many full images
+     * are being decoded at any time. Runs on the decoder thread that finished the previews.
+     */
+    private void decodeFullImages() {
+        List<Integer> previews = new ArrayList<>();
+        for (int i = 0; i < images.length; i++) {
+            if (images[i] != null && subsampled[i]) {
+                previews.add(i);
+            }
+        }
+        if (previews.isEmpty() || cancelled) {
+            deliver(listener::batchFinished);
+            return;
+        }
+        fullPending.set(previews.size());
+        for (int index : previews) {
+            tasks.add(ImageImporter.DECODERS.submit(() -> decodeFull(index)));
+        }
+    }
+
+    /**
+     * Decodes the full image of a file whose preview was inserted and hands it over
+     * If the file cannot be decoded again the preview stays in use.
+     * Runs on a decoder thread
+     */
+    private void decodeFull(int index) {
+        BufferedImage preview = images[index];
+        try {
+            BufferedImage image = ImageImporter.readScaled(files.get(index), 0, "batch insert", () -> cancelled);
+            if (image != null) {
+                deliver(() -> listener.imageReady(preview, image));
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            // The preview stays in use
+        }
+        // The batch no longer needs the preview itself
+        images[index] = null;
+        if (fullPending.decrementAndGet() == 0) {
+            deliver(listener::batchFinished);
+        }
+    }
+
+    /**
+     * Runs a listener call on the Event Dispatch Thread unless the batch was cancelled by then
+     */
+    private void deliver(Runnable call) {
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) {
+                call.run();
+            }
+        });
+    }
+}
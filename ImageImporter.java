@@ -0,0 +1,297 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * ImageImporter decodes an image file on a background thread
+ * For a large image it first decodes a preview that reads only every n-th pixel of
+ * every n-th row, which takes a fraction of the time, and then the full image. The
+ * editor can place the preview right away and swap in the full image when it arrives.
+ * An import can be cancelled at any time, also in the middle of decoding.
+ *
+ * Imports share a small pool of decoder threads, one fewer than the processors and at
+ * most four, so decoding never takes every core from the editor.
+ * The listener is called on the Event Dispatch Thread, and never after cancel().
+ */
+public class ImageImporter {
+    private static final int PREVIEW_SIZE = 1024; // Longest side of a preview, in pixels
+
+    static final int DECODER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    static final ExecutorService DECODERS = Executors.newFixedThreadPool(DECODER_THREADS, task -> {
+        Thread thread = new Thread(task, "Image decoder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    /**
+     * Listener is told about the progress of an import
+     */
+    public interface Listener {
+        /**
+         * Called when the preview of a large image is ready
+         *
+         * @param preview The subsampled image
+         * @param width   Width of the full image
+         * @param height  Height of the full image
+         */
+        void previewReady(BufferedImage preview, int width, int height);
+
+        /**
+         * Called when the full image is ready; this ends the import
+         */
+        void imageReady(BufferedImage image);
+
+        /**
+         * Called when the file could not be decoded; this ends the import
+         * A preview that was already delivered stays valid
+         */
+        void importFailed(IOException error);
+    }
+
+    private final File file;              // The image file
+    private final String operation;       // Which command imports the file ("open" or "insert")
+    private final Listener listener;
+    private volatile boolean cancelled;   // Set by cancel(), checked by the decoder
+    private Future<?> task;               // The decode job, once started
+
+    /**
+     * Constructor - prepares the import of an image file
+     *
+     * @param file      The image file to decode
+     * @param operation Which command imports the file ("open" or "insert"), for the flight recorder
+     * @param listener  Told about the preview, the full image or the failure
+     */
+    public ImageImporter(File file, String operation, Listener listener) {
+        this.file = file;
+        this.operation = operation;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts decoding in the background
+     */
+    public void start() {
+        task = DECODERS.submit(this::decode);
+    }
+
+    /**
+     * Stops the import; a decode in progress is aborted and nothing more is delivered
+     * Must be called on the Event Dispatch Thread
+     */
+    public void cancel() {
+        cancelled = true;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Gets the file being imported
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Decodes the preview if the image is large, then the full image
+     * Runs on the decoder thread
+     */
+    private void decode() {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader imageReader = openReader(file, input, () -> cancelled);
+            try {
+                int width = imageReader.getWidth(0);
+                int height = imageReader.getHeight(0);
+                int step = subsampling(width, height, PREVIEW_SIZE);
+                if (step > 1) {
+                    ImageReadParam param = imageReader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    BufferedImage preview = read(imageReader, param, file, operation + " preview", () -> cancelled);
+                    if (preview == null) {
+                        return;
+                    }
+                    deliver(() -> listener.previewReady(preview, width, height));
+                }
+                BufferedImage image = read(imageReader, imageReader.getDefaultReadParam(), file, operation, () -> cancelled);
+                if (image != null) {
+                    deliver(() -> listener.imageReady(image));
+                }
+            } finally {
+                imageReader.dispose();
+            }
+        } catch (IOException e) {
+            deliver(() -> listener.importFailed(e));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            deliver(() -> listener.importFailed(new IOException("Error decoding " + file.getName(), e)));
+        } catch (OutOfMemoryError e) {
+            deliver(() -> listener.importFailed(new IOException("Not enough memory to load all of " + file.getName())));
+        }
+    }
+
+    /**
+     * Reads an image file with every n-th pixel of every n-th row, so it fits a size
+     * Small images are read completely.
+     * Runs on a decoder thread
+     *
+     * @param maxSize   Longest side the image may have, in pixels, or 0 to read it completely
+     * @param operation Which command reads the file, for the flight recorder
+     * @param cancelled Tells whether to stop reading
+     * @return The decoded image, or null if reading was cancelled
+     */
+    static BufferedImage readScaled(File file, int maxSize, String operation, BooleanSupplier cancelled) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader imageReader = openReader(file, input, cancelled);
+            try {
+                int step = maxSize > 0 ? subsampling(imageReader.getWidth(0), imageReader.getHeight(0), maxSize) : 1;
+                ImageReadParam param = imageReader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return read(imageReader, param, file, operation, cancelled);
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Checks if an image read by readScaled is smaller than the image in the file
+     * Only the header of the file is read again.
+     */
+    static boolean isSubsampled(File file, BufferedImage image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader imageReader = openReader(file, input, () -> false);
+            try {
+                return imageReader.getWidth(0) > image.getWidth() || imageReader.getHeight(0) > image.getHeight();
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Finds a reader for the image file and connects it to the file
+     * The reader aborts its decode as soon as the import is cancelled.
+     */
+    private static ImageReader openReader(File file, ImageInputStream input, BooleanSupplier cancelled) throws IOException {
+        if (input == null) {
+            throw new IOException("Cannot read " + file.getName());
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException(file.getName() + " is not an image format that can be read");
+        }
+        ImageReader imageReader = readers.next();
+        imageReader.addIIOReadProgressListener(new AbortWhenCancelled(cancelled));
+        // Not seek-forward-only, so the full image can be read after a preview
+        imageReader.setInput(input, false, true);
+        return imageReader;
+    }
+
+    /**
+     * Gets the smallest subsampling step that makes an image fit a size
+     */
+    private static int subsampling(int width, int height, int maxSize) {
+        return Math.max(1, (Math.max(width, height) + maxSize - 1) / maxSize);
+    }
+
+    /**
+     * Reads the first image of the file and records the decode as a flight recorder event
+     *
+     * @return The decoded image, or null if reading was cancelled
+     */
+    private static BufferedImage read(ImageReader imageReader, ImageReadParam param, File file,
+            String eventOperation, BooleanSupplier cancelled) throws IOException {
+        if (cancelled.getAsBoolean()) {
+            return null;
+        }
+        DrawingEvents.ImageDecodeEvent event = new DrawingEvents.ImageDecodeEvent();
+        event.begin();
+        BufferedImage image = imageReader.read(0, param);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = eventOperation;
+            event.path = file.getAbsolutePath();
+            event.fileBytes = file.length();
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            event.commit();
+        }
+        // An aborted read returns what it decoded so far
+        return cancelled.getAsBoolean() ? null : image;
+    }
+
+    /**
+     * Runs a listener call on the Event Dispatch Thread unless the import was cancelled by then
+     */
+    private void deliver(Runnable call) {
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) {
+                call.run();
+            }
+        });
+    }
+
+    /**
+     * Aborts the decode as soon as the import is cancelled
+     * Readers only accept abort() from the thread that is decoding, so the reader is
+     * asked from its own progress reports, which arrive every few rows
+     */
+    private static class AbortWhenCancelled implements IIOReadProgressListener {
+        private final BooleanSupplier cancelled;  // Tells whether the import was cancelled
+
+        AbortWhenCancelled(BooleanSupplier cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (cancelled.getAsBoolean()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
@@ -28,6 +28,21 @@ public class ImageShape extends Shape{
         this.height = Math.abs(y2 - y1);
     }
     
+    /**
+     * Gets the image shown by this shape
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * Replaces the image, keeping the position and size of the shape
+     * Used when the full image of an imported preview has finished loading
+     */
+    public void setImage(BufferedImage image) {
+        this.image = image;
+    }
+    
     /**
      * Draws the image on the screen
      * The image is scaled to fit within the specified width and height
@@ -42,8 +57,6 @@ public class ImageShape extends Shape{
         int height = Math.abs(y2 - y1);
         // Draw the image scaled to fit the specified dimensions
         g2d.drawImage(image, x, y, width, height, null);
-        // Draw selection handles if this image is selected
-        drawSelectionHandles(g);
     }
     
     /**
@@ -56,6 +69,30 @@ public class ImageShape extends Shape{
         this.width = Math.abs(x2 - x1);
         this.height = Math.abs(y2 - y1);
     }
+
+    /**
+     * Scales the image relative to a fixed point
+     * Also updates the width and height properties
+     */
+    @Override
+    public void scale(double sx, double sy, int originX, int originY) {
+        super.scale(sx, sy, originX, originY);
+        this.width = Math.abs(x2 - x1);
+        this.height = Math.abs(y2 - y1);
+    }
+
+    /**
+     * Gets the area the selection outline and handles cover
+     * The outline is drawn from (x1,y1) with the original image size, so it is included separately
+     */
+    @Override
+    public java.awt.Rectangle getHandleBounds() {
+        int left = Math.min(x1, x2);
+        int top = Math.min(y1, y2);
+        int right = Math.max(Math.max(x1, x2), x1 + width);
+        int bottom = Math.max(Math.max(y1, y2), y1 + height);
+        return padHandles(left, top, right, bottom);
+    }
     
     /**
      * Checks if a point is inside the image
@@ -76,8 +113,6 @@ public class ImageShape extends Shape{
      */
     @Override
     public boolean isResizeHandle(int x, int y) {
-        if (!selected) return false;
-        
         int left = Math.min(x1, x2);
         int top = Math.min(y1, y2);
         int right = left + width;
@@ -109,27 +144,25 @@ public class ImageShape extends Shape{
      * This shows the user that the image is currently selected
      */
     @Override
-    protected void drawSelectionHandles(Graphics g) {
-        if (selected) {
-            Graphics2D g2d = (Graphics2D) g;
-            // Draw a blue rectangle around the selected image
-            g2d.setColor(Color.BLUE);
-            g2d.setStroke(new BasicStroke(2));
-            g2d.drawRect(x1, y1, width, height);
-            
-            // Draw white squares at each corner for resizing
-            g2d.setColor(Color.WHITE);
-            g2d.fillRect(x1 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.fillRect(x2 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.fillRect(x1 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.fillRect(x2 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            
-            // Draw blue outlines around the white handles
-            g2d.setColor(Color.BLUE);
-            g2d.drawRect(x1 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.drawRect(x2 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.drawRect(x1 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-            g2d.drawRect(x2 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
-        }
+    public void drawSelectionHandles(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g;
+        // Draw a blue rectangle around the selected image
+        g2d.setColor(Color.BLUE);
+        g2d.setStroke(new BasicStroke(2));
+        g2d.drawRect(x1, y1, width, height);
+        
+        // Draw white squares at each corner for resizing
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(x1 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.fillRect(x2 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.fillRect(x1 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.fillRect(x2 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        
+        // Draw blue outlines around the white handles
+        g2d.setColor(Color.BLUE);
+        g2d.drawRect(x1 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.drawRect(x2 - HANDLE_SIZE/2, y1 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.drawRect(x1 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
+        g2d.drawRect(x2 - HANDLE_SIZE/2, y2 - HANDLE_SIZE/2, HANDLE_SIZE, HANDLE_SIZE);
     }
 } 
\ No newline at end of file
@@ -1,11 +1,17 @@
 import javax.swing.*;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * JFontChooser provides a dialog for selecting fonts
  * Similar to the font chooser dialog in word processors
  * Allows users to select font name, style, and size
+ *
+ * The font names come from the FontCatalog. If the catalog is still loading, the dialog
+ * opens with only the current font and fills in the others when they arrive. Each name
+ * is shown in its own font, created only when its row is first painted.
  */
 public class JFontChooser extends JDialog {
     private Font selectedFont;       // The font that will be returned when OK is clicked
@@ -13,6 +19,7 @@ public class JFontChooser extends JDialog {
     private JList<String> fontStyleList; // List of font styles (Plain, Bold, etc.)
     private JList<String> fontSizeList;  // List of font sizes
     private JTextField previewField;     // Shows a preview of the selected font
+    private final String initialFamily;  // Font family used while no family is selected
     
     /**
      * Constructor - creates the font chooser dialog
@@ -25,9 +32,10 @@ public class JFontChooser extends JDialog {
         super(parent, title, true);  // true makes it modal (blocks input to other windows)
         
         selectedFont = initialFont;
+        initialFamily = initialFont.getFamily();
         
-        // Get available fonts from the system
-        String[] fontNames = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        // Get available fonts from the catalog, or only the current one while it is loading
+        String[] fontNames = FontCatalog.getFamilyNames().getNow(new String[] {initialFamily});
         String[] fontStyles = {"Plain", "Bold", "Italic", "Bold Italic"};
         String[] fontSizes = {"8", "10", "12", "14", "16", "18", "20", "24", "28", "32", "36", "40", "48", "56", "64", "72"};
         
@@ -36,6 +44,12 @@ public class JFontChooser extends JDialog {
         fontStyleList = new JList<>(fontStyles);
         fontSizeList = new JList<>(fontSizes);
         
+        // Fixed cell sizes keep the list from measuring every font, and the renderer
+        // creates the font of a name only when its row becomes visible
+        fontNameList.setFixedCellHeight(24);
+        fontNameList.setFixedCellWidth(200);
+        fontNameList.setCellRenderer(new FontNameRenderer());
+        
         // Set initial selections based on the provided font
         fontNameList.setSelectedValue(initialFont.getFamily(), true);
         fontStyleList.setSelectedIndex(initialFont.getStyle());
@@ -87,6 +101,20 @@ public class JFontChooser extends JDialog {
         // Size the dialog and center it on the parent window
         pack();
         setLocationRelativeTo(parent);
+        
+        // Show all font names once the catalog has loaded them
+        if (!FontCatalog.getFamilyNames().isDone()) {
+            FontCatalog.getFamilyNames().thenAccept(names -> SwingUtilities.invokeLater(() -> setFontNames(names)));
+        }
+    }
+    
+    /**
+     * Replaces the list of font names, keeping the selected name selected
+     */
+    private void setFontNames(String[] names) {
+        String selected = fontNameList.getSelectedValue();
+        fontNameList.setListData(names);
+        fontNameList.setSelectedValue(selected != null ? selected : initialFamily, true);
     }
     
     /**
@@ -106,6 +134,9 @@ public class JFontChooser extends JDialog {
      */
     private Font getSelectedFont() {
         String fontName = fontNameList.getSelectedValue();
+        if (fontName == null) {
+            fontName = initialFamily;
+        }
         int fontStyle = fontStyleList.getSelectedIndex();
         int fontSize = Integer.parseInt(fontSizeList.getSelectedValue());
         
@@ -130,4 +161,30 @@ public class JFontChooser extends JDialog {
         chooser.setVisible(true);
         return chooser.selectedFont;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Renderer for the font name list that shows each name in its own font
+     * Fonts are created the first time their row is painted and kept for the dialog;
+     * names that their font cannot display are shown in the normal list font
+     */
+    private static class FontNameRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+        private final Map<String, Font> previewFonts = new HashMap<>(); // Font of each painted name
+        
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            String name = (String) value;
+            if (!previewFonts.containsKey(name)) {
+                Font preview = new Font(name, Font.PLAIN, 14);
+                previewFonts.put(name, preview.canDisplayUpTo(name) == -1 ? preview : null);
+            }
+            Font font = previewFonts.get(name);
+            if (font != null) {
+                setFont(font);
+            }
+            return this;
+        }
+    }
+}
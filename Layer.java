@@ -1,17 +1,26 @@
 import java.awt.*;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Layer class represents a single layer in the drawing
  * Each layer can contain multiple shapes and can be shown or hidden
  * Similar to layers in Photoshop or other graphics programs
+ *
+ * The shapes are stored as rows of ShapeColumns. getShapes() hands out a ShapeHandle
+ * per shape, made when it is first asked for; all changes go through the layer.
  */
 public class Layer implements Serializable {
     private String name;            // Name of the layer (shown in the layers panel)
-    private ArrayList<Shape> shapes; // List of shapes in this layer
+    private ShapeColumns columns;   // The shapes of this layer, in drawing order
     private boolean visible;        // Whether the layer is visible or hidden
     private boolean selected;       // Whether the layer is currently selected
+    private transient int revision; // Incremented whenever the layer's content changes
+    private transient LayerCache cache; // Rendered raster of this layer (created when first needed)
+    private transient DrawingDocument document; // Document the layer reports its changes to, or null
     
     /**
      * Constructor for creating a new layer
@@ -20,18 +29,24 @@ public class Layer implements Serializable {
      */
     public Layer(String name) {
         this.name = name;
-        this.shapes = new ArrayList<>();
+        this.columns = new ShapeColumns();
         this.visible = true;
         this.selected = false;
     }
     
     /**
      * Adds a shape to this layer
+     * The layer keeps the shape from now on; change it through the handle in getShapes()
      * 
      * @param shape The shape to add
      */
     public void addShape(Shape shape) {
-        shapes.add(shape);
+        columns.add(shape instanceof ShapeHandle ? shape.copy() : shape);
+        java.awt.Rectangle bounds = columns.getBounds(columns.size() - 1);
+        markChanged(bounds);
+        BitSet added = new BitSet();
+        added.set(columns.size() - 1);
+        fire(new DrawingChange(DrawingChange.Type.SHAPE_ADDED, this, added, null, bounds));
     }
     
     /**
@@ -40,7 +55,183 @@ public class Layer implements Serializable {
      * @param shape The shape to remove
      */
     public void removeShape(Shape shape) {
-        shapes.remove(shape);
+        int index = indexOf(shape);
+        if (index >= 0) {
+            BitSet indices = new BitSet();
+            indices.set(index);
+            removeShapes(indices);
+        }
+    }
+    
+    /**
+     * Removes several shapes from this layer in one pass
+     * The remaining shapes keep their order and the layer changes only once
+     * 
+     * @param indices Indices of the shapes to remove in getShapes()
+     */
+    public void removeShapes(BitSet indices) {
+        if (indices.isEmpty()) {
+            return;
+        }
+        java.awt.Rectangle changed = boundsOf(indices);
+        int before = columns.size();
+        BitSet removed = indices.get(0, before);
+        for (int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i + 1)) {
+            detachHandle(i);
+        }
+        columns.removeRows(removed);
+        markChanged(changed);
+        fire(new DrawingChange(DrawingChange.Type.SHAPE_REMOVED, this, removed, changed, null));
+    }
+    
+    /**
+     * Changes several shapes of this layer in one pass, e.g. to move or restyle them
+     * The area they covered before and after the change is marked as changed once.
+     * Each shape is changed on a copy that replaces it, so undo snapshots and frames
+     * being rendered keep the shapes as they were.
+     * 
+     * @param indices Indices of the shapes to change in getShapes()
+     * @param change  The change applied to each of the shapes
+     */
+    public void updateShapes(BitSet indices, Consumer<Shape> change) {
+        if (indices.isEmpty()) {
+            return;
+        }
+        java.awt.Rectangle before = boundsOf(indices);
+        for (int i = indices.nextSetBit(0); i >= 0 && i < columns.size(); i = indices.nextSetBit(i + 1)) {
+            Shape shape = columns.copyShape(i);
+            change.accept(shape);
+            columns.set(i, shape);
+        }
+        java.awt.Rectangle after = boundsOf(indices);
+        markChanged(before.union(after));
+        fire(DrawingChange.Type.SHAPE_GEOMETRY_CHANGED, indices.cardinality(), before, after);
+    }
+    
+    /**
+     * Replaces one shape of this layer by a changed version of it
+     * The handle of the shape stays valid and shows the new version.
+     * 
+     * @param index Index of the shape in getShapes()
+     * @param shape The new version; the layer keeps it from now on
+     */
+    public void setShape(int index, Shape shape) {
+        java.awt.Rectangle before = columns.getBounds(index);
+        columns.set(index, shape instanceof ShapeHandle ? shape.copy() : shape);
+        java.awt.Rectangle after = columns.getBounds(index);
+        markChanged(before.union(after));
+        fire(DrawingChange.Type.SHAPE_GEOMETRY_CHANGED, 1, before, after);
+    }
+    
+    /**
+     * Brings back the shapes of a frozen version of this layer, e.g. for undo
+     * Only the shapes that differ from the current ones are marked as changed. The
+     * handles of the version take over their rows again; other handles are detached.
+     * 
+     * @param version Columns from freezeColumns()
+     */
+    public void restore(ShapeColumns version) {
+        if (columns.sameRows(version)) {
+            return;
+        }
+        java.awt.Rectangle before = null;
+        java.awt.Rectangle after = null;
+        int oldSize = columns.size();
+        int newSize = version.size();
+        int changed = 0;
+        int start = 0;
+        int removed = 0;
+        int added = 0;
+        if (oldSize == newSize) {
+            // Same number of shapes: compare them row by row
+            for (int i = 0; i < oldSize; i++) {
+                if (!columns.sameRow(i, version, i)) {
+                    before = union(before, columns.getBounds(i));
+                    after = union(after, version.getBounds(i));
+                    changed++;
+                }
+            }
+        } else {
+            // Skip the shapes both versions start and end with
+            int oldEnd = oldSize;
+            int newEnd = newSize;
+            while (start < oldEnd && start < newEnd && columns.sameRow(start, version, start)) {
+                start++;
+            }
+            while (oldEnd > start && newEnd > start && columns.sameRow(oldEnd - 1, version, newEnd - 1)) {
+                oldEnd--;
+                newEnd--;
+            }
+            for (int i = start; i < oldEnd; i++) {
+                before = union(before, columns.getBounds(i));
+            }
+            for (int i = start; i < newEnd; i++) {
+                after = union(after, version.getBounds(i));
+            }
+            removed = oldEnd - start;
+            added = newEnd - start;
+        }
+        
+        for (int i = 0; i < oldSize; i++) {
+            detachHandle(i);
+        }
+        columns = version.thaw();
+        for (int i = 0; i < newSize; i++) {
+            ShapeHandle handle = columns.getHandle(i);
+            if (handle != null) {
+                handle.attach(this, i);
+            }
+        }
+        
+        if (before == null && after == null) {
+            // Only the handles differ; copies made from the layer must still be refreshed
+            revision++;
+        } else if (oldSize == newSize) {
+            markChanged(before.union(after));
+            fire(DrawingChange.Type.SHAPE_GEOMETRY_CHANGED, changed, before, after);
+        } else {
+            markChanged(before == null ? after : after == null ? before : before.union(after));
+            if (before != null) {
+                BitSet rows = new BitSet();
+                rows.set(start, start + removed);
+                fire(new DrawingChange(DrawingChange.Type.SHAPE_REMOVED, this, rows, before, null));
+            }
+            if (after != null) {
+                BitSet rows = new BitSet();
+                rows.set(start, start + added);
+                fire(new DrawingChange(DrawingChange.Type.SHAPE_ADDED, this, rows, null, after));
+            }
+        }
+    }
+    
+    /**
+     * Unites two areas, either of which may be null
+     */
+    private static java.awt.Rectangle union(java.awt.Rectangle a, java.awt.Rectangle b) {
+        return a == null ? b : a.union(b);
+    }
+    
+    /**
+     * Gets the area painted by some of the shapes of this layer
+     * 
+     * @param indices Indices of the shapes in getShapes()
+     * @return The union of their bounds
+     */
+    public java.awt.Rectangle boundsOf(BitSet indices) {
+        if (indices.isEmpty()) {
+            return new java.awt.Rectangle();
+        }
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = indices.nextSetBit(0); i >= 0 && i < columns.size(); i = indices.nextSetBit(i + 1)) {
+            left = Math.min(left, columns.getLeft(i));
+            top = Math.min(top, columns.getTop(i));
+            right = Math.max(right, columns.getRight(i));
+            bottom = Math.max(bottom, columns.getBottom(i));
+        }
+        return left > right ? new java.awt.Rectangle() : new java.awt.Rectangle(left, top, right - left, bottom - top);
     }
     
     /**
@@ -50,10 +241,10 @@ public class Layer implements Serializable {
      * @param shape The shape to move forward
      */
     public void bringShapeForward(Shape shape) {
-        int index = shapes.indexOf(shape);
-        if (index >= 0 && index < shapes.size() - 1) {
-            shapes.remove(index);
-            shapes.add(index + 1, shape);
+        int index = indexOf(shape);
+        if (index >= 0 && index < columns.size() - 1) {
+            columns.moveRow(index, index + 1);
+            shapeReordered(index, index + 1);
         }
     }
     
@@ -64,10 +255,10 @@ public class Layer implements Serializable {
      * @param shape The shape to move backward
      */
     public void sendShapeBackward(Shape shape) {
-        int index = shapes.indexOf(shape);
+        int index = indexOf(shape);
         if (index > 0) {
-            shapes.remove(index);
-            shapes.add(index - 1, shape);
+            columns.moveRow(index, index - 1);
+            shapeReordered(index, index - 1);
         }
     }
     
@@ -78,9 +269,10 @@ public class Layer implements Serializable {
      * @param shape The shape to bring to front
      */
     public void bringToFront(Shape shape) {
-        if (shapes.contains(shape)) {
-            shapes.remove(shape);
-            shapes.add(shape);
+        int index = indexOf(shape);
+        if (index >= 0) {
+            columns.moveRow(index, columns.size() - 1);
+            shapeReordered(index, columns.size() - 1);
         }
     }
     
@@ -91,9 +283,10 @@ public class Layer implements Serializable {
      * @param shape The shape to send to back
      */
     public void sendToBack(Shape shape) {
-        if (shapes.contains(shape)) {
-            shapes.remove(shape);
-            shapes.add(0, shape);
+        int index = indexOf(shape);
+        if (index >= 0) {
+            columns.moveRow(index, 0);
+            shapeReordered(index, 0);
         }
     }
     
@@ -103,11 +296,34 @@ public class Layer implements Serializable {
      * @param g The graphics context to draw on
      */
     public void draw(Graphics g) {
+        draw(g, null);
+    }
+    
+    /**
+     * Draws all shapes in this layer except some if the layer is visible
+     * The left out shapes are typically being dragged and drawn live on top
+     * 
+     * @param g        The graphics context to draw on
+     * @param excluded Indices of the shapes to leave out, or null to draw all shapes
+     */
+    public void draw(Graphics g, BitSet excluded) {
+        DrawingEvents.LayerDrawEvent event = new DrawingEvents.LayerDrawEvent();
+        event.begin();
         if (visible) {
-            for (Shape shape : shapes) {
-                shape.draw(g);
+            RenderPlanner planner = new RenderPlanner((Graphics2D) g);
+            for (int i = 0; i < columns.size(); i++) {
+                if (excluded == null || !excluded.get(i)) {
+                    columns.draw(i, planner);
+                }
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.layerName = name;
+            event.shapeCount = columns.size();
+            event.visible = visible;
+            event.commit();
+        }
     }
     
     /**
@@ -119,14 +335,44 @@ public class Layer implements Serializable {
      * @return The shape at the given position, or null if no shape is there
      */
     public Shape getShapeAt(int x, int y) {
-        // Loop through shapes from top to bottom (last to first)
-        for (int i = shapes.size() - 1; i >= 0; i--) {
-            Shape shape = shapes.get(i);
-            if (shape.containsPoint(x, y)) {
-                return shape;
-            }
+        DrawingEvents.HitTestEvent event = new DrawingEvents.HitTestEvent();
+        event.begin();
+        // Search the columns from top to bottom (last to first), a block of boxes at a time
+        int row = columns.shapeAt(x, y);
+        Shape found = row >= 0 ? handleOf(row) : null;
+        int tested = row >= 0 ? columns.size() - row : columns.size();
+        event.end();
+        if (event.shouldCommit()) {
+            event.layerName = name;
+            event.x = x;
+            event.y = y;
+            event.shapesTested = tested;
+            event.hit = found != null;
+            event.commit();
+        }
+        return found;
+    }
+    
+    /**
+     * Finds all shapes that touch a selection rectangle or lasso
+     * Used for selecting shapes by dragging a region over them
+     * 
+     * @param region The region in canvas coordinates
+     * @return Indices of the shapes in getShapes()
+     */
+    public BitSet getShapesIn(SelectionRegion region) {
+        DrawingEvents.RegionSelectEvent event = new DrawingEvents.RegionSelectEvent();
+        event.begin();
+        BitSet found = columns.inRegion(region);
+        event.end();
+        if (event.shouldCommit()) {
+            event.layerName = name;
+            event.lasso = !region.isRectangular();
+            event.shapeCount = columns.size();
+            event.selected = found.cardinality();
+            event.commit();
         }
-        return null;
+        return found;
     }
     
     /**
@@ -135,7 +381,10 @@ public class Layer implements Serializable {
      * @param visible true to show the layer, false to hide it
      */
     public void setVisible(boolean visible) {
-        this.visible = visible;
+        if (this.visible != visible) {
+            this.visible = visible;
+            fire(new DrawingChange(DrawingChange.Type.LAYER_VISIBILITY_CHANGED, this));
+        }
     }
     
     /**
@@ -180,15 +429,189 @@ public class Layer implements Serializable {
      * @param name The new name for the layer
      */
     public void setName(String name) {
-        this.name = name;
+        if (!name.equals(this.name)) {
+            this.name = name;
+            fire(new DrawingChange(DrawingChange.Type.LAYER_RENAMED, this));
+        }
+    }
+    
+    /**
+     * Marks the content of this layer as changed
+     * Needed when the cached tiles are out of date for another reason than an edit,
+     * e.g. after switching between background and tile rendering
+     */
+    public void invalidate() {
+        markChanged(null);
+        fire(DrawingChange.Type.SHAPE_GEOMETRY_CHANGED, 0, null, null);
+    }
+    
+    /**
+     * Marks part of this layer as changed
+     * Edits through the layer mark their area themselves; this is needed when the
+     * cached tiles of an area are out of date for another reason
+     * 
+     * @param bounds The changed area in canvas coordinates
+     */
+    public void invalidate(java.awt.Rectangle bounds) {
+        markChanged(bounds);
+        fire(DrawingChange.Type.SHAPE_GEOMETRY_CHANGED, 0, bounds, bounds);
+    }
+    
+    /**
+     * Marks the area of a shape as changed after it was moved in the drawing order
+     * 
+     * @param from Row of the shape before the move
+     * @param to   Row of the shape after the move
+     */
+    private void shapeReordered(int from, int to) {
+        java.awt.Rectangle bounds = columns.getBounds(to);
+        markChanged(bounds);
+        fire(new DrawingChange(this, from, to, bounds));
+    }
+    
+    /**
+     * Gives the layer a new revision and renders the changed area of its tiles again
+     * 
+     * @param area The changed area in canvas coordinates, or null for the whole layer
+     */
+    private void markChanged(java.awt.Rectangle area) {
+        revision++;
+        if (cache != null) {
+            if (area == null) {
+                cache.invalidateAll();
+            } else {
+                cache.invalidate(area);
+            }
+        }
+    }
+    
+    /**
+     * Reports a change of some shapes to the document of this layer
+     */
+    private void fire(DrawingChange.Type type, int count, java.awt.Rectangle oldBounds, java.awt.Rectangle newBounds) {
+        fire(new DrawingChange(type, this, count, oldBounds, newBounds));
+    }
+    
+    /**
+     * Reports a change to the document of this layer, if it belongs to one
+     */
+    private void fire(DrawingChange change) {
+        if (document != null) {
+            document.changed(change);
+        }
+    }
+    
+    /**
+     * Sets the document the layer reports its changes to
+     * Called by the document when the layer is added or removed
+     */
+    void setDocument(DrawingDocument document) {
+        this.document = document;
+    }
+    
+    /**
+     * Gets the revision of this layer's content
+     * The number changes every time a shape is added, removed, reordered or invalidated
+     * 
+     * @return The current content revision
+     */
+    public int getRevision() {
+        return revision;
+    }
+    
+    /**
+     * Gets the shapes of this layer as columns for drawing and hit-testing
+     * The columns change with the layer, so they must only be used on the Event Dispatch
+     * Thread; use freezeColumns() for other threads.
+     * 
+     * @return The columns of the current shapes
+     */
+    public ShapeColumns getColumns() {
+        return columns;
+    }
+    
+    /**
+     * Gets a version of the shapes of this layer that never changes
+     * Later edits copy the parts of the columns they change, so the version can be drawn
+     * on another thread or kept for undo.
+     * 
+     * @return Frozen columns of the current shapes
+     */
+    public ShapeColumns freezeColumns() {
+        return columns.freeze();
+    }
+    
+    /**
+     * Gets the index of a shape in getShapes()
+     * 
+     * @param shape A shape handed out by this layer
+     * @return The index, or -1 if the shape is not in this layer
+     */
+    public int indexOf(Shape shape) {
+        if (shape instanceof ShapeHandle) {
+            ShapeHandle handle = (ShapeHandle) shape;
+            if (handle.getLayer() == this && columns.getHandle(handle.getRow()) == handle) {
+                return handle.getRow();
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Gets the handle of a row, making it when first asked for
+     */
+    private ShapeHandle handleOf(int row) {
+        ShapeHandle handle = columns.getHandle(row);
+        if (handle == null) {
+            handle = new ShapeHandle(this, row);
+            columns.setHandle(row, handle);
+        }
+        return handle;
+    }
+    
+    /**
+     * Detaches the handle of a row whose shape is leaving the layer, if it has one
+     */
+    private void detachHandle(int row) {
+        ShapeHandle handle = columns.getHandle(row);
+        if (handle != null) {
+            handle.detach(columns.copyShape(row));
+        }
+    }
+    
+    /**
+     * Gets the tile cache of this layer, creating it when first needed
+     * 
+     * @return The layer's cache
+     */
+    public LayerCache getCache() {
+        if (cache == null) {
+            cache = new LayerCache(this);
+        }
+        return cache;
     }
     
     /**
      * Gets all shapes in this layer
+     * The list cannot be changed and follows the layer; its shapes are handles made
+     * when they are first asked for.
      * 
-     * @return ArrayList containing all shapes in the layer
+     * @return List containing all shapes in the layer
      */
-    public ArrayList<Shape> getShapes() {
-        return shapes;
+    public List<Shape> getShapes() {
+        return new AbstractList<Shape>() {
+            @Override
+            public Shape get(int index) {
+                if (index < 0 || index >= columns.size()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + columns.size());
+                }
+                return handleOf(index);
+            }
+            
+            @Override
+            public int size() {
+                return columns.size();
+            }
+        };
     }
 } 
\ No newline at end of file
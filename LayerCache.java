@@ -0,0 +1,447 @@
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * LayerCache keeps the rendered tiles of one layer in the shared TileCache
+ * Tiles are rendered lazily for the zoom levels the user visits and stay valid while
+ * panning. An edit only invalidates the tiles that overlap the bounds of the changed
+ * shape, so the rest of the layer keeps being blitted from the cache.
+ *
+ * Rendering is split into time slices so a huge layer never blocks the Event Dispatch
+ * Thread for long. Any change to the layer cancels the render in progress.
+ *
+ * Tiles rendered during an interaction are draft tiles. They are shown like any other
+ * tile but are rendered again at full quality when the view is refined.
+ */
+public class LayerCache {
+    private static final int SHAPES_PER_CHECK = 16; // Shapes drawn between two deadline checks
+    private final Layer layer;                      // The layer this cache belongs to
+    private final Set<TileCache.Key> keys = new HashSet<>(); // Tiles of this layer in the tile cache
+    private final Set<TileCache.Key> draftKeys = new HashSet<>(); // Tiles that were rendered in draft quality
+    private BitSet excluded;                        // Rows left out of the tiles because they are drawn live, or null
+    private java.awt.Rectangle excludedBounds;      // Area of the left out rows when they were set
+    private RenderJob job;                          // Render in progress, continued by the next slice
+
+    /**
+     * Constructor - creates an empty cache for a layer
+     *
+     * @param layer The layer to cache
+     */
+    public LayerCache(Layer layer) {
+        this.layer = layer;
+    }
+
+    /**
+     * Sets the shapes that are left out of the tiles because they are drawn live
+     * The tiles under the old and the new live shapes are rendered again
+     *
+     * @param rows   Rows of the layer's columns to leave out, or null; the set is copied
+     * @param bounds Area painted by those rows, or null
+     */
+    public void setExcluded(BitSet rows, java.awt.Rectangle bounds) {
+        if (!Objects.equals(rows, excluded)) {
+            if (excludedBounds != null) {
+                invalidate(excludedBounds);
+            }
+            if (bounds != null) {
+                invalidate(bounds);
+            }
+            excluded = rows == null ? null : (BitSet) rows.clone();
+            excludedBounds = rows == null ? null : bounds;
+        }
+    }
+
+    /**
+     * Removes all tiles that overlap the given canvas area
+     *
+     * @param bounds Changed area in canvas coordinates
+     */
+    public void invalidate(java.awt.Rectangle bounds) {
+        cancelJob();
+        TileCache cache = TileCache.shared();
+        synchronized (cache) {
+            for (TileCache.Key key : new ArrayList<>(keys)) {
+                if (key.canvasBounds().intersects(bounds)) {
+                    cache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all tiles of this layer
+     */
+    public void invalidateAll() {
+        cancelJob();
+        TileCache cache = TileCache.shared();
+        synchronized (cache) {
+            for (TileCache.Key key : new ArrayList<>(keys)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Called by the tile cache when a tile of this layer is stored
+     */
+    void tileAdded(TileCache.Key key) {
+        keys.add(key);
+    }
+
+    /**
+     * Called by the tile cache when a tile of this layer is evicted or removed
+     */
+    void tileRemoved(TileCache.Key key) {
+        keys.remove(key);
+        draftKeys.remove(key);
+    }
+
+    /**
+     * Creates the key of one tile of this layer
+     */
+    public TileCache.Key key(int level, int tx, int ty) {
+        return new TileCache.Key(this, level, tx, ty);
+    }
+
+    /**
+     * Finds the tiles of a tile range that are not in the cache
+     *
+     * @return Keys of the missing tiles
+     */
+    public List<TileCache.Key> missingTiles(int level, int tx0, int ty0, int tx1, int ty1) {
+        List<TileCache.Key> missing = new ArrayList<>();
+        TileCache cache = TileCache.shared();
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                TileCache.Key key = key(level, tx, ty);
+                if (cache.get(key) == null) {
+                    missing.add(key);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Finds the tiles of a tile range that were rendered in draft quality
+     *
+     * @return Keys of the draft tiles
+     */
+    public List<TileCache.Key> draftTiles(int level, int tx0, int ty0, int tx1, int ty1) {
+        List<TileCache.Key> drafts = new ArrayList<>();
+        synchronized (TileCache.shared()) {
+            for (TileCache.Key key : draftKeys) {
+                if (key.level == level && key.tx >= tx0 && key.tx <= tx1 && key.ty >= ty0 && key.ty <= ty1) {
+                    drafts.add(key);
+                }
+            }
+        }
+        return drafts;
+    }
+
+    /**
+     * Renders the given tiles for at most one time slice and stores finished tiles in the tile cache
+     * A render that does not finish in time continues where it left off with the next call.
+     * It is cancelled when the layer changes, when the quality changes or when any of its
+     * tiles is no longer requested, for example because the view moved away.
+     * Safe to call from a worker thread as long as the layer is not modified meanwhile.
+     *
+     * @param tiles    Keys of the tiles to render, all at the same zoom level
+     * @param draft    Whether to render in draft quality
+     * @param deadline System.nanoTime() at which the slice ends
+     * @return True if all requested tiles are now in the cache
+     */
+    public boolean renderTiles(List<TileCache.Key> tiles, boolean draft, long deadline) {
+        if (tiles.isEmpty()) {
+            return true;
+        }
+        if (job != null && (job.draft != draft || !tiles.containsAll(job.tiles))) {
+            cancelJob();
+        }
+        if (job == null) {
+            job = new RenderJob(tiles, draft);
+        }
+        if (!job.run(deadline)) {
+            return false;
+        }
+        boolean complete = job.tiles.containsAll(tiles);
+        job = null;
+        return complete;
+    }
+
+    /**
+     * Stops the render in progress and drops its partly drawn tiles
+     */
+    private void cancelJob() {
+        if (job != null) {
+            job.dispose();
+            job = null;
+        }
+    }
+
+    /**
+     * A resumable render of a set of tiles
+     * Shapes are drawn in layer order; the index of the next shape is kept between slices.
+     */
+    private class RenderJob {
+        final List<TileCache.Key> tiles;     // Tiles being rendered, all at the same level
+        final boolean draft;                 // Whether the tiles are rendered in draft quality
+        final double scale;                  // Device pixels per canvas unit
+        final int minTx, minTy, maxTx, maxTy; // Range of the tiles
+        final Map<Long, TileCache.Key> byPosition = new HashMap<>();
+        // Images and graphics are only created for tiles that something is drawn into
+        final Map<TileCache.Key, BufferedImage> images = new HashMap<>();
+        final Map<TileCache.Key, Graphics2D> graphics = new HashMap<>();
+        final Map<TileCache.Key, RenderPlanner> planners = new HashMap<>(); // Planner of each tile's graphics
+        final ShapeColumns rows;             // Shapes of the layer; a change cancels the job
+        final BitSet skipped = excluded;     // Rows drawn live instead, or null; a change cancels the job
+        final int areaLeft, areaTop, areaRight, areaBottom; // Canvas area covered by the tiles, rounded outwards
+        int nextShape;                       // Index of the first shape not drawn yet
+
+        RenderJob(List<TileCache.Key> tiles, boolean draft) {
+            this.tiles = new ArrayList<>(tiles);
+            this.draft = draft;
+            this.scale = tiles.get(0).level / 1000.0;
+            this.rows = layer.getColumns();
+            int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+            int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+            for (TileCache.Key key : tiles) {
+                byPosition.put(position(key.tx, key.ty), key);
+                x0 = Math.min(x0, key.tx);
+                y0 = Math.min(y0, key.ty);
+                x1 = Math.max(x1, key.tx);
+                y1 = Math.max(y1, key.ty);
+            }
+            minTx = x0;
+            minTy = y0;
+            maxTx = x1;
+            maxTy = y1;
+            areaLeft = (int) Math.floor(x0 * TileCache.TILE_SIZE / scale) - 1;
+            areaTop = (int) Math.floor(y0 * TileCache.TILE_SIZE / scale) - 1;
+            areaRight = (int) Math.ceil((x1 + 1) * TileCache.TILE_SIZE / scale) + 1;
+            areaBottom = (int) Math.ceil((y1 + 1) * TileCache.TILE_SIZE / scale) + 1;
+        }
+
+        /**
+         * Draws shapes into the tiles until all are drawn or the deadline has passed
+         * The deadline is checked every few shapes so a slice always makes progress
+         *
+         * @return True if the tiles are finished and stored in the tile cache
+         */
+        boolean run(long deadline) {
+            DrawingEvents.LayerDrawEvent event = new DrawingEvents.LayerDrawEvent();
+            event.begin();
+
+            // Rows are culled against the canvas area of the tiles a block at a time
+            int[] mask = new int[HitKernels.BLOCK];
+            int drawn = 0;
+            while (nextShape < rows.size()) {
+                if (drawn >= SHAPES_PER_CHECK && System.nanoTime() >= deadline) {
+                    break;
+                }
+                int end = rows.overlapping(nextShape, Math.min(rows.size(), nextShape + HitKernels.BLOCK),
+                    areaLeft, areaTop, areaRight, areaBottom, mask);
+                int start = nextShape;
+                for (; nextShape < end; nextShape++) {
+                    if (mask[nextShape - start] != 0) {
+                        drawShape(nextShape);
+                        if (++drawn % SHAPES_PER_CHECK == 0 && System.nanoTime() >= deadline) {
+                            nextShape++;
+                            break;
+                        }
+                    }
+                }
+            }
+            boolean finished = nextShape >= rows.size();
+            if (finished) {
+                store();
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.layerName = layer.getName();
+                event.shapeCount = rows.size();
+                event.visible = layer.isVisible();
+                event.commit();
+            }
+            return finished;
+        }
+
+        /**
+         * Draws one shape into the tiles its bounds overlap
+         */
+        private void drawShape(int row) {
+            if (skipped != null && skipped.get(row)) {
+                return;
+            }
+            int sx0 = Math.max(minTx, Math.floorDiv((int) Math.floor(rows.getLeft(row) * scale), TileCache.TILE_SIZE));
+            int sy0 = Math.max(minTy, Math.floorDiv((int) Math.floor(rows.getTop(row) * scale), TileCache.TILE_SIZE));
+            int sx1 = Math.min(maxTx, Math.floorDiv((int) Math.ceil(rows.getRight(row) * scale), TileCache.TILE_SIZE));
+            int sy1 = Math.min(maxTy, Math.floorDiv((int) Math.ceil(rows.getBottom(row) * scale), TileCache.TILE_SIZE));
+            for (int ty = sy0; ty <= sy1; ty++) {
+                for (int tx = sx0; tx <= sx1; tx++) {
+                    TileCache.Key key = byPosition.get(position(tx, ty));
+                    if (key != null) {
+                        rows.draw(row, plannerFor(key));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the render planner of a tile, creating the tile image on first use
+         */
+        private RenderPlanner plannerFor(TileCache.Key key) {
+            graphicsFor(key);
+            return planners.get(key);
+        }
+
+        /**
+         * Gets the graphics of a tile, creating the tile image on first use
+         */
+        private Graphics2D graphicsFor(TileCache.Key key) {
+            Graphics2D g2d = graphics.get(key);
+            if (g2d == null) {
+                BufferedImage image = new BufferedImage(TileCache.TILE_SIZE, TileCache.TILE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+                g2d = image.createGraphics();
+                RenderQuality.applyHints(g2d, draft);
+                g2d.translate(-key.tx * TileCache.TILE_SIZE, -key.ty * TileCache.TILE_SIZE);
+                g2d.scale(scale, scale);
+                images.put(key, image);
+                graphics.put(key, g2d);
+                planners.put(key, new RenderPlanner(g2d));
+            }
+            return g2d;
+        }
+
+        /**
+         * Stores the finished tiles in the tile cache
+         */
+        private void store() {
+            TileCache cache = TileCache.shared();
+            synchronized (cache) {
+                for (TileCache.Key key : tiles) {
+                    Graphics2D g2d = graphics.get(key);
+                    if (g2d != null) {
+                        g2d.dispose();
+                        cache.put(key, images.get(key));
+                    } else {
+                        cache.put(key, TileCache.EMPTY);
+                    }
+                    if (draft && g2d != null && keys.contains(key)) {
+                        draftKeys.add(key);
+                    } else {
+                        draftKeys.remove(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Releases the graphics of the partly drawn tiles
+         */
+        void dispose() {
+            for (Graphics2D g2d : graphics.values()) {
+                g2d.dispose();
+            }
+        }
+    }
+
+    /**
+     * Combines a tile column and row into one map key
+     */
+    private static long position(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xffffffffL);
+    }
+
+    /**
+     * Draws the cached tiles of a tile range
+     * Tiles that are still being rendered are stood in for by the tiles of the closest
+     * other cached zoom level, scaled to fit
+     *
+     * @param g       Graphics in device pixels
+     * @param offsetX Device x-coordinate of the canvas origin at this zoom level
+     * @param offsetY Device y-coordinate of the canvas origin at this zoom level
+     */
+    public void drawTiles(Graphics2D g, int level, int tx0, int ty0, int tx1, int ty1, double offsetX, double offsetY) {
+        TileCache cache = TileCache.shared();
+        Path2D.Double missing = null;   // Device area of the tiles that are not rendered yet
+        java.awt.Rectangle missingCanvas = null;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int x = (int) Math.round(offsetX + tx * TileCache.TILE_SIZE);
+                int y = (int) Math.round(offsetY + ty * TileCache.TILE_SIZE);
+                TileCache.Key key = key(level, tx, ty);
+                BufferedImage tile = cache.get(key);
+                if (tile == null) {
+                    if (missing == null) {
+                        missing = new Path2D.Double();
+                        missingCanvas = key.canvasBounds();
+                    }
+                    missing.append(new java.awt.Rectangle(x, y, TileCache.TILE_SIZE, TileCache.TILE_SIZE), false);
+                    missingCanvas.add(key.canvasBounds());
+                } else if (tile != TileCache.EMPTY) {
+                    g.drawImage(tile, x, y, null);
+                }
+            }
+        }
+        if (missing != null) {
+            drawPlaceholder(g, level, missing, missingCanvas, offsetX, offsetY);
+        }
+    }
+
+    /**
+     * Draws the tiles of the closest other cached zoom level into the area of the missing tiles
+     *
+     * @param missing       Device area of the missing tiles
+     * @param missingCanvas Canvas area of the missing tiles
+     */
+    private void drawPlaceholder(Graphics2D g, int level, java.awt.Shape missing, java.awt.Rectangle missingCanvas,
+                                 double offsetX, double offsetY) {
+        List<TileCache.Key> found = new ArrayList<>();
+        int bestLevel = -1;
+        synchronized (TileCache.shared()) {
+            for (TileCache.Key key : keys) {
+                if (key.level == level || !key.canvasBounds().intersects(missingCanvas)) {
+                    continue;
+                }
+                if (bestLevel < 0 || Math.abs(key.level - level) < Math.abs(bestLevel - level)) {
+                    bestLevel = key.level;
+                    found.clear();
+                }
+                if (key.level == bestLevel) {
+                    found.add(key);
+                }
+            }
+        }
+        if (found.isEmpty()) {
+            return;
+        }
+
+        // Clip to the missing tiles and scale the other level to this one; the stand-in
+        // is only shown briefly, so the fastest interpolation is good enough
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2d.clip(missing);
+        g2d.translate(offsetX, offsetY);
+        g2d.scale((double) level / bestLevel, (double) level / bestLevel);
+        TileCache cache = TileCache.shared();
+        for (TileCache.Key key : found) {
+            BufferedImage tile = cache.get(key);
+            if (tile != null && tile != TileCache.EMPTY) {
+                g2d.drawImage(tile, key.tx * TileCache.TILE_SIZE, key.ty * TileCache.TILE_SIZE, null);
+            }
+        }
+        g2d.dispose();
+    }
+}
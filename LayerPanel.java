@@ -2,15 +2,20 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * LayerPanel class creates the UI panel for managing layers
  * This panel shows the list of layers and provides controls to add, delete, and reorder layers
  * Similar to the layers panel in Photoshop or other graphics programs
+ *
+ * The panel listens to the drawing document: added, removed and moved layers are
+ * inserted into or taken out of the list one by one, and renamed or hidden layers
+ * only repaint their own row.
  */
 public class LayerPanel extends JPanel {
-    private ArrayList<Layer> layers;           // List of all layers in the drawing
+    private DrawingDocument document;          // Document that holds the layers
+    private List<Layer> layers;                // List of all layers in the drawing
     private JList<Layer> layerList;            // UI component showing the layers
     private DefaultListModel<Layer> listModel; // Data model for the layer list
     private JButton addLayerButton;            // Button to add a new layer
@@ -19,6 +24,8 @@ public class LayerPanel extends JPanel {
     private JButton moveDownButton;            // Button to move layer down in the stack
     private JCheckBox visibilityCheckBox;      // Checkbox to toggle layer visibility
     private DrawingPanel drawingPanel;         // Reference to the main drawing panel
+    private static ImageIcon visibleEyeIcon;   // Icon of visible layers, drawn once
+    private static ImageIcon hiddenEyeIcon;    // Icon of hidden layers, drawn once
     
     /**
      * Constructor - creates the layer panel with all its controls
@@ -27,7 +34,8 @@ public class LayerPanel extends JPanel {
      */
     public LayerPanel(DrawingPanel drawingPanel) {
         this.drawingPanel = drawingPanel;
-        this.layers = new ArrayList<>();
+        this.document = drawingPanel.getDocument();
+        this.layers = document.getLayers();
         this.listModel = new DefaultListModel<>();
         
         setLayout(new BorderLayout());
@@ -59,8 +67,6 @@ public class LayerPanel extends JPanel {
                     if (index >= 0) {
                         Layer layer = listModel.getElementAt(index);
                         layer.setVisible(!layer.isVisible());
-                        drawingPanel.repaint();
-                        layerList.repaint();
                     }
                 }
             }
@@ -80,8 +86,6 @@ public class LayerPanel extends JPanel {
             Layer selectedLayer = layerList.getSelectedValue();
             if (selectedLayer != null) {
                 selectedLayer.setVisible(visibilityCheckBox.isSelected());
-                drawingPanel.repaint();
-                layerList.repaint();
             }
         });
         visibilityPanel.add(visibilityCheckBox);
@@ -108,15 +112,11 @@ public class LayerPanel extends JPanel {
         layerPropertiesPanel.add(buttonPanel, BorderLayout.CENTER);
         add(layerPropertiesPanel, BorderLayout.SOUTH);
         
-        // Add initial layer
+        // Follow the changes of the document, then add the initial layer
+        document.addChangeListener(this::drawingChanged);
         Layer initialLayer = new Layer("Layer 1");
-        layers.add(initialLayer);
-        listModel.addElement(initialLayer);
-        layerList.setSelectedValue(initialLayer, true);
-        
-        // Share layers with DrawingPanel
-        drawingPanel.setLayers(layers);
         drawingPanel.setCurrentLayer(initialLayer);
+        document.addLayer(0, initialLayer);
     }
     
     /**
@@ -126,10 +126,8 @@ public class LayerPanel extends JPanel {
     private void addLayer() {
         String name = "Layer " + (layers.size() + 1);
         Layer layer = new Layer(name);
-        layers.add(0, layer); // Add to the top
-        listModel.add(0, layer);
-        layerList.setSelectedValue(layer, true);
         drawingPanel.setCurrentLayer(layer);
+        document.addLayer(0, layer); // Add to the top
     }
     
     /**
@@ -152,17 +150,10 @@ public class LayerPanel extends JPanel {
             );
             
             if (response == JOptionPane.YES_OPTION) {
-                layers.remove(selectedLayer);
-                listModel.removeElement(selectedLayer);
-                
                 // Select the next available layer
-                if (index >= layers.size()) {
-                    index = layers.size() - 1;
-                }
-                Layer newSelectedLayer = layers.get(index);
-                layerList.setSelectedValue(newSelectedLayer, true);
+                Layer newSelectedLayer = layers.get(index + 1 < layers.size() ? index + 1 : index - 1);
                 drawingPanel.setCurrentLayer(newSelectedLayer);
-                drawingPanel.repaint();
+                document.removeLayer(selectedLayer);
             }
         } else if (layers.size() <= 1) {
             JOptionPane.showMessageDialog(
@@ -181,12 +172,7 @@ public class LayerPanel extends JPanel {
     private void moveLayerUp() {
         int selectedIndex = layerList.getSelectedIndex();
         if (selectedIndex > 0) {
-            Layer layer = layers.remove(selectedIndex);
-            layers.add(selectedIndex - 1, layer);
-            listModel.remove(selectedIndex);
-            listModel.add(selectedIndex - 1, layer);
-            layerList.setSelectedIndex(selectedIndex - 1);
-            drawingPanel.repaint();
+            document.moveLayer(selectedIndex, selectedIndex - 1);
         }
     }
     
@@ -196,45 +182,126 @@ public class LayerPanel extends JPanel {
      */
     private void moveLayerDown() {
         int selectedIndex = layerList.getSelectedIndex();
-        if (selectedIndex < layers.size() - 1) {
-            Layer layer = layers.remove(selectedIndex);
-            layers.add(selectedIndex + 1, layer);
-            listModel.remove(selectedIndex);
-            listModel.add(selectedIndex + 1, layer);
-            layerList.setSelectedIndex(selectedIndex + 1);
-            drawingPanel.repaint();
+        if (selectedIndex >= 0 && selectedIndex < layers.size() - 1) {
+            document.moveLayer(selectedIndex, selectedIndex + 1);
         }
     }
     
     /**
      * Gets the list of all layers
      * 
-     * @return ArrayList of all layers
+     * @return List of all layers
      */
-    public ArrayList<Layer> getLayers() {
+    public List<Layer> getLayers() {
         return layers;
     }
     
     /**
-     * Updates the layers list and UI to match the new layers
+     * Updates the list for the changes of an edit
+     * Only rows of layers that were added, removed, moved, renamed or hidden change.
      */
-    public void setLayers(ArrayList<Layer> layers) {
-        this.layers = layers;
-        listModel.clear();
-        for (Layer layer : layers) {
-            listModel.addElement(layer);
+    private void drawingChanged(List<DrawingChange> changes) {
+        boolean structure = false;
+        for (DrawingChange change : changes) {
+            switch (change.getType()) {
+                case LAYER_ADDED:
+                case LAYER_REMOVED:
+                case LAYER_REORDERED:
+                    structure = true;
+                    break;
+                case LAYER_RENAMED:
+                case LAYER_VISIBILITY_CHANGED:
+                    repaintRow(change.getLayer());
+                    break;
+                default:
+                    // Shape changes do not show in the list
+            }
+        }
+        if (!structure) {
+            return;
+        }
+        
+        // Move the rows into the order of the layers; rows that are already in place stay
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (i < listModel.size() && listModel.getElementAt(i) == layer) {
+                continue;
+            }
+            int row = listModel.indexOf(layer);
+            if (row >= 0) {
+                listModel.remove(row);
+            }
+            listModel.add(i, layer);
+        }
+        if (listModel.size() > layers.size()) {
+            listModel.removeRange(layers.size(), listModel.size() - 1);
+        }
+        
+        // Keep the current layer selected if it is still there
+        Layer selected = drawingPanel.getCurrentLayer();
+        if (selected == null || !layers.contains(selected)) {
+            selected = layers.isEmpty() ? null : layers.get(0);
+            drawingPanel.setCurrentLayer(selected);
+        }
+        if (selected != null) {
+            layerList.setSelectedValue(selected, true);
         }
-        // Try to keep the same selected layer if possible
-        if (!layers.isEmpty()) {
-            Layer selected = drawingPanel.getCurrentLayer();
-            if (selected != null && layers.contains(selected)) {
-                layerList.setSelectedValue(selected, true);
-            } else {
-                layerList.setSelectedIndex(0);
-                drawingPanel.setCurrentLayer(layers.get(0));
+    }
+    
+    /**
+     * Repaints the row of a layer
+     */
+    private void repaintRow(Layer layer) {
+        int row = listModel.indexOf(layer);
+        if (row >= 0) {
+            java.awt.Rectangle cell = layerList.getCellBounds(row, row);
+            if (cell != null) {
+                layerList.repaint(cell);
             }
         }
-        repaint();
+        if (layer == layerList.getSelectedValue()) {
+            visibilityCheckBox.setSelected(layer.isVisible());
+        }
+    }
+    
+    /**
+     * Draws the visibility icons if they were not drawn yet
+     * Called by the start-up warm-up, so the first layer list does not have to draw them
+     */
+    static synchronized void prepareIcons() {
+        if (visibleEyeIcon == null) {
+            visibleEyeIcon = createVisibleIcon();
+            hiddenEyeIcon = createHiddenIcon();
+        }
+    }
+    
+    /**
+     * Creates an icon showing an eye for visible layers
+     */
+    private static ImageIcon createVisibleIcon() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = (Graphics2D) image.getGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(Color.BLACK);
+        g2d.fillOval(3, 5, 10, 6);
+        g2d.setColor(Color.WHITE);
+        g2d.fillOval(5, 7, 6, 2);
+        g2d.dispose();
+        return new ImageIcon(image);
+    }
+    
+    /**
+     * Creates an icon showing a crossed-out eye for hidden layers
+     */
+    private static ImageIcon createHiddenIcon() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = (Graphics2D) image.getGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(Color.GRAY);
+        g2d.drawLine(3, 3, 13, 13);
+        g2d.drawOval(3, 5, 10, 6);
+        g2d.dispose();
+        return new ImageIcon(image);
     }
     
     /**
@@ -242,8 +309,17 @@ public class LayerPanel extends JPanel {
      * Shows layer name and visibility icon for each layer
      */
     private class LayerListCellRenderer extends DefaultListCellRenderer {
-        private final ImageIcon visibleIcon = createVisibleIcon();
-        private final ImageIcon hiddenIcon = createHiddenIcon();
+        private final ImageIcon visibleIcon;
+        private final ImageIcon hiddenIcon;
+        
+        /**
+         * Constructor - takes the shared visibility icons, drawing them if needed
+         */
+        LayerListCellRenderer() {
+            prepareIcons();
+            visibleIcon = visibleEyeIcon;
+            hiddenIcon = hiddenEyeIcon;
+        }
         
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, int index,
@@ -269,34 +345,5 @@ public class LayerPanel extends JPanel {
             
             return this;
         }
-        
-        /**
-         * Creates an icon showing an eye for visible layers
-         */
-        private ImageIcon createVisibleIcon() {
-            BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = (Graphics2D) image.getGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.setColor(Color.BLACK);
-            g2d.fillOval(3, 5, 10, 6);
-            g2d.setColor(Color.WHITE);
-            g2d.fillOval(5, 7, 6, 2);
-            g2d.dispose();
-            return new ImageIcon(image);
-        }
-        
-        /**
-         * Creates an icon showing a crossed-out eye for hidden layers
-         */
-        private ImageIcon createHiddenIcon() {
-            BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = (Graphics2D) image.getGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.setColor(Color.GRAY);
-            g2d.drawLine(3, 3, 13, 13);
-            g2d.drawOval(3, 5, 10, 6);
-            g2d.dispose();
-            return new ImageIcon(image);
-        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,124 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * LayerRenderer draws the layers of the drawing from their cached tiles
+ * Only the tiles overlapping the requested area are drawn. Missing tiles are rendered
+ * concurrently on the ForkJoin common pool, one task per layer, and the tiles are then
+ * composited in layer order. Rendering stops at the frame budget and continues in the
+ * next frame; until then a tile of another zoom level stands in for a missing tile.
+ *
+ * If the visible tiles of all layers would not fit into the tile cache budget,
+ * the layers are drawn directly one after another instead.
+ *
+ * In full quality, draft tiles left over from an interaction are rendered again
+ * the same way.
+ */
+public class LayerRenderer {
+
+    private LayerRenderer() {
+        // Only static helpers
+    }
+
+    /**
+     * Draws all visible layers for the given view
+     *
+     * @param g          Graphics of the view, without the zoom and pan transform
+     * @param layers     All layers, bottom layer first
+     * @param live       Selected shapes drawn live on top instead of inside their layer, or null
+     * @param zoomFactor Zoom of the view
+     * @param panX       Horizontal pan offset in screen pixels
+     * @param panY       Vertical pan offset in screen pixels
+     * @param area       Part of the view to draw, in screen coordinates
+     * @param draft      Whether tiles are rendered in draft quality
+     * @param budget     Nanoseconds that may be spent rendering tiles in this frame
+     * @return True if all tiles of the area are rendered in the requested quality
+     */
+    public static boolean drawLayers(Graphics2D g, List<Layer> layers, SelectionOverlay live,
+                                     double zoomFactor, int panX, int panY, java.awt.Rectangle area,
+                                     boolean draft, long budget) {
+        // Tiles are rendered in device pixels so HiDPI screens stay sharp
+        AffineTransform transform = g.getTransform();
+        double deviceScale = Math.abs(transform.getScaleX());
+        int level = (int) Math.round(zoomFactor * deviceScale * 1000);
+
+        // Find the range of tiles covering the area
+        double offsetX = panX * deviceScale;
+        double offsetY = panY * deviceScale;
+        int tx0 = Math.floorDiv((int) Math.floor(area.x * deviceScale - offsetX), TileCache.TILE_SIZE);
+        int ty0 = Math.floorDiv((int) Math.floor(area.y * deviceScale - offsetY), TileCache.TILE_SIZE);
+        int tx1 = Math.floorDiv((int) Math.ceil((area.x + area.width) * deviceScale - offsetX) - 1, TileCache.TILE_SIZE);
+        int ty1 = Math.floorDiv((int) Math.ceil((area.y + area.height) * deviceScale - offsetY) - 1, TileCache.TILE_SIZE);
+        long visibleTiles = (long) (tx1 - tx0 + 1) * (ty1 - ty0 + 1);
+
+        // Find out which layers need tiles and whether they fit into the budget
+        List<Layer> cached = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible() && !layer.getShapes().isEmpty()) {
+                cached.add(layer);
+            }
+        }
+        if (cached.size() * visibleTiles * TileCache.TILE_BYTES > TileCache.shared().getBudget()) {
+            drawDirectly(g, layers, live, zoomFactor, panX, panY, draft);
+            return true;
+        }
+
+        // Collect the tiles each layer still has to render: missing tiles, and in full quality also draft tiles
+        long deadline = System.nanoTime() + budget;
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (Layer layer : cached) {
+            LayerCache cache = layer.getCache();
+            if (live != null && layer == live.getLayer()) {
+                cache.setExcluded(live.getRows(), live.getBounds());
+            } else {
+                cache.setExcluded(null, null);
+            }
+            List<TileCache.Key> todo = cache.missingTiles(level, tx0, ty0, tx1, ty1);
+            if (!draft) {
+                todo.addAll(cache.draftTiles(level, tx0, ty0, tx1, ty1));
+            }
+            if (!todo.isEmpty()) {
+                tasks.add(ForkJoinTask.adapt(() -> cache.renderTiles(todo, draft, deadline)));
+            }
+        }
+
+        // One layer with work is rendered right here, several are rendered in parallel;
+        // each stops at the deadline and continues in the next frame
+        if (tasks.size() == 1) {
+            tasks.get(0).invoke();
+        } else if (tasks.size() > 1) {
+            ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+        boolean complete = true;
+        for (ForkJoinTask<Boolean> task : tasks) {
+            complete &= task.join();
+        }
+
+        // Composite the layers bottom to top, drawing tiles 1:1 in device pixels
+        g.setTransform(new AffineTransform(1, 0, 0, 1, transform.getTranslateX(), transform.getTranslateY()));
+        for (Layer layer : cached) {
+            layer.getCache().drawTiles(g, level, tx0, ty0, tx1, ty1, offsetX, offsetY);
+        }
+        g.setTransform(transform);
+        return complete;
+    }
+
+    /**
+     * Draws the layers one after another without caching
+     */
+    private static void drawDirectly(Graphics2D g, List<Layer> layers, SelectionOverlay live,
+                                     double zoomFactor, int panX, int panY, boolean draft) {
+        AffineTransform originalTransform = g.getTransform();
+        RenderQuality.applyHints(g, draft);
+        g.translate(panX, panY);
+        g.scale(zoomFactor, zoomFactor);
+        for (Layer layer : layers) {
+            layer.draw(g, live != null && layer == live.getLayer() ? live.getRows() : null);
+        }
+        g.setTransform(originalTransform);
+    }
+}
@@ -32,7 +32,5 @@ public class Line extends Shape {
         g2d.setStroke(new BasicStroke(strokeWidth));
         // Draw the line from start point to end point
         g2d.drawLine(x1, y1, x2, y2);
-        // Draw selection handles if this line is selected
-        drawSelectionHandles(g);
     }
 } 
\ No newline at end of file
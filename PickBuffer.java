@@ -0,0 +1,213 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * PickBuffer is an off-screen ID raster of the visible shapes for fast hit-testing
+ * Every pixel of the view stores the number of the topmost shape whose pick mask covers
+ * it. Masks are slightly larger than the clickable area of a shape, so a pixel without
+ * an ID is guaranteed to be empty space, and a pixel with an ID only needs one exact
+ * geometry test instead of testing every shape.
+ *
+ * The buffer is built on a worker thread when the drawing or the view has changed and the
+ * view is idle. Until it matches the current view, lookups report NOT_READY and the caller
+ * falls back to testing the shapes directly.
+ *
+ * It can be turned off with the drawingtool.pickBuffer system property.
+ */
+public class PickBuffer {
+    public static final int NONE = -1;       // No shape at the position
+    public static final int NOT_READY = -2;  // The buffer does not match the current view
+
+    private static final double TOLERANCE = 2;   // Extra screen pixels around every mask
+    private static final int SHAPES_PER_CHECK = 256; // Shapes drawn between two cancellation checks
+
+    private volatile Built built;            // Last completed buffer, read on the EDT
+    private Built lookedUp;                  // Buffer of the last lookup, so numbers stay valid (EDT only)
+    private volatile List<Object> pendingKey; // Key of the build in progress
+    private volatile int generation;         // Increased for every new build to cancel older ones
+
+    /**
+     * A completed ID raster together with the layers its numbers refer to
+     * The shapes are numbered in z-order; the shapes of layers[i] start at firstNumbers[i].
+     */
+    private static final class Built {
+        final List<Object> key;
+        final int[] ids;         // One entry per pixel: shape number + 1, or 0 for none
+        final int width, height;
+        final Layer[] layers;    // Visible layers, bottom layer first
+        final int[] firstNumbers; // Number of the first shape of each layer
+
+        Built(List<Object> key, int[] ids, int width, int height, Layer[] layers, int[] firstNumbers) {
+            this.key = key;
+            this.ids = ids;
+            this.width = width;
+            this.height = height;
+            this.layers = layers;
+            this.firstNumbers = firstNumbers;
+        }
+
+        /**
+         * Gets the index in layers of the layer that holds a shape number
+         */
+        int layerOf(int number) {
+            int i = layers.length - 1;
+            while (firstNumbers[i] > number) {
+                i--;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Checks if the pick buffer is enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("drawingtool.pickBuffer", "true"));
+    }
+
+    /**
+     * Starts building the buffer for the given drawing and view, unless it is already
+     * built or being built. Must be called on the Event Dispatch Thread.
+     */
+    public void prepare(List<Layer> layers, double zoomFactor, int panX, int panY, int width, int height) {
+        List<Object> key = key(layers, zoomFactor, panX, panY, width, height);
+        Built current = built;
+        if ((current != null && current.key.equals(key)) || key.equals(pendingKey)) {
+            return;
+        }
+        pendingKey = key;
+        int buildGeneration = ++generation;
+        built = null;
+
+        // Frozen columns, so later edits do not affect the build
+        List<Layer> visibleLayers = new ArrayList<>();
+        List<ShapeColumns> columns = new ArrayList<>();
+        long count = 0;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                visibleLayers.add(layer);
+                columns.add(layer.freezeColumns());
+                count += layer.getColumns().size();
+            }
+        }
+        if (count >= 0xffffff) {
+            // More shapes than 24-bit IDs can number - keep testing the shapes directly
+            return;
+        }
+        Layer[] layerArray = visibleLayers.toArray(new Layer[0]);
+        ShapeColumns[] columnArray = columns.toArray(new ShapeColumns[0]);
+        ForkJoinPool.commonPool().execute(() ->
+            build(key, buildGeneration, layerArray, columnArray, zoomFactor, panX, panY, width, height));
+    }
+
+    /**
+     * Looks up the topmost shape candidate at a view position
+     * The candidate still has to be confirmed with Shape.containsPoint
+     *
+     * @return The shape number, NONE if no shape is there, or NOT_READY
+     */
+    public int candidateAt(List<Layer> layers, double zoomFactor, int panX, int panY,
+                           int width, int height, int x, int y) {
+        Built current = built;
+        if (current == null || !current.key.equals(key(layers, zoomFactor, panX, panY, width, height))) {
+            return NOT_READY;
+        }
+        lookedUp = current;
+        if (x < 0 || y < 0 || x >= current.width || y >= current.height) {
+            return NOT_READY;
+        }
+        return current.ids[y * current.width + x] - 1;
+    }
+
+    /**
+     * Gets the shape with the given number from the last lookup
+     * The layers have not changed since the buffer was built, or the lookup would have
+     * reported NOT_READY, so the number still finds the same row.
+     */
+    public Shape getShape(int number) {
+        int layer = lookedUp.layerOf(number);
+        return lookedUp.layers[layer].getShapes().get(number - lookedUp.firstNumbers[layer]);
+    }
+
+    /**
+     * Gets the layer of the shape with the given number from the last lookup
+     */
+    public Layer getLayer(int number) {
+        return lookedUp.layers[lookedUp.layerOf(number)];
+    }
+
+    /**
+     * Draws the pick masks of all shapes and publishes the result
+     * Runs on a worker thread; gives up as soon as a newer build was started
+     */
+    private void build(List<Object> key, int buildGeneration, Layer[] layers, ShapeColumns[] columns,
+                       double zoomFactor, int panX, int panY, int width, int height) {
+        BufferedImage image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        int[] firstNumbers = new int[columns.length];
+        try {
+            // IDs must be stored exactly, so no antialiasing or dithering
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            g2d.translate(panX, panY);
+            g2d.scale(zoomFactor, zoomFactor);
+
+            // The visible canvas area, for skipping shapes outside the view
+            double dilation = TOLERANCE / zoomFactor + 1;
+            java.awt.Rectangle view = new java.awt.Rectangle(
+                (int) Math.floor(-panX / zoomFactor) - 1, (int) Math.floor(-panY / zoomFactor) - 1,
+                (int) Math.ceil(width / zoomFactor) + 2, (int) Math.ceil(height / zoomFactor) + 2);
+            view.grow((int) Math.ceil(dilation) + 5, (int) Math.ceil(dilation) + 5);
+            int viewRight = view.x + view.width;
+            int viewBottom = view.y + view.height;
+
+            int number = 0;
+            for (int layer = 0; layer < columns.length; layer++) {
+                ShapeColumns rows = columns[layer];
+                firstNumbers[layer] = number;
+                for (int i = 0; i < rows.size(); i++, number++) {
+                    if (number % SHAPES_PER_CHECK == 0 && buildGeneration != generation) {
+                        return;
+                    }
+                    if (rows.getRight(i) > view.x && rows.getLeft(i) < viewRight
+                            && rows.getBottom(i) > view.y && rows.getTop(i) < viewBottom) {
+                        g2d.setColor(new Color(number + 1));
+                        rows.drawPickMask(i, g2d, dilation);
+                    }
+                }
+            }
+        } finally {
+            g2d.dispose();
+        }
+
+        int[] ids = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] &= 0xffffff;
+        }
+        if (buildGeneration == generation) {
+            built = new Built(key, ids, image.getWidth(), image.getHeight(), layers, firstNumbers);
+        }
+    }
+
+    /**
+     * Creates the key describing the drawing content and view a buffer was built for
+     */
+    private static List<Object> key(List<Layer> layers, double zoomFactor, int panX, int panY, int width, int height) {
+        List<Object> key = new ArrayList<>();
+        for (Layer layer : layers) {
+            key.add(layer);
+            key.add(layer.getRevision());
+            key.add(layer.isVisible());
+        }
+        key.add(zoomFactor);
+        key.add(panX);
+        key.add(panY);
+        key.add(width);
+        key.add(height);
+        return key;
+    }
+}
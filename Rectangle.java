@@ -43,8 +43,5 @@ public class Rectangle extends Shape{
             g2d.drawRect(x, y, width, height);
             g2d.setStroke(originalStroke);
         }
-        
-        // Draw selection handles if this shape is selected
-        drawSelectionHandles(g);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,220 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * RenderBenchmark compares drawing a layer shape by shape with drawing it through a
+ * RenderPlanner, and with combining runs of the same style into one Path2D
+ * Run it with: java RenderBenchmark [shapes]
+ *
+ * The shapes cover a 2000x2000 canvas. The mixed layer has runs of RUN_LENGTH shapes
+ * with the same color and stroke, like shapes drawn one after another with the same
+ * settings. The homogeneous layer has HOMOGENEOUS_COUNT outlines in one color and width,
+ * the case where the planner skips the most state changes.
+ * For both layers, in full and draft quality, it prints the average time of a full render after a
+ * warm-up. The planner must draw exactly the same pixels as drawing shape by shape,
+ * otherwise the benchmark stops with an error; for the combined paths it prints how
+ * many pixels differ.
+ */
+public class RenderBenchmark {
+    private static final int SIZE = 2000;       // Width and height of the canvas
+    private static final int RUN_LENGTH = 32;   // Shapes in a row with the same style
+    private static final int HOMOGENEOUS_COUNT = 50_000; // Outlines in the homogeneous layer
+    private static final int ROUNDS = 3;        // Measured rounds, after as many warm-up rounds
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        measure("mixed", mixedShapes(count));
+        measure("homogeneous", homogeneousShapes(HOMOGENEOUS_COUNT));
+    }
+
+    /**
+     * Makes lines, rectangles and circles in runs of RUN_LENGTH with the same style
+     */
+    private static List<Shape> mixedShapes(int count) {
+        Random random = new Random(42);
+        Color[] palette = {Color.BLACK, Color.RED, Color.BLUE, new Color(0, 128, 0), Color.ORANGE};
+        float[] widths = {1, 2, 4};
+        List<Shape> shapes = new ArrayList<>(count);
+        Color color = palette[0];
+        float width = widths[0];
+        for (int i = 0; i < count; i++) {
+            if (i % RUN_LENGTH == 0) {
+                color = palette[random.nextInt(palette.length)];
+                width = widths[random.nextInt(widths.length)];
+            }
+            int x = random.nextInt(SIZE);
+            int y = random.nextInt(SIZE);
+            int w = 5 + random.nextInt(60);
+            int h = 5 + random.nextInt(60);
+            Shape shape;
+            switch (i % 3) {
+                case 0:
+                    shape = new Rectangle(color, x, y, x + w, y + h, random.nextInt(4) == 0);
+                    break;
+                case 1:
+                    shape = new Circle(color, x, y, x + w, y + h, random.nextInt(4) == 0);
+                    break;
+                default:
+                    shape = new Line(color, x, y, x + w, y + h, false);
+                    break;
+            }
+            shape.setStrokeWidth(width);
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    /**
+     * Makes rectangle and circle outlines that all have the same color and stroke width
+     */
+    private static List<Shape> homogeneousShapes(int count) {
+        Random random = new Random(42);
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(SIZE);
+            int y = random.nextInt(SIZE);
+            int w = 5 + random.nextInt(60);
+            int h = 5 + random.nextInt(60);
+            if (i % 2 == 0) {
+                shapes.add(new Rectangle(Color.BLUE, x, y, x + w, y + h, false));
+            } else {
+                shapes.add(new Circle(Color.BLUE, x, y, x + w, y + h, false));
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Renders a layer each way in full and draft quality and prints the times
+     */
+    private static void measure(String name, List<Shape> shapes) {
+        ShapeColumns columns = ShapeColumns.of(shapes);
+        System.out.println(name + " layer, " + shapes.size() + " shapes");
+
+        for (boolean draft : new boolean[] {false, true}) {
+            BufferedImage byShape = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+            BufferedImage planned = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+            BufferedImage combined = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+            for (int round = 0; round < ROUNDS * 2; round++) {
+                long start = System.nanoTime();
+                drawByShape(shapes, byShape, draft);
+                long shapeTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                drawPlanned(columns, planned, draft);
+                long plannedTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                drawCombined(shapes, combined, draft);
+                long combinedTime = System.nanoTime() - start;
+
+                if (round == 0) {
+                    int plannedDiff = differentPixels(byShape, planned);
+                    if (plannedDiff != 0) {
+                        throw new IllegalStateException("The planner changed " + plannedDiff + " pixels");
+                    }
+                    System.out.println((draft ? "draft" : "full") + " quality: combined paths change "
+                        + differentPixels(byShape, combined) + " pixels");
+                }
+                if (round >= ROUNDS) {
+                    System.out.printf("%s: shape by shape %.1f ms, planner %.1f ms, combined paths %.1f ms%n",
+                        draft ? "draft" : "full", shapeTime / 1e6, plannedTime / 1e6, combinedTime / 1e6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws every shape with its own draw method, like Layer.draw did before the planner
+     */
+    private static void drawByShape(List<Shape> shapes, BufferedImage image, boolean draft) {
+        Graphics2D g2d = begin(image, draft);
+        for (Shape shape : shapes) {
+            shape.draw(g2d);
+        }
+        g2d.dispose();
+    }
+
+    private static void drawPlanned(ShapeColumns columns, BufferedImage image, boolean draft) {
+        Graphics2D g2d = begin(image, draft);
+        RenderPlanner planner = new RenderPlanner(g2d);
+        for (int row = 0; row < columns.size(); row++) {
+            columns.draw(row, planner);
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * Draws each run of shapes with the same color, stroke and fill as one Path2D
+     */
+    private static void drawCombined(List<Shape> shapes, BufferedImage image, boolean draft) {
+        Graphics2D g2d = begin(image, draft);
+        Path2D.Float path = new Path2D.Float();
+        Color color = null;
+        float width = 0;
+        boolean filled = false;
+        for (Shape shape : shapes) {
+            boolean fill = shape.isFilled() && !(shape instanceof Line);
+            if (!shape.color.equals(color) || shape.getStrokeWidth() != width || fill != filled) {
+                flush(g2d, path, color, width, filled);
+                color = shape.color;
+                width = shape.getStrokeWidth();
+                filled = fill;
+            }
+            java.awt.Rectangle hit = shape.getHitBounds();
+            if (shape instanceof Line) {
+                path.append(new Line2D.Float(shape.x1, shape.y1, shape.x2, shape.y2), false);
+            } else if (shape instanceof Circle) {
+                path.append(new Ellipse2D.Float(hit.x, hit.y, hit.width, hit.height), false);
+            } else {
+                path.append(new Rectangle2D.Float(hit.x, hit.y, hit.width, hit.height), false);
+            }
+        }
+        flush(g2d, path, color, width, filled);
+        g2d.dispose();
+    }
+
+    private static void flush(Graphics2D g2d, Path2D.Float path, Color color, float width, boolean filled) {
+        if (color == null) {
+            return;
+        }
+        g2d.setColor(color);
+        if (filled) {
+            g2d.fill(path);
+        } else {
+            g2d.setStroke(new BasicStroke(width));
+            g2d.draw(path);
+        }
+        path.reset();
+    }
+
+    /**
+     * Clears an image and gets its graphics with the hints of a quality mode
+     */
+    private static Graphics2D begin(BufferedImage image, boolean draft) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setBackground(new Color(0, 0, 0, 0));
+        g2d.clearRect(0, 0, image.getWidth(), image.getHeight());
+        RenderQuality.applyHints(g2d, draft);
+        return g2d;
+    }
+
+    private static int differentPixels(BufferedImage a, BufferedImage b) {
+        int count = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,111 @@
+import java.awt.*;
+
+/**
+ * RenderPlanner draws a sequence of shapes onto one graphics context with as few
+ * state changes as possible
+ * Lines, rectangles and ovals are drawn from their plain values: the color and stroke
+ * are only set when they differ from the previous shape. Other shapes set their own
+ * state and are drawn by themselves.
+ *
+ * Without antialiasing, Java2D picks how fills and text are rasterized by the current
+ * stroke. Shape.draw of a rectangle or circle restores the stroke after an outline, so
+ * fills and other shapes are drawn with the stroke that drawing shape by shape would
+ * have left, and the output stays identical.
+ *
+ * Shapes are still drawn one call each. Combining a run into one Path2D was tried: the
+ * stroked outlines of overlapping shapes can cancel each other out, and antialiased
+ * rectangles and lines use other pipelines than paths, so the output changed, and
+ * large combined paths were slower to rasterize than the separate calls.
+ *
+ * RenderBenchmark measures all three. Rasterizing takes most of the time, so even for
+ * 50,000 outlines in one color the planner is no faster than drawing shape by shape
+ * within the noise. That is why it only skips the state changes and does nothing more.
+ */
+public class RenderPlanner {
+    private final Graphics2D g2d;
+    private Color color;                       // Color set on g2d, or null if unknown
+    private java.awt.Stroke stroke;            // Stroke set on g2d
+    private java.awt.Stroke restingStroke;     // Stroke drawing shape by shape would have left on g2d
+
+    /**
+     * Constructor - creates a planner for one graphics context
+     *
+     * @param g2d Graphics to draw on
+     */
+    public RenderPlanner(Graphics2D g2d) {
+        this.g2d = g2d;
+        this.stroke = g2d.getStroke();
+        this.restingStroke = stroke;
+    }
+
+    /**
+     * Draws a line with the given color and stroke width
+     */
+    public void line(int argb, float width, int x1, int y1, int x2, int y2) {
+        useColor(argb);
+        useStroke(width);
+        restingStroke = stroke;
+        g2d.drawLine(x1, y1, x2, y2);
+    }
+
+    /**
+     * Draws a filled or outlined rectangle
+     */
+    public void rectangle(int argb, float width, boolean filled, int x, int y, int w, int h) {
+        useColor(argb);
+        if (filled) {
+            useRestingStroke();
+            g2d.fillRect(x, y, w, h);
+        } else {
+            useStroke(width);
+            g2d.drawRect(x, y, w, h);
+        }
+    }
+
+    /**
+     * Draws a filled or outlined oval
+     */
+    public void oval(int argb, float width, boolean filled, int x, int y, int w, int h) {
+        useColor(argb);
+        if (filled) {
+            useRestingStroke();
+            g2d.fillOval(x, y, w, h);
+        } else {
+            useStroke(width);
+            g2d.drawOval(x, y, w, h);
+        }
+    }
+
+    /**
+     * Draws a shape that sets its own color, and its own stroke where it needs one
+     */
+    public void shape(Shape shape) {
+        useRestingStroke();
+        shape.draw(g2d);
+        color = null;
+        stroke = g2d.getStroke();
+        restingStroke = stroke;
+    }
+
+    private void useColor(int argb) {
+        if (color == null || color.getRGB() != argb) {
+            color = new Color(argb, true);
+            g2d.setColor(color);
+        }
+    }
+
+    private void useStroke(float width) {
+        BasicStroke outline = new BasicStroke(width);
+        if (!outline.equals(stroke)) {
+            stroke = outline;
+            g2d.setStroke(stroke);
+        }
+    }
+
+    private void useRestingStroke() {
+        if (stroke != restingStroke) {
+            stroke = restingStroke;
+            g2d.setStroke(stroke);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * RenderQuality switches the drawing between draft and full quality
+ * While the user drags, pans or zooms with the wheel, frames are rendered in draft mode:
+ * no antialiasing, nearest-neighbour image scaling and simplified strokes. After a short
+ * idle period the view is refined to full quality a slice at a time, so the first refined
+ * frame never takes longer than the frame budget.
+ *
+ * The idle delay and the slice budget are tuned from the measured frame times.
+ */
+public class RenderQuality {
+    private static final int MIN_IDLE_MILLIS = 120;    // Shortest wait before refining
+    private static final int MAX_IDLE_MILLIS = 500;    // Longest wait before refining
+    private static final long MIN_SLICE_NANOS = 2_000_000L; // Smallest refine budget per frame
+    // Rendering budget of a draft frame, set with the drawingtool.renderSliceMs system property (default 8)
+    private static final long DRAFT_SLICE_NANOS = Long.getLong("drawingtool.renderSliceMs", 8) * 1_000_000L;
+
+    private final Runnable refineAction;  // Called on the EDT when the next refine frame is due
+    private final long frameNanos;        // Length of one display frame in nanoseconds
+    private final Timer idleTimer;        // One-shot timer that starts refining
+    private boolean draft;                // Whether frames are currently rendered in draft mode
+    private int generation;               // Counts refine slices, so cached frames are redrawn
+    private double draftFrameNanos;       // Moving average of draft frame times
+
+    /**
+     * Constructor - creates a controller that starts in full quality
+     *
+     * @param frameNanos   Length of one display frame in nanoseconds
+     * @param refineAction Action that repaints the view, run when a refine frame is due
+     */
+    public RenderQuality(long frameNanos, Runnable refineAction) {
+        this.frameNanos = frameNanos;
+        this.refineAction = refineAction;
+        this.idleTimer = new Timer(MIN_IDLE_MILLIS, e -> refine());
+        this.idleTimer.setRepeats(false);
+    }
+
+    /**
+     * Called for every frame of an interaction (drag, pan, wheel zoom)
+     * Switches to draft mode and restarts the idle period
+     */
+    public void interacting() {
+        draft = true;
+        idleTimer.setInitialDelay(idleDelayMillis());
+        idleTimer.restart();
+    }
+
+    /**
+     * Checks if frames are currently rendered in draft mode
+     */
+    public boolean isDraft() {
+        return draft;
+    }
+
+    /**
+     * Gets a number that changes every time the view is refined further
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets how long the current frame may spend rendering tiles
+     * Draft frames get a fixed slice. Refine frames get the frame time left after
+     * compositing, which is about as long as a draft frame.
+     */
+    public long getRenderBudgetNanos() {
+        if (draft) {
+            return DRAFT_SLICE_NANOS;
+        }
+        return Math.max(MIN_SLICE_NANOS, frameNanos - (long) draftFrameNanos);
+    }
+
+    /**
+     * Records how long a frame took to paint
+     * Only draft frames are measured, since full quality frames include the refine work
+     *
+     * @param nanos Paint time in nanoseconds
+     */
+    public void frameRendered(long nanos) {
+        if (draft) {
+            draftFrameNanos = average(draftFrameNanos, nanos);
+        }
+    }
+
+    /**
+     * Called after a full quality frame that still showed draft content
+     * Asks for another refine frame right after the pending events
+     */
+    public void refineIncomplete() {
+        if (!draft && !idleTimer.isRunning()) {
+            idleTimer.setInitialDelay(0);
+            idleTimer.restart();
+        }
+    }
+
+    /**
+     * Applies the rendering hints of a quality mode to a graphics context
+     *
+     * @param g2d   Graphics to configure
+     * @param draft True for draft quality, false for full quality
+     */
+    public static void applyHints(Graphics2D g2d, boolean draft) {
+        if (draft) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        } else {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_DEFAULT);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+    }
+
+    /**
+     * Checks if a graphics context was configured for draft quality
+     * Shapes use this to draw simplified strokes
+     */
+    public static boolean isDraft(Graphics2D g2d) {
+        return g2d.getRenderingHint(RenderingHints.KEY_RENDERING) == RenderingHints.VALUE_RENDER_SPEED;
+    }
+
+    /**
+     * Starts or continues refining after the idle period
+     */
+    private void refine() {
+        draft = false;
+        generation++;
+        refineAction.run();
+    }
+
+    /**
+     * Gets the idle period: a few draft frames long, so slow machines wait a little longer
+     */
+    private int idleDelayMillis() {
+        long millis = (long) (draftFrameNanos * 4 / 1_000_000L);
+        return (int) Math.max(MIN_IDLE_MILLIS, Math.min(MAX_IDLE_MILLIS, millis));
+    }
+
+    /**
+     * Updates an exponential moving average
+     */
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average * 0.8 + sample * 0.2;
+    }
+}
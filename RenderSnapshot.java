@@ -0,0 +1,172 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * RenderSnapshot is an immutable copy of everything needed to draw one frame
+ * It is created on the Event Dispatch Thread and rendered by the RenderThread.
+ * The shapes are frozen columns of the layers; edits made meanwhile copy the chunks
+ * they change, so they never reach a frame that is being rendered.
+ */
+public class RenderSnapshot {
+    private final ShapeColumns[] layers; // Frozen shapes of each visible layer, bottom layer first
+    private final int excludedLayer;   // Index of the layer with shapes drawn live, or -1
+    private final BitSet excluded;     // Rows of that layer left out because they are drawn live, or null
+    private final double zoomFactor;   // Zoom of the view
+    private final int panX, panY;      // Pan offset of the view in screen pixels
+    private final int width, height;   // Size of the frame in screen pixels
+    private final double deviceScale;  // Device pixels per screen pixel, e.g. 2 on a HiDPI screen
+    private final Color background;    // Background color behind the canvas
+    private final TiledImageSource backgroundImage; // Huge image under the layers, or null
+    private final int sequence;        // Position of this snapshot in submission order
+
+    /**
+     * Constructor - copies the visible layers and the view settings
+     *
+     * @param layers     All layers of the drawing, bottom layer first
+     * @param live       Selection left out of the snapshot because it is drawn live, or null
+     * @param zoomFactor Zoom of the view
+     * @param panX       Horizontal pan offset
+     * @param panY       Vertical pan offset
+     * @param width      Width of the frame
+     * @param height     Height of the frame
+     * @param deviceScale Device pixels per screen pixel
+     * @param background Background color behind the canvas
+     * @param backgroundImage Huge image under the layers, or null
+     * @param sequence   Position of this snapshot in submission order
+     */
+    public RenderSnapshot(List<Layer> layers, SelectionOverlay live, double zoomFactor,
+                          int panX, int panY, int width, int height, double deviceScale, Color background,
+                          TiledImageSource backgroundImage, int sequence) {
+        Layer liveLayer = live == null ? null : live.getLayer();
+        List<ShapeColumns> visibleLayers = new ArrayList<>();
+        int excludedIndex = -1;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                if (layer == liveLayer) {
+                    excludedIndex = visibleLayers.size();
+                }
+                visibleLayers.add(layer.freezeColumns());
+            }
+        }
+        this.layers = visibleLayers.toArray(new ShapeColumns[0]);
+        this.excludedLayer = excludedIndex;
+        this.excluded = excludedIndex >= 0 ? (BitSet) live.getRows().clone() : null;
+        this.zoomFactor = zoomFactor;
+        this.panX = panX;
+        this.panY = panY;
+        this.width = width;
+        this.height = height;
+        this.deviceScale = deviceScale;
+        this.background = background;
+        this.backgroundImage = backgroundImage;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Draws the whole frame: background, checkerboard, background image and all shapes
+     *
+     * @param g2d Graphics of an image with the device size of this snapshot
+     */
+    public void render(Graphics2D g2d) {
+        g2d.setColor(background);
+        g2d.fillRect(0, 0, getDeviceWidth(), getDeviceHeight());
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // Apply the device scale, then zoom and pan transformations
+        g2d.scale(deviceScale, deviceScale);
+        g2d.translate(panX, panY);
+        g2d.scale(zoomFactor, zoomFactor);
+
+        DrawingPanel.drawCheckerboard(g2d, width, height, zoomFactor, panX, panY);
+        if (backgroundImage != null) {
+            // The tiles loaded by now; tiles that arrive later make the panel submit a new snapshot
+            int left = (int) Math.floor(-panX / zoomFactor);
+            int top = (int) Math.floor(-panY / zoomFactor);
+            java.awt.Rectangle area = new java.awt.Rectangle(left, top,
+                (int) Math.ceil(width / zoomFactor) + 1, (int) Math.ceil(height / zoomFactor) + 1);
+            backgroundImage.draw(g2d, area, zoomFactor * deviceScale);
+        }
+        RenderPlanner planner = new RenderPlanner(g2d);
+        for (int layer = 0; layer < layers.length; layer++) {
+            BitSet skipped = layer == excludedLayer ? excluded : null;
+            for (int row = 0; row < layers[layer].size(); row++) {
+                if (skipped == null || !skipped.get(row)) {
+                    layers[layer].draw(row, planner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if this snapshot was taken with the given view settings
+     */
+    public boolean hasView(double zoomFactor, int panX, int panY, int width, int height, double deviceScale) {
+        return this.zoomFactor == zoomFactor && this.panX == panX && this.panY == panY
+            && this.width == width && this.height == height && this.deviceScale == deviceScale;
+    }
+
+    /**
+     * Gets the zoom factor of the view
+     */
+    public double getZoomFactor() {
+        return zoomFactor;
+    }
+
+    /**
+     * Gets the horizontal pan offset of the view
+     */
+    public int getPanX() {
+        return panX;
+    }
+
+    /**
+     * Gets the vertical pan offset of the view
+     */
+    public int getPanY() {
+        return panY;
+    }
+
+    /**
+     * Gets the width of the frame
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the frame
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of device pixels per screen pixel
+     */
+    public double getDeviceScale() {
+        return deviceScale;
+    }
+
+    /**
+     * Gets the width of the frame in device pixels
+     */
+    public int getDeviceWidth() {
+        return Math.max(1, (int) Math.ceil(width * deviceScale));
+    }
+
+    /**
+     * Gets the height of the frame in device pixels
+     */
+    public int getDeviceHeight() {
+        return Math.max(1, (int) Math.ceil(height * deviceScale));
+    }
+
+    /**
+     * Gets the position of this snapshot in submission order
+     */
+    public int getSequence() {
+        return sequence;
+    }
+}
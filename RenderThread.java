@@ -0,0 +1,149 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * RenderThread rasterizes frames of the drawing on a background thread
+ * The Event Dispatch Thread submits RenderSnapshots and only blits the latest finished
+ * frame, so a slow frame never blocks input handling, menus or the layer panel
+ *
+ * Frames are double buffered: the thread draws into the back buffer and swaps it with
+ * the front buffer when it is complete. Only the newest submitted snapshot is rendered;
+ * snapshots replaced before the thread picks them up are skipped. Frames are rendered
+ * in device pixels, so they are blitted 1:1 on HiDPI screens too.
+ */
+public class RenderThread {
+    private final Object lock = new Object();
+    private final Runnable frameReady;   // Called (on the render thread) when a new frame is shown
+    private final Thread thread;
+
+    // Guarded by lock
+    private RenderSnapshot pending;      // Newest snapshot waiting to be rendered
+    private BufferedImage frontBuffer;   // Last completed frame, blitted by the EDT
+    private RenderSnapshot frontSnapshot; // Snapshot the front buffer was rendered from
+    private BufferedImage backBuffer;    // Buffer the next frame is rendered into
+    private boolean stopped;             // Set by stop(); the thread ends and keeps no buffers
+
+    /**
+     * Constructor - creates and starts the render thread
+     *
+     * @param frameReady Action run after each completed frame, typically a repaint request
+     */
+    public RenderThread(Runnable frameReady) {
+        this.frameReady = frameReady;
+        this.thread = new Thread(this::renderLoop, "Drawing Render Thread");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Asks for a new frame to be rendered from the given snapshot
+     * Replaces any snapshot that has not been started yet
+     */
+    public void submit(RenderSnapshot snapshot) {
+        synchronized (lock) {
+            pending = snapshot;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the thread and lets go of its buffers
+     * A frame being rendered is finished but never shown. The object cannot be used again.
+     */
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            pending = null;
+            frontBuffer = null;
+            frontSnapshot = null;
+            backBuffer = null;
+        }
+        thread.interrupt();
+    }
+
+    /**
+     * Draws the latest completed frame
+     * The frame is shifted by the pan distance the view moved since it was rendered,
+     * and scaled if the zoom changed, so panning and zooming show immediate feedback
+     * while the next frame is being rendered
+     *
+     * @param g2d         Graphics of the panel, with the device scale as its only scaling
+     * @param deviceScale Device pixels per screen pixel of g2d
+     * @return The snapshot of the drawn frame, or null if no frame is ready yet
+     */
+    public RenderSnapshot drawLatestFrame(Graphics2D g2d, double zoomFactor, int panX, int panY, double deviceScale) {
+        synchronized (lock) {
+            if (frontBuffer == null) {
+                return null;
+            }
+            // Blit in device pixels, like the view buffer of the panel
+            AffineTransform originalTransform = g2d.getTransform();
+            g2d.setTransform(new AffineTransform(1, 0, 0, 1,
+                originalTransform.getTranslateX(), originalTransform.getTranslateY()));
+            double frameScale = frontSnapshot.getZoomFactor() * frontSnapshot.getDeviceScale();
+            if (frameScale == zoomFactor * deviceScale) {
+                int dx = (int) Math.round(panX * deviceScale - frontSnapshot.getPanX() * frontSnapshot.getDeviceScale());
+                int dy = (int) Math.round(panY * deviceScale - frontSnapshot.getPanY() * frontSnapshot.getDeviceScale());
+                g2d.drawImage(frontBuffer, dx, dy, null);
+            } else {
+                // The zoom changed: scale the frame so the canvas stays where the new zoom puts it
+                g2d.translate(panX * deviceScale, panY * deviceScale);
+                g2d.scale(zoomFactor * deviceScale / frameScale, zoomFactor * deviceScale / frameScale);
+                g2d.translate(-frontSnapshot.getPanX() * frontSnapshot.getDeviceScale(),
+                    -frontSnapshot.getPanY() * frontSnapshot.getDeviceScale());
+                g2d.drawImage(frontBuffer, 0, 0, null);
+            }
+            g2d.setTransform(originalTransform);
+            return frontSnapshot;
+        }
+    }
+
+    /**
+     * Main loop: waits for a snapshot, renders it into the back buffer and swaps buffers
+     */
+    private void renderLoop() {
+        while (true) {
+            RenderSnapshot snapshot;
+            BufferedImage target;
+            synchronized (lock) {
+                while (pending == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                snapshot = pending;
+                pending = null;
+                target = backBuffer;
+            }
+
+            if (target == null || target.getWidth() != snapshot.getDeviceWidth()
+                    || target.getHeight() != snapshot.getDeviceHeight()) {
+                target = new BufferedImage(snapshot.getDeviceWidth(), snapshot.getDeviceHeight(),
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            }
+
+            Graphics2D g2d = target.createGraphics();
+            try {
+                snapshot.render(g2d);
+            } catch (RuntimeException e) {
+                // A shape failed to draw - keep the thread alive for the next frame
+                e.printStackTrace();
+            } finally {
+                g2d.dispose();
+            }
+
+            synchronized (lock) {
+                if (stopped) {
+                    return;
+                }
+                backBuffer = frontBuffer;
+                frontBuffer = target;
+                frontSnapshot = snapshot;
+            }
+            frameReady.run();
+        }
+    }
+}
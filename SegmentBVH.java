@@ -0,0 +1,198 @@
+import java.awt.Point;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SegmentBVH is a bounding volume hierarchy over the segments of a long stroke
+ * The segments are grouped into chunks of consecutive segments, and chunks are grouped
+ * in pairs, pairs of pairs and so on up to one root box. Because a stroke is drawn
+ * continuously, neighbouring chunks lie close together, so a point or rectangle query
+ * only descends into the few boxes near it instead of testing every segment.
+ *
+ * The hierarchy only grows at its end, so points appended to the stroke are added by
+ * widening one box per level. It reads the point list of the stroke directly and catches
+ * up with new points at the next query.
+ */
+public class SegmentBVH {
+    private static final int CHUNK = 16;   // Segments per leaf box
+
+    private final List<Point> points;      // Points of the stroke, owned by the stroke
+    private final List<int[]> levels = new ArrayList<>(); // Boxes per level as minX, minY, maxX, maxY; level 0 holds the chunks
+    private final List<Integer> counts = new ArrayList<>(); // Number of boxes used per level
+    private int indexedPoints;             // Number of points already added to the boxes
+
+    /**
+     * Constructor - creates an empty hierarchy for a stroke
+     *
+     * @param points The points of the stroke; new points are picked up at the next query
+     */
+    public SegmentBVH(List<Point> points) {
+        this.points = points;
+    }
+
+    /**
+     * Checks if any segment is closer than a distance to a point
+     *
+     * @param x        X-coordinate of the point
+     * @param y        Y-coordinate of the point
+     * @param distance Largest distance that counts as near
+     */
+    public boolean isNear(int x, int y, double distance) {
+        update();
+        if (levels.isEmpty()) {
+            return false;
+        }
+        return isNear(levels.size() - 1, 0, x, y, distance);
+    }
+
+    /**
+     * Checks if any segment touches a selection rectangle or lasso
+     * Boxes are ruled out against the bounding box of the region
+     *
+     * @param region Region in the coordinates of the stroke
+     */
+    public boolean intersects(SelectionRegion region) {
+        update();
+        if (levels.isEmpty()) {
+            return false;
+        }
+        return intersects(levels.size() - 1, 0, region.getBounds(), region);
+    }
+
+    /**
+     * Moves all boxes along with the stroke
+     */
+    public void translate(int dx, int dy) {
+        for (int level = 0; level < levels.size(); level++) {
+            int[] boxes = levels.get(level);
+            for (int i = 0; i < counts.get(level) * 4; i += 2) {
+                boxes[i] += dx;
+                boxes[i + 1] += dy;
+            }
+        }
+    }
+
+    /**
+     * Adds the segments of all points appended since the last query
+     */
+    private void update() {
+        int size = points.size();
+        for (int p = Math.max(1, indexedPoints); p < size; p++) {
+            Point a = points.get(p - 1);
+            Point b = points.get(p);
+            addSegment(p - 1, Math.min(a.x, b.x), Math.min(a.y, b.y), Math.max(a.x, b.x), Math.max(a.y, b.y));
+        }
+        indexedPoints = size;
+    }
+
+    /**
+     * Widens the chunk of a segment and every box above it
+     * Adds a new root level when the tree is full
+     */
+    private void addSegment(int segment, int minX, int minY, int maxX, int maxY) {
+        int node = segment / CHUNK;
+        for (int level = 0; ; level++) {
+            if (level == levels.size()) {
+                addLevel();
+            }
+            widen(level, node, minX, minY, maxX, maxY);
+            if (level == levels.size() - 1 && node == 0) {
+                return;
+            }
+            node >>= 1;
+        }
+    }
+
+    /**
+     * Adds a level above the current root; its first box starts as a copy of the old root
+     */
+    private void addLevel() {
+        int[] boxes = new int[16];
+        levels.add(boxes);
+        counts.add(0);
+        int level = levels.size() - 1;
+        if (level > 0) {
+            int[] root = levels.get(level - 1);
+            widen(level, 0, root[0], root[1], root[2], root[3]);
+        }
+    }
+
+    /**
+     * Grows a box to include a rectangle, creating the box if it is new
+     */
+    private void widen(int level, int node, int minX, int minY, int maxX, int maxY) {
+        int[] boxes = levels.get(level);
+        int count = counts.get(level);
+        if (node >= count) {
+            if (node * 4 + 4 > boxes.length) {
+                boxes = java.util.Arrays.copyOf(boxes, Math.max(boxes.length * 2, node * 4 + 4));
+                levels.set(level, boxes);
+            }
+            for (int i = count; i <= node; i++) {
+                boxes[i * 4] = Integer.MAX_VALUE;
+                boxes[i * 4 + 1] = Integer.MAX_VALUE;
+                boxes[i * 4 + 2] = Integer.MIN_VALUE;
+                boxes[i * 4 + 3] = Integer.MIN_VALUE;
+            }
+            counts.set(level, node + 1);
+        }
+        int i = node * 4;
+        boxes[i] = Math.min(boxes[i], minX);
+        boxes[i + 1] = Math.min(boxes[i + 1], minY);
+        boxes[i + 2] = Math.max(boxes[i + 2], maxX);
+        boxes[i + 3] = Math.max(boxes[i + 3], maxY);
+    }
+
+    private boolean isNear(int level, int node, int x, int y, double distance) {
+        if (node >= counts.get(level)) {
+            return false;
+        }
+        int[] boxes = levels.get(level);
+        int i = node * 4;
+        if (x < boxes[i] - distance || y < boxes[i + 1] - distance
+            || x > boxes[i + 2] + distance || y > boxes[i + 3] + distance) {
+            return false;
+        }
+        if (level == 0) {
+            int first = node * CHUNK;
+            int last = Math.min(first + CHUNK, indexedPoints - 1);
+            double squared = distance * distance;
+            for (int s = first; s < last; s++) {
+                Point a = points.get(s);
+                Point b = points.get(s + 1);
+                if (Line2D.ptSegDistSq(a.x, a.y, b.x, b.y, x, y) < squared) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isNear(level - 1, node * 2, x, y, distance) || isNear(level - 1, node * 2 + 1, x, y, distance);
+    }
+
+    private boolean intersects(int level, int node, Rectangle2D area, SelectionRegion region) {
+        if (node >= counts.get(level)) {
+            return false;
+        }
+        int[] boxes = levels.get(level);
+        int i = node * 4;
+        if (boxes[i + 2] < area.getMinX() || boxes[i + 3] < area.getMinY()
+            || boxes[i] > area.getMaxX() || boxes[i + 1] > area.getMaxY()) {
+            return false;
+        }
+        if (level == 0) {
+            int first = node * CHUNK;
+            int last = Math.min(first + CHUNK, indexedPoints - 1);
+            for (int s = first; s < last; s++) {
+                Point a = points.get(s);
+                Point b = points.get(s + 1);
+                if (region.intersectsSegment(a.x, a.y, b.x, b.y)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return intersects(level - 1, node * 2, area, region) || intersects(level - 1, node * 2 + 1, area, region);
+    }
+}
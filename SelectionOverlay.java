@@ -0,0 +1,423 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * SelectionOverlay keeps the selected shapes and draws their handles
+ * The handles are drawn in a separate pass on top of the layers, so selecting or
+ * deselecting a shape never changes the content of a layer or its cached tiles.
+ * Only the handle areas need to be repainted.
+ *
+ * All selected shapes belong to one layer and are kept only as a BitSet over the indices
+ * of the layer's shapes, so selecting and bulk operations take one pass over the set
+ * bits. When shapes of the layer are added, removed or reordered, drawingChanged moves
+ * the bits along with the rows the changes report.
+ *
+ * Dragging the selection does not touch the shapes: the drag is kept as one offset,
+ * the selected rows are left out of the layer's tiles and drawn live at the offset,
+ * and the move is applied to all shapes at once when the drag ends.
+ */
+public class SelectionOverlay {
+    private static final int HANDLE_LIMIT = 100; // Larger selections get one box with handles around all shapes
+    private Layer layer;                         // Layer of the selected shapes, or null if nothing is selected
+    private final BitSet rows = new BitSet();    // Indices of the selected shapes in the layer
+    private java.awt.Rectangle bounds;           // Area painted by the selected shapes, or null if not known yet
+    private int version;                         // Incremented whenever the selected shapes change
+    private int offsetX, offsetY;                // Distance the selection was dragged without moving the shapes yet
+
+    /**
+     * Adds a shape to the selection
+     * Selecting a shape of another layer deselects the shapes of the previous layer
+     *
+     * @param layer The layer that contains the shape
+     * @return true if the shape was not selected before
+     */
+    public boolean add(Layer layer, Shape shape) {
+        if (layer != this.layer) {
+            clear();
+            this.layer = layer;
+        }
+        int row = layer.indexOf(shape);
+        if (row < 0 || rows.get(row)) {
+            return false;
+        }
+        rows.set(row);
+        changed();
+        return true;
+    }
+
+    /**
+     * Removes a shape from the selection
+     *
+     * @return true if the shape was selected
+     */
+    public boolean remove(Shape shape) {
+        int row = indexOf(shape);
+        if (row < 0) {
+            return false;
+        }
+        rows.clear(row);
+        changed();
+        return true;
+    }
+
+    /**
+     * Adds several shapes of a layer to the selection at once
+     * Selecting shapes of another layer deselects the shapes of the previous layer
+     *
+     * @param layer   The layer that contains the shapes
+     * @param indices Indices of the shapes in the layer's current shape list
+     */
+    public void addAll(Layer layer, BitSet indices) {
+        if (layer != this.layer) {
+            clear();
+            this.layer = layer;
+        }
+        rows.or(indices.get(0, layer.getColumns().size()));
+        changed();
+    }
+
+    /**
+     * Selects all shapes of a layer
+     */
+    public void selectAll(Layer layer) {
+        clear();
+        this.layer = layer;
+        rows.set(0, layer.getColumns().size());
+        changed();
+    }
+
+    /**
+     * Removes all shapes from the selection
+     */
+    public void clear() {
+        layer = null;
+        rows.clear();
+        offsetX = 0;
+        offsetY = 0;
+        changed();
+    }
+
+    /**
+     * Checks if a shape is selected
+     */
+    public boolean contains(Shape shape) {
+        return indexOf(shape) >= 0;
+    }
+
+    /**
+     * Checks if nothing is selected
+     */
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    /**
+     * Gets the number of selected shapes
+     */
+    public int size() {
+        return rows.cardinality();
+    }
+
+    /**
+     * Gets the layer of the selected shapes
+     *
+     * @return The layer, or null if nothing is selected
+     */
+    public Layer getLayer() {
+        return layer;
+    }
+
+    /**
+     * Gets the indices of the selected shapes in the layer's current shape list
+     * The returned set is owned by the selection and must not be modified
+     */
+    public BitSet getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the selected shapes in layer order as they are stored in the columns
+     * The shapes are read-only and are not handles, so no handle is kept for them.
+     * Only used for selections of at most HANDLE_LIMIT shapes.
+     */
+    private List<Shape> storedShapes() {
+        ShapeColumns columns = layer.getColumns();
+        List<Shape> list = new ArrayList<>();
+        for (int i = rows.nextSetBit(0); i >= 0 && i < columns.size(); i = rows.nextSetBit(i + 1)) {
+            list.add(columns.getShape(i));
+        }
+        return list;
+    }
+
+    /**
+     * Gets the area painted by the selected shapes, without the drag offset
+     */
+    public java.awt.Rectangle getBounds() {
+        if (bounds == null) {
+            bounds = layer == null ? new java.awt.Rectangle() : layer.boundsOf(rows);
+        }
+        return bounds;
+    }
+
+    /**
+     * Gets a number that changes whenever the selected shapes change
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Drags the selection further without moving its shapes yet
+     */
+    public void drag(int dx, int dy) {
+        offsetX += dx;
+        offsetY += dy;
+    }
+
+    /**
+     * Gets the horizontal distance the selection was dragged
+     */
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    /**
+     * Gets the vertical distance the selection was dragged
+     */
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    /**
+     * Forgets the drag offset, after the move was applied to the shapes or cancelled
+     */
+    public void resetOffset() {
+        offsetX = 0;
+        offsetY = 0;
+    }
+
+    /**
+     * Gets the area the selection outline and handles cover, at the drag offset
+     * Used to repaint only the handles when the selection changes
+     */
+    public java.awt.Rectangle getHandleBounds() {
+        java.awt.Rectangle area = null;
+        if (size() <= HANDLE_LIMIT) {
+            for (Shape shape : storedShapes()) {
+                area = area == null ? shape.getHandleBounds() : area.union(shape.getHandleBounds());
+            }
+        } else {
+            area = new java.awt.Rectangle(getBounds());
+            area.grow(Shape.HANDLE_SIZE, Shape.HANDLE_SIZE);
+        }
+        if (area == null) {
+            return new java.awt.Rectangle();
+        }
+        area.translate(offsetX, offsetY);
+        return area;
+    }
+
+    /**
+     * Draws the selected shapes at the drag offset while they are left out of their layer
+     * The shapes are drawn from the layer's columns, and only those inside the visible area.
+     *
+     * @param g2d     Graphics with the zoom and pan transform of the canvas applied
+     * @param visible The visible part of the canvas
+     */
+    public void drawShapes(Graphics2D g2d, java.awt.Rectangle visible) {
+        if (layer == null) {
+            return;
+        }
+        ShapeColumns columns = layer.getColumns();
+        int left = visible.x - offsetX;
+        int top = visible.y - offsetY;
+        int right = left + visible.width;
+        int bottom = top + visible.height;
+        Graphics2D moved = (Graphics2D) g2d.create();
+        moved.translate(offsetX, offsetY);
+        RenderPlanner planner = new RenderPlanner(moved);
+        for (int i = rows.nextSetBit(0); i >= 0 && i < columns.size(); i = rows.nextSetBit(i + 1)) {
+            if (columns.getRight(i) >= left && columns.getLeft(i) <= right
+                && columns.getBottom(i) >= top && columns.getTop(i) <= bottom) {
+                columns.draw(i, planner);
+            }
+        }
+        moved.dispose();
+    }
+
+    /**
+     * Draws the outline and resize handles of every selected shape
+     * A large selection gets one outline with handles around all its shapes instead.
+     *
+     * @param g2d Graphics with the zoom and pan transform of the canvas applied
+     */
+    public void draw(Graphics2D g2d) {
+        if (isEmpty()) {
+            return;
+        }
+        Graphics2D moved = (Graphics2D) g2d.create();
+        moved.translate(offsetX, offsetY);
+        if (size() <= HANDLE_LIMIT) {
+            for (Shape shape : storedShapes()) {
+                shape.drawSelectionHandles(moved);
+            }
+        } else {
+            drawGroupHandles(moved, getBounds());
+        }
+        moved.dispose();
+    }
+
+    /**
+     * Draws one outline with corner handles around an area
+     */
+    private void drawGroupHandles(Graphics2D g2d, java.awt.Rectangle area) {
+        int size = Shape.HANDLE_SIZE;
+        int[] xs = {area.x, area.x + area.width};
+        int[] ys = {area.y, area.y + area.height};
+        g2d.setColor(Color.BLUE);
+        g2d.setStroke(new BasicStroke(2));
+        g2d.drawRect(area.x, area.y, area.width, area.height);
+        for (int x : xs) {
+            for (int y : ys) {
+                g2d.setColor(Color.WHITE);
+                g2d.fillRect(x - size / 2, y - size / 2, size, size);
+                g2d.setColor(Color.BLUE);
+                g2d.drawRect(x - size / 2, y - size / 2, size, size);
+            }
+        }
+    }
+
+    /**
+     * Moves the selected rows along with the shapes added, removed or reordered in the
+     * layer of the selection
+     * Selected shapes that were removed are dropped from the selection. A change that
+     * does not tell its rows drops the whole selection.
+     *
+     * @param changes The changes of an edit, in the order they were made
+     */
+    public void drawingChanged(List<DrawingChange> changes) {
+        for (DrawingChange change : changes) {
+            if (layer == null || change.getLayer() != layer) {
+                continue;
+            }
+            switch (change.getType()) {
+                case SHAPE_ADDED:
+                    if (change.getRows() == null) {
+                        clear();
+                    } else {
+                        insertRows(change.getRows());
+                    }
+                    break;
+                case SHAPE_REMOVED:
+                    if (change.getRows() == null) {
+                        clear();
+                    } else {
+                        removeRows(change.getRows());
+                    }
+                    break;
+                case SHAPE_REORDERED:
+                    if (change.getFromRow() < 0) {
+                        clear();
+                    } else {
+                        moveRow(change.getFromRow(), change.getToRow());
+                    }
+                    break;
+                case SHAPE_GEOMETRY_CHANGED:
+                    changed();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Drops the removed rows and closes the gaps they leave
+     *
+     * @param removed The removed rows, as they were before the change
+     */
+    private void removeRows(BitSet removed) {
+        BitSet kept = new BitSet();
+        int gone = 0;  // Removed rows below the current one
+        int next = removed.nextSetBit(0);
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            while (next >= 0 && next < i) {
+                gone++;
+                next = removed.nextSetBit(next + 1);
+            }
+            if (next != i) {
+                kept.set(i - gone);
+            }
+        }
+        rows.clear();
+        rows.or(kept);
+        changed();
+    }
+
+    /**
+     * Opens gaps for rows that were inserted; the new rows are not selected
+     *
+     * @param added The added rows, as they are after the change
+     */
+    private void insertRows(BitSet added) {
+        if (added.nextSetBit(0) >= rows.length()) {
+            // Shapes added on top of all selected shapes, e.g. a new drawing, move nothing
+            return;
+        }
+        BitSet moved = new BitSet();
+        int row = 0;  // Row before the change of the next row after it that was not added
+        for (int i = 0; row < rows.length(); i++) {
+            if (!added.get(i)) {
+                if (rows.get(row)) {
+                    moved.set(i);
+                }
+                row++;
+            }
+        }
+        rows.clear();
+        rows.or(moved);
+        changed();
+    }
+
+    /**
+     * Moves the selection of one row to another; the rows in between shift by one
+     */
+    private void moveRow(int from, int to) {
+        boolean selected = rows.get(from);
+        if (from < to) {
+            BitSet between = rows.get(from + 1, to + 1);
+            rows.clear(from, to + 1);
+            for (int i = between.nextSetBit(0); i >= 0; i = between.nextSetBit(i + 1)) {
+                rows.set(from + i);
+            }
+        } else if (from > to) {
+            BitSet between = rows.get(to, from);
+            rows.clear(to, from + 1);
+            for (int i = between.nextSetBit(0); i >= 0; i = between.nextSetBit(i + 1)) {
+                rows.set(to + 1 + i);
+            }
+        }
+        rows.set(to, selected);
+        changed();
+    }
+
+    /**
+     * Finds the row of a shape of the selected layer if the shape is selected
+     *
+     * @return The row, or -1 if the shape is not selected
+     */
+    private int indexOf(Shape shape) {
+        int row = layer == null ? -1 : layer.indexOf(shape);
+        return row >= 0 && rows.get(row) ? row : -1;
+    }
+
+    /**
+     * Forgets the cached bounds and marks the selection as changed
+     */
+    private void changed() {
+        bounds = null;
+        version++;
+    }
+}
@@ -0,0 +1,423 @@
+import java.awt.Point;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SelectionRegion is the area of a rubber-band rectangle or a freehand lasso
+ * Shapes are selected when their geometry touches the region. A rectangle is tested
+ * directly; a lasso is a closed polygon tested with the even-odd rule.
+ *
+ * A lasso lays a grid over its bounding box and records which edges of the outline
+ * pass through each cell and each row of cells. Cells without an edge are marked as
+ * inside or outside, so a box or segment that only covers such cells is decided
+ * without looking at any edge. Geometry near the outline is only tested against the
+ * edges of the cells it covers, and a point only against the edges of its row.
+ *
+ * A region is never changed after it is created, so it can be tested from several
+ * threads at once.
+ */
+public class SelectionRegion {
+    private static final int GRID = 128;          // Cells per side of the lasso grid
+    private static final int MAX_GRID_CELLS = 64; // Larger cell ranges are tested against every edge
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte EDGE = 2;
+
+    private final double[] xs, ys;               // Vertices of the closed outline; edge i runs from vertex i - 1 to i
+    private final boolean rectangular;           // Whether the region is an axis-aligned rectangle
+    private final double minX, minY, maxX, maxY; // Bounding box of the outline
+    private final double cellWidth, cellHeight;  // Size of a grid cell
+    private byte[] cells;                        // OUTSIDE, INSIDE or EDGE for each grid cell of a lasso
+    private int[] cellStart, cellEdges;          // Edges through cell c are cellEdges[cellStart[c] .. cellStart[c + 1] - 1]
+    private int[] rowStart, rowEdges;            // Edges spanning part of each row of cells, stored the same way
+
+    private SelectionRegion(double[] xs, double[] ys, boolean rectangular) {
+        this.xs = xs;
+        this.ys = ys;
+        this.rectangular = rectangular;
+        double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+        double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
+        minX = x0;
+        minY = y0;
+        maxX = x1;
+        maxY = y1;
+        cellWidth = Math.max(1e-6, (maxX - minX) / GRID);
+        cellHeight = Math.max(1e-6, (maxY - minY) / GRID);
+        if (!rectangular) {
+            indexEdges();
+            classifyCells();
+        }
+    }
+
+    /**
+     * Creates the region of a rubber-band rectangle between two corners
+     */
+    public static SelectionRegion rectangle(int x1, int y1, int x2, int y2) {
+        double left = Math.min(x1, x2);
+        double top = Math.min(y1, y2);
+        double right = Math.max(x1, x2);
+        double bottom = Math.max(y1, y2);
+        return new SelectionRegion(new double[] {left, right, right, left}, new double[] {top, top, bottom, bottom}, true);
+    }
+
+    /**
+     * Creates the region of a lasso; the last point is joined to the first
+     *
+     * @param points Outline of the lasso in canvas coordinates, at least one point
+     */
+    public static SelectionRegion lasso(List<Point> points) {
+        double[] xs = new double[points.size()];
+        double[] ys = new double[points.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = points.get(i).x;
+            ys[i] = points.get(i).y;
+        }
+        return new SelectionRegion(xs, ys, false);
+    }
+
+    /**
+     * Gets the bounding box of the region, rounded outwards
+     */
+    public java.awt.Rectangle getBounds() {
+        int left = (int) Math.floor(minX);
+        int top = (int) Math.floor(minY);
+        return new java.awt.Rectangle(left, top, (int) Math.ceil(maxX) - left, (int) Math.ceil(maxY) - top);
+    }
+
+    /**
+     * Checks if the region is a rectangle rather than a lasso
+     */
+    public boolean isRectangular() {
+        return rectangular;
+    }
+
+    /**
+     * Gets the outline of the region for drawing it
+     */
+    public Path2D toPath() {
+        Path2D.Double path = new Path2D.Double();
+        path.moveTo(xs[0], ys[0]);
+        for (int i = 1; i < xs.length; i++) {
+            path.lineTo(xs[i], ys[i]);
+        }
+        path.closePath();
+        return path;
+    }
+
+    /**
+     * Checks if a point lies inside the region
+     * Near the outline of a lasso, a ray to the right is crossed with the edges of the point's row.
+     */
+    public boolean contains(double x, double y) {
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        if (rectangular) {
+            return true;
+        }
+        int row = cellY(y);
+        byte cell = cells[row * GRID + cellX(x)];
+        if (cell != EDGE) {
+            return cell == INSIDE;
+        }
+        boolean inside = false;
+        for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+            int i = rowEdges[k];
+            int j = previous(i);
+            if ((ys[i] > y) != (ys[j] > y)
+                && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Checks if a line segment touches the region
+     */
+    public boolean intersectsSegment(double x1, double y1, double x2, double y2) {
+        double left = Math.min(x1, x2);
+        double top = Math.min(y1, y2);
+        double right = Math.max(x1, x2);
+        double bottom = Math.max(y1, y2);
+        if (right < minX || left > maxX || bottom < minY || top > maxY) {
+            return false;
+        }
+        if (rectangular) {
+            return segmentTouchesBox(x1, y1, x2, y2, minX, minY, maxX, maxY);
+        }
+        byte cover = coverage(left, top, right, bottom);
+        if (cover != EDGE) {
+            return cover == INSIDE;
+        }
+        if (contains(x1, y1)) {
+            return true;
+        }
+        int[] range = cellRange(left, top, right, bottom);
+        if (range == null) {
+            for (int i = 0; i < xs.length; i++) {
+                if (edgeCrossesSegment(i, x1, y1, x2, y2)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int cy = range[1]; cy <= range[3]; cy++) {
+            for (int cx = range[0]; cx <= range[2]; cx++) {
+                int cell = cy * GRID + cx;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    if (edgeCrossesSegment(cellEdges[k], x1, y1, x2, y2)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a box touches the region, edges included
+     */
+    public boolean intersectsBox(double left, double top, double right, double bottom) {
+        if (right < minX || left > maxX || bottom < minY || top > maxY) {
+            return false;
+        }
+        if (rectangular) {
+            return true;
+        }
+        byte cover = coverage(left, top, right, bottom);
+        if (cover != EDGE) {
+            return cover == INSIDE;
+        }
+        // The box touches the lasso if it lies inside it or an edge of the lasso touches the box
+        if (contains(left, top)) {
+            return true;
+        }
+        int[] range = cellRange(left, top, right, bottom);
+        if (range == null) {
+            for (int i = 0; i < xs.length; i++) {
+                if (edgeTouchesBox(i, left, top, right, bottom)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int cy = range[1]; cy <= range[3]; cy++) {
+            for (int cx = range[0]; cx <= range[2]; cx++) {
+                int cell = cy * GRID + cx;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    if (edgeTouchesBox(cellEdges[k], left, top, right, bottom)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the index of the vertex an edge starts at
+     */
+    private int previous(int i) {
+        return i == 0 ? xs.length - 1 : i - 1;
+    }
+
+    private boolean edgeCrossesSegment(int i, double x1, double y1, double x2, double y2) {
+        int j = previous(i);
+        return Line2D.linesIntersect(xs[j], ys[j], xs[i], ys[i], x1, y1, x2, y2);
+    }
+
+    private boolean edgeTouchesBox(int i, double left, double top, double right, double bottom) {
+        int j = previous(i);
+        return segmentTouchesBox(xs[j], ys[j], xs[i], ys[i], left, top, right, bottom);
+    }
+
+    /**
+     * Checks if a segment touches a box, edges included, by clipping it to the box
+     */
+    private static boolean segmentTouchesBox(double x1, double y1, double x2, double y2,
+                                             double left, double top, double right, double bottom) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x1 - left, right - x1, y1 - top, bottom - y1};
+        double t0 = 0;
+        double t1 = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the grid cells a box covers
+     *
+     * @return The first and last column and row, or null if the box covers too many cells
+     */
+    private int[] cellRange(double left, double top, double right, double bottom) {
+        int cx0 = cellX(left);
+        int cy0 = cellY(top);
+        int cx1 = cellX(right);
+        int cy1 = cellY(bottom);
+        if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_GRID_CELLS) {
+            return null;
+        }
+        return new int[] {cx0, cy0, cx1, cy1};
+    }
+
+    /**
+     * Looks up the grid cells a box covers
+     *
+     * @return INSIDE or OUTSIDE if all covered cells agree, otherwise EDGE
+     */
+    private byte coverage(double left, double top, double right, double bottom) {
+        int cx0 = cellX(left);
+        int cy0 = cellY(top);
+        int cx1 = cellX(right);
+        int cy1 = cellY(bottom);
+        if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_GRID_CELLS) {
+            return EDGE;
+        }
+        byte first = cells[cy0 * GRID + cx0];
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (cells[cy * GRID + cx] != first) {
+                    return EDGE;
+                }
+            }
+        }
+        // Geometry reaching beyond the lasso's bounding box lies partly outside
+        if (first == INSIDE && (left < minX || right > maxX || top < minY || bottom > maxY)) {
+            return EDGE;
+        }
+        return first;
+    }
+
+    private int cellX(double x) {
+        return Math.max(0, Math.min(GRID - 1, (int) ((x - minX) / cellWidth)));
+    }
+
+    private int cellY(double y) {
+        return Math.max(0, Math.min(GRID - 1, (int) ((y - minY) / cellHeight)));
+    }
+
+    /**
+     * Records the cells and rows of cells every edge of the outline passes through
+     * The edges are walked twice: once to count the entries of each cell, once to fill them.
+     */
+    private void indexEdges() {
+        int[] cellCounts = new int[GRID * GRID + 1];
+        int[] rowCounts = new int[GRID + 1];
+        walkEdges(cellCounts, null, rowCounts, null);
+        cellStart = startsOf(cellCounts);
+        rowStart = startsOf(rowCounts);
+        cellEdges = new int[cellStart[GRID * GRID]];
+        rowEdges = new int[rowStart[GRID]];
+        walkEdges(Arrays.copyOf(cellStart, cellStart.length), cellEdges,
+            Arrays.copyOf(rowStart, rowStart.length), rowEdges);
+    }
+
+    /**
+     * Visits the cells of every edge, counting them or storing the edge in the next free slot
+     * For each row of cells the edge spans, the part of the edge inside that row gives its
+     * columns. Ranges are grown by a little, so an edge along a cell border is listed in both cells.
+     *
+     * @param cellNext  Count or next free slot of each cell
+     * @param cellList  Edge list to fill, or null to only count
+     * @param rowNext   Count or next free slot of each row
+     * @param rowList   Edge list to fill, or null to only count
+     */
+    private void walkEdges(int[] cellNext, int[] cellList, int[] rowNext, int[] rowList) {
+        double slackX = cellWidth * 1e-3;
+        double slackY = cellHeight * 1e-3;
+        for (int i = 0; i < xs.length; i++) {
+            int j = previous(i);
+            double x1 = xs[j], y1 = ys[j], x2 = xs[i], y2 = ys[i];
+            double top = Math.min(y1, y2);
+            double bottom = Math.max(y1, y2);
+            int cy0 = cellY(top - slackY);
+            int cy1 = cellY(bottom + slackY);
+            for (int cy = cy0; cy <= cy1; cy++) {
+                double xa = x1, xb = x2;
+                if (y1 != y2) {
+                    double rowTop = Math.max(top, minY + cy * cellHeight - slackY);
+                    double rowBottom = Math.min(bottom, minY + (cy + 1) * cellHeight + slackY);
+                    xa = x1 + (rowTop - y1) * (x2 - x1) / (y2 - y1);
+                    xb = x1 + (rowBottom - y1) * (x2 - x1) / (y2 - y1);
+                }
+                int cx0 = cellX(Math.min(xa, xb) - slackX);
+                int cx1 = cellX(Math.max(xa, xb) + slackX);
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    int cell = cy * GRID + cx;
+                    if (cellList == null) {
+                        cellNext[cell]++;
+                    } else {
+                        cellList[cellNext[cell]++] = i;
+                    }
+                }
+                if (rowList == null) {
+                    rowNext[cy]++;
+                } else {
+                    rowList[rowNext[cy]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns counts into the start of each entry's slots; the last entry gets the total
+     */
+    private static int[] startsOf(int[] counts) {
+        int[] starts = new int[counts.length];
+        int sum = 0;
+        for (int i = 0; i < counts.length - 1; i++) {
+            starts[i] = sum;
+            sum += counts[i];
+        }
+        starts[counts.length - 1] = sum;
+        return starts;
+    }
+
+    /**
+     * Marks the cells edges pass through, and the others by testing their centre
+     */
+    private void classifyCells() {
+        cells = new byte[GRID * GRID];
+        Arrays.fill(cells, EDGE);
+        byte[] classified = new byte[GRID * GRID];
+        for (int cy = 0; cy < GRID; cy++) {
+            for (int cx = 0; cx < GRID; cx++) {
+                int cell = cy * GRID + cx;
+                if (cellStart[cell] == cellStart[cell + 1]) {
+                    boolean inside = contains(minX + (cx + 0.5) * cellWidth, minY + (cy + 0.5) * cellHeight);
+                    classified[cell] = inside ? INSIDE : OUTSIDE;
+                } else {
+                    classified[cell] = EDGE;
+                }
+            }
+        }
+        cells = classified;
+    }
+}
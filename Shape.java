@@ -6,12 +6,11 @@ import java.io.Serializable;
  * All specific shapes (Rectangle, Circle, Line, etc.) inherit from this class
  * Provides common functionality like selection, moving, and resizing
  */
-public abstract class Shape implements Serializable {
+public abstract class Shape implements Serializable, Cloneable {
     // Basic properties all shapes have
     protected Color color;          // The color of the shape
     protected int x1, y1, x2, y2;   // Coordinates defining the shape (start and end points)
     protected boolean filled;       // Whether the shape should be filled with color
-    protected boolean selected;     // Whether the shape is currently selected
     protected static final int HANDLE_SIZE = 8;  // Size of selection handles for resizing
     protected float strokeWidth = 1.0f;  // Width of the shape's outline
     
@@ -32,7 +31,6 @@ public abstract class Shape implements Serializable {
         this.x2 = x2;
         this.y2 = y2;
         this.filled = filled;
-        this.selected = false;
     }
     
     /**
@@ -63,21 +61,6 @@ public abstract class Shape implements Serializable {
         return filled;
     }
     
-    /**
-     * Sets whether the shape is selected
-     * Selected shapes show resize handles and can be modified
-     */
-    public void setSelected(boolean selected) {
-        this.selected = selected;
-    }
-    
-    /**
-     * Checks if the shape is currently selected
-     */
-    public boolean isSelected() {
-        return selected;
-    }
-    
     /**
      * Moves the shape by the specified amount
      * 
@@ -91,6 +74,36 @@ public abstract class Shape implements Serializable {
         y2 += dy;
     }
     
+    /**
+     * Scales the shape relative to a fixed point
+     * Used to resize several selected shapes together
+     *
+     * @param sx      Horizontal scale factor
+     * @param sy      Vertical scale factor
+     * @param originX X-coordinate of the point that stays in place
+     * @param originY Y-coordinate of the point that stays in place
+     */
+    public void scale(double sx, double sy, int originX, int originY) {
+        x1 = scaleCoordinate(x1, sx, originX);
+        y1 = scaleCoordinate(y1, sy, originY);
+        x2 = scaleCoordinate(x2, sx, originX);
+        y2 = scaleCoordinate(y2, sy, originY);
+    }
+
+    /**
+     * Scales one coordinate relative to the same coordinate of a fixed point
+     */
+    protected static int scaleCoordinate(int value, double factor, int origin) {
+        return origin + (int) Math.round((value - origin) * factor);
+    }
+
+    /**
+     * Sets the color of the shape
+     */
+    public void setColor(Color color) {
+        this.color = color;
+    }
+
     /**
      * Sets the width of the shape's outline
      */
@@ -105,6 +118,51 @@ public abstract class Shape implements Serializable {
         return strokeWidth;
     }
     
+    /**
+     * Gets the area this shape paints, in canvas coordinates
+     * Includes half the stroke width and a pixel for antialiasing.
+     * Used to find the part of the canvas an edit changes.
+     * 
+     * @return The bounding box of everything the shape draws
+     */
+    public java.awt.Rectangle getBounds() {
+        int left = Math.min(x1, x2);
+        int top = Math.min(y1, y2);
+        int right = Math.max(x1, x2);
+        int bottom = Math.max(y1, y2);
+        return padBounds(left, top, right, bottom);
+    }
+    
+    /**
+     * Grows a bounding box by the stroke and antialiasing margins
+     */
+    protected java.awt.Rectangle padBounds(int left, int top, int right, int bottom) {
+        int pad = (int) Math.ceil(strokeWidth / 2) + 1;
+        return new java.awt.Rectangle(left - pad, top - pad, right - left + 2 * pad + 1, bottom - top + 2 * pad + 1);
+    }
+    
+    /**
+     * Gets the area the selection outline and handles of this shape cover
+     * Used to repaint only the handles when the selection changes
+     * 
+     * @return The bounding box of the handles in canvas coordinates
+     */
+    public java.awt.Rectangle getHandleBounds() {
+        int left = Math.min(x1, x2);
+        int top = Math.min(y1, y2);
+        int right = Math.max(x1, x2);
+        int bottom = Math.max(y1, y2);
+        return padHandles(left, top, right, bottom);
+    }
+    
+    /**
+     * Grows an outline box by the size of the handles drawn on its corners
+     */
+    protected java.awt.Rectangle padHandles(int left, int top, int right, int bottom) {
+        int pad = HANDLE_SIZE / 2 + 2;
+        return new java.awt.Rectangle(left - pad, top - pad, right - left + 2 * pad + 1, bottom - top + 2 * pad + 1);
+    }
+    
     /**
      * Checks if the given point is inside the shape
      * Used for selecting shapes by clicking on them
@@ -124,6 +182,48 @@ public abstract class Shape implements Serializable {
         return x >= left && x <= right && y >= top && y <= bottom;
     }
     
+    /**
+     * Gets the box outside of which containsPoint is always false
+     * The box includes its right and bottom edge, like containsPoint does.
+     * Used to rule out shapes quickly before testing them exactly.
+     * 
+     * @return The hit-test box in canvas coordinates
+     */
+    public java.awt.Rectangle getHitBounds() {
+        int left = Math.min(x1, x2);
+        int top = Math.min(y1, y2);
+        return new java.awt.Rectangle(left, top, Math.max(x1, x2) - left, Math.max(y1, y2) - top);
+    }
+    
+    /**
+     * Checks if the shape touches a selection rectangle or lasso
+     * Like containsPoint, this tests the hit-test box; shapes with more detailed
+     * geometry test that instead.
+     * 
+     * @param region Region in canvas coordinates
+     * @return true if the region selects this shape
+     */
+    public boolean intersects(SelectionRegion region) {
+        java.awt.Rectangle hit = getHitBounds();
+        return region.intersectsBox(hit.x, hit.y, hit.x + hit.width, hit.y + hit.height);
+    }
+    
+    /**
+     * Fills the area in which containsPoint finds this shape, grown by a margin
+     * Used to draw the shape into the PickBuffer with its ID as the current color
+     * 
+     * @param g2d      Graphics of the pick buffer with the canvas transform applied
+     * @param dilation Margin in canvas units added on every side
+     */
+    public void drawPickMask(Graphics2D g2d, double dilation) {
+        int left = Math.min(x1, x2);
+        int right = Math.max(x1, x2);
+        int top = Math.min(y1, y2);
+        int bottom = Math.max(y1, y2);
+        g2d.fill(new java.awt.geom.Rectangle2D.Double(left - dilation, top - dilation,
+            right - left + 2 * dilation, bottom - top + 2 * dilation));
+    }
+    
     /**
      * Checks if the given point is on one of the resize handles
      * Used to determine if the user is trying to resize the shape
@@ -133,9 +233,6 @@ public abstract class Shape implements Serializable {
      * @return true if the point is on a resize handle, false otherwise
      */
     public boolean isResizeHandle(int x, int y) {
-        // Only selected shapes have resize handles
-        if (!selected) return false;
-        
         // Calculate the bounding box of the shape
         int left = Math.min(x1, x2);
         int top = Math.min(y1, y2);
@@ -149,14 +246,24 @@ public abstract class Shape implements Serializable {
                (Math.abs(x - right) <= HANDLE_SIZE && Math.abs(y - bottom) <= HANDLE_SIZE);
     }
     
+    /**
+     * Creates a copy of the shape that can be changed without changing this one
+     * Used to edit a shape while the version kept for undo and drawing stays as it is
+     */
+    public Shape copy() {
+        try {
+            return (Shape) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Draws the selection handles and outline around a selected shape
      * This shows the user which shape is currently selected
+     * Called by the SelectionOverlay, never as part of draw()
      */
-    protected void drawSelectionHandles(Graphics g) {
-        // Only draw handles if the shape is selected
-        if (!selected) return;
-        
+    public void drawSelectionHandles(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
         int left = Math.min(x1, x2);
         int top = Math.min(y1, y2);
@@ -0,0 +1,677 @@
+import java.awt.*;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ShapeColumns stores the shapes of a layer column by column
+ * Bounds, packed ARGB colors, stroke widths and flags are kept in parallel primitive
+ * arrays, so drawing and culling a layer walks a few compact arrays instead of following
+ * a pointer to every shape and its Color. Lines, rectangles and circles exist only as
+ * these values, about 42 bytes per shape; their corner points are the hit-test box plus
+ * two flags for the direction of the line. Other shapes keep their Shape object as well
+ * and are drawn by it.
+ *
+ * The rows are drawn through a RenderPlanner, which sets the color and stroke only
+ * when they change.
+ *
+ * The painted bounds and the hit-test boxes are kept as separate edge arrays, so culling
+ * and hit-testing run through HitKernels a block of rows at a time.
+ *
+ * The rows are split into chunks of CHUNK_ROWS. freeze() returns a version of the columns
+ * that never changes, sharing the chunks; a chunk is copied before a row a frozen version
+ * can see is changed. Frozen versions can therefore be drawn on other threads and kept
+ * for undo, and an edit only copies the chunks it touches. Shape objects stored in the
+ * columns must not be changed: editing works on copyShape() and stores the result with set().
+ */
+public class ShapeColumns implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final byte OTHER = 0;       // Drawn by the shape itself
+    private static final byte LINE = 1;
+    private static final byte RECTANGLE = 2;
+    private static final byte OVAL = 3;
+    private static final byte FILLED = 1;      // Flag bit for filled rectangles and ovals
+    private static final byte EXACT_HIT = 2;   // Flag bit for shapes whose hit-test box is their whole clickable area
+    private static final byte FLIP_X = 4;      // Flag bit for x1 lying right of x2
+    private static final byte FLIP_Y = 8;      // Flag bit for y1 lying below y2
+    private static final int ROWS_PER_TASK = 16384; // Rows a region query tests per parallel task, a multiple of CHUNK_ROWS
+    private static final int CHUNK_SHIFT = 12;
+    public static final int CHUNK_ROWS = 1 << CHUNK_SHIFT; // Rows per chunk, a multiple of HitKernels.BLOCK and of 64
+    private static final int FIRST_CAPACITY = 16;          // Rows of a new last chunk; it doubles up to CHUNK_ROWS
+
+    // Whether a shape class uses the box test of Shape.containsPoint
+    private static final ClassValue<Boolean> BOX_HIT_TEST = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("containsPoint", int.class, int.class).getDeclaringClass() == Shape.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private Chunk[] chunks;        // Rows in chunks of CHUNK_ROWS, only the last one may be shorter
+    private int size;              // Number of shapes
+    private final boolean frozen;  // Whether these columns are a version that never changes
+
+    /**
+     * Chunk holds the columns of up to CHUNK_ROWS consecutive rows
+     */
+    private static final class Chunk implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final byte[] kinds;          // LINE, RECTANGLE, OVAL or OTHER
+        final byte[] flags;          // FILLED, EXACT_HIT, FLIP_X and FLIP_Y bits
+        final int[] boundsLeft, boundsTop, boundsRight, boundsBottom; // Edges of Shape.getBounds()
+        final int[] hitLeft, hitTop, hitRight, hitBottom;             // Edges of Shape.getHitBounds(), included
+        final int[] colors;          // Packed ARGB colors
+        final float[] strokeWidths;  // Outline widths
+        Shape[] objects;             // Shape object of OTHER rows, or null while the chunk has none
+        ShapeHandle[] handles;       // Handle given out for each row, or null while none was given out
+        int frozenRows;              // Rows a frozen version can see; they are copied before they change
+
+        Chunk(int capacity) {
+            kinds = new byte[capacity];
+            flags = new byte[capacity];
+            boundsLeft = new int[capacity];
+            boundsTop = new int[capacity];
+            boundsRight = new int[capacity];
+            boundsBottom = new int[capacity];
+            hitLeft = new int[capacity];
+            hitTop = new int[capacity];
+            hitRight = new int[capacity];
+            hitBottom = new int[capacity];
+            colors = new int[capacity];
+            strokeWidths = new float[capacity];
+        }
+
+        Chunk(Chunk from, int capacity) {
+            kinds = Arrays.copyOf(from.kinds, capacity);
+            flags = Arrays.copyOf(from.flags, capacity);
+            boundsLeft = Arrays.copyOf(from.boundsLeft, capacity);
+            boundsTop = Arrays.copyOf(from.boundsTop, capacity);
+            boundsRight = Arrays.copyOf(from.boundsRight, capacity);
+            boundsBottom = Arrays.copyOf(from.boundsBottom, capacity);
+            hitLeft = Arrays.copyOf(from.hitLeft, capacity);
+            hitTop = Arrays.copyOf(from.hitTop, capacity);
+            hitRight = Arrays.copyOf(from.hitRight, capacity);
+            hitBottom = Arrays.copyOf(from.hitBottom, capacity);
+            colors = Arrays.copyOf(from.colors, capacity);
+            strokeWidths = Arrays.copyOf(from.strokeWidths, capacity);
+            objects = from.objects == null ? null : Arrays.copyOf(from.objects, capacity);
+            handles = from.handles == null ? null : Arrays.copyOf(from.handles, capacity);
+        }
+
+        Shape object(int i) {
+            return objects == null ? null : objects[i];
+        }
+
+        ShapeHandle handle(int i) {
+            return handles == null ? null : handles[i];
+        }
+
+        int capacity() {
+            return kinds.length;
+        }
+    }
+
+    /**
+     * Constructor - creates empty columns
+     */
+    public ShapeColumns() {
+        this(new Chunk[0], 0, false);
+    }
+
+    /**
+     * Constructor - creates columns over existing chunks
+     */
+    private ShapeColumns(Chunk[] chunks, int size, boolean frozen) {
+        this.chunks = chunks;
+        this.size = size;
+        this.frozen = frozen;
+    }
+
+    /**
+     * Creates the columns of a list of shapes
+     * The columns keep the Shape objects of shapes they cannot store as columns.
+     */
+    public static ShapeColumns of(List<Shape> list) {
+        ShapeColumns columns = new ShapeColumns();
+        for (Shape shape : list) {
+            columns.add(shape);
+        }
+        return columns;
+    }
+
+    /**
+     * Appends a shape as a new row
+     * Lines, rectangles and circles are stored as values; other shapes are kept as they
+     * are and must not be changed afterwards.
+     */
+    public void add(Shape shape) {
+        checkChangeable();
+        int c = size >> CHUNK_SHIFT;
+        int i = size & (CHUNK_ROWS - 1);
+        if (c == chunks.length) {
+            chunks = Arrays.copyOf(chunks, c + 1);
+            chunks[c] = new Chunk(FIRST_CAPACITY);
+        } else if (i == chunks[c].capacity()) {
+            // A new chunk object, so frozen versions keep the old one unchanged
+            chunks[c] = new Chunk(chunks[c], Math.min(CHUNK_ROWS, i * 2));
+        }
+        Chunk chunk = chunks[c];
+        if (i < chunk.frozenRows) {
+            // A frozen version holds more rows of this chunk than these columns
+            chunk = copy(c);
+        }
+        write(chunk, i, shape);
+        if (chunk.handles != null) {
+            chunk.handles[i] = null;
+        }
+        size++;
+    }
+
+    /**
+     * Replaces the shape of a row, keeping its handle
+     * Other shapes than lines, rectangles and circles are kept as they are and must not
+     * be changed afterwards.
+     */
+    public void set(int row, Shape shape) {
+        write(changeable(row), row & (CHUNK_ROWS - 1), shape);
+    }
+
+    /**
+     * Removes rows; the remaining rows keep their order and close the gaps
+     *
+     * @param rows The rows to remove
+     */
+    public void removeRows(BitSet rows) {
+        checkChangeable();
+        int kept = rows.nextSetBit(0);
+        if (kept < 0 || kept >= size) {
+            return;
+        }
+        for (int row = kept; row < size; row++) {
+            if (!rows.get(row)) {
+                copyRow(row, kept++);
+            }
+        }
+        truncate(kept);
+    }
+
+    /**
+     * Moves a row to another position; the rows in between shift by one
+     *
+     * @param from Current position of the row
+     * @param to   New position of the row
+     */
+    public void moveRow(int from, int to) {
+        checkChangeable();
+        if (from == to) {
+            return;
+        }
+        Shape shape = getShape(from);
+        ShapeHandle handle = getHandle(from);
+        int step = from < to ? 1 : -1;
+        for (int row = from; row != to; row += step) {
+            copyRow(row + step, row);
+        }
+        set(to, shape);
+        setHandle(to, handle);
+    }
+
+    /**
+     * Gets a version of the columns that never changes
+     * Later changes of these columns copy the chunks they touch first.
+     */
+    public ShapeColumns freeze() {
+        if (frozen) {
+            return this;
+        }
+        for (int c = 0; c < chunks.length; c++) {
+            int rows = Math.min(CHUNK_ROWS, size - (c << CHUNK_SHIFT));
+            chunks[c].frozenRows = Math.max(chunks[c].frozenRows, rows);
+        }
+        return new ShapeColumns(chunks.clone(), size, true);
+    }
+
+    /**
+     * Gets columns that start out with the rows of a frozen version and can be changed
+     * The chunks are shared until they are changed.
+     */
+    public ShapeColumns thaw() {
+        return new ShapeColumns(freeze().chunks.clone(), size, false);
+    }
+
+    /**
+     * Checks if two columns share all their chunks, so they hold the same rows
+     */
+    public boolean sameRows(ShapeColumns other) {
+        return size == other.size && Arrays.equals(chunks, other.chunks);
+    }
+
+    /**
+     * Checks if a row of these columns looks the same as a row of other columns
+     * Shapes stored as objects are the same only if they are the same object.
+     */
+    public boolean sameRow(int row, ShapeColumns other, int otherRow) {
+        Chunk a = chunks[row >> CHUNK_SHIFT];
+        Chunk b = other.chunks[otherRow >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        int j = otherRow & (CHUNK_ROWS - 1);
+        if (a == b && i == j) {
+            return true;
+        }
+        return a.kinds[i] == b.kinds[j] && a.flags[i] == b.flags[j] && a.object(i) == b.object(j)
+            && a.hitLeft[i] == b.hitLeft[j] && a.hitTop[i] == b.hitTop[j]
+            && a.hitRight[i] == b.hitRight[j] && a.hitBottom[i] == b.hitBottom[j]
+            && a.colors[i] == b.colors[j] && a.strokeWidths[i] == b.strokeWidths[j];
+    }
+
+    /**
+     * Gets the number of shapes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the shape of a row
+     * Lines, rectangles and circles are made from the columns; other shapes are returned
+     * as stored and must not be changed.
+     */
+    public Shape getShape(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        byte kind = chunk.kinds[i];
+        if (kind == OTHER) {
+            return chunk.objects[i];
+        }
+        Color color = new Color(chunk.colors[i], true);
+        byte flags = chunk.flags[i];
+        boolean filled = (flags & FILLED) != 0;
+        boolean flipX = (flags & FLIP_X) != 0;
+        boolean flipY = (flags & FLIP_Y) != 0;
+        int x1 = flipX ? chunk.hitRight[i] : chunk.hitLeft[i];
+        int y1 = flipY ? chunk.hitBottom[i] : chunk.hitTop[i];
+        int x2 = flipX ? chunk.hitLeft[i] : chunk.hitRight[i];
+        int y2 = flipY ? chunk.hitTop[i] : chunk.hitBottom[i];
+        Shape shape;
+        switch (kind) {
+            case LINE:
+                shape = new Line(color, x1, y1, x2, y2, filled);
+                break;
+            case RECTANGLE:
+                shape = new Rectangle(color, x1, y1, x2, y2, filled);
+                break;
+            default:
+                shape = new Circle(color, x1, y1, x2, y2, filled);
+                break;
+        }
+        shape.setStrokeWidth(chunk.strokeWidths[i]);
+        return shape;
+    }
+
+    /**
+     * Gets a copy of the shape of a row that may be changed and stored again with set()
+     */
+    public Shape copyShape(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        return chunk.kinds[i] == OTHER ? chunk.objects[i].copy() : getShape(row);
+    }
+
+    /**
+     * Gets the Shape object a row is drawn by
+     *
+     * @return The stored object, which must not be changed, or null for lines, rectangles
+     *         and circles, which are stored as columns only
+     */
+    public Shape getObject(int row) {
+        return chunks[row >> CHUNK_SHIFT].object(row & (CHUNK_ROWS - 1));
+    }
+
+    /**
+     * Gets the handle given out for a row
+     *
+     * @return The handle, or null if none was made for the row yet
+     */
+    ShapeHandle getHandle(int row) {
+        return chunks[row >> CHUNK_SHIFT].handle(row & (CHUNK_ROWS - 1));
+    }
+
+    /**
+     * Remembers the handle of a row and tells it its row
+     * Frozen versions sharing the chunk hold the same shape in that row, so the handle
+     * is stored without copying the chunk; frozen versions never read the handles
+     * on other threads.
+     */
+    void setHandle(int row, ShapeHandle handle) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        if (chunk.handles == null) {
+            if (handle == null) {
+                return;
+            }
+            chunk.handles = new ShapeHandle[chunk.capacity()];
+        }
+        chunk.handles[row & (CHUNK_ROWS - 1)] = handle;
+        if (handle != null) {
+            handle.setRow(row);
+        }
+    }
+
+    /**
+     * Gets the left edge of the painted area of a row, like Shape.getBounds()
+     */
+    public int getLeft(int row) {
+        return chunks[row >> CHUNK_SHIFT].boundsLeft[row & (CHUNK_ROWS - 1)];
+    }
+
+    /**
+     * Gets the top edge of the painted area of a row
+     */
+    public int getTop(int row) {
+        return chunks[row >> CHUNK_SHIFT].boundsTop[row & (CHUNK_ROWS - 1)];
+    }
+
+    /**
+     * Gets the right edge of the painted area of a row
+     */
+    public int getRight(int row) {
+        return chunks[row >> CHUNK_SHIFT].boundsRight[row & (CHUNK_ROWS - 1)];
+    }
+
+    /**
+     * Gets the bottom edge of the painted area of a row
+     */
+    public int getBottom(int row) {
+        return chunks[row >> CHUNK_SHIFT].boundsBottom[row & (CHUNK_ROWS - 1)];
+    }
+
+    /**
+     * Gets the painted area of a row, like Shape.getBounds()
+     */
+    public java.awt.Rectangle getBounds(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        return new java.awt.Rectangle(chunk.boundsLeft[i], chunk.boundsTop[i],
+            chunk.boundsRight[i] - chunk.boundsLeft[i], chunk.boundsBottom[i] - chunk.boundsTop[i]);
+    }
+
+    /**
+     * Finds the topmost shape that contains a point
+     * Rows are ruled out a block at a time by their hit-test boxes; only shapes with
+     * more detailed geometry are then asked with Shape.containsPoint.
+     *
+     * @return The row of the shape, or -1 if no shape contains the point
+     */
+    public int shapeAt(int x, int y) {
+        int[] mask = new int[HitKernels.BLOCK];
+        for (int c = chunks.length - 1; c >= 0; c--) {
+            Chunk chunk = chunks[c];
+            for (int end = rowsIn(c); end > 0; end -= HitKernels.BLOCK) {
+                int start = Math.max(0, end - HitKernels.BLOCK);
+                HitKernels.containsPoint(chunk.hitLeft, chunk.hitTop, chunk.hitRight, chunk.hitBottom,
+                    start, end, x, y, mask);
+                for (int i = end - 1; i >= start; i--) {
+                    if (mask[i - start] != 0
+                            && ((chunk.flags[i] & EXACT_HIT) != 0 || chunk.objects[i].containsPoint(x, y))) {
+                        return (c << CHUNK_SHIFT) + i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds all shapes that touch a selection rectangle or lasso
+     * Rows are ruled out a block at a time by their hit-test boxes against the bounds of
+     * the region. The remaining boxes are tested against the region itself, and shapes
+     * with more detailed geometry are asked with Shape.intersects. Large columns are
+     * split into ranges that are tested in parallel on the ForkJoin common pool.
+     *
+     * @param region Region in canvas coordinates
+     * @return The rows of the shapes that touch the region
+     */
+    public BitSet inRegion(SelectionRegion region) {
+        long[] words = new long[(size + 63) / 64];
+        if (size <= ROWS_PER_TASK) {
+            inRegion(region, 0, size, words);
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int from = 0; from < size; from += ROWS_PER_TASK) {
+                int start = from;
+                int end = Math.min(size, from + ROWS_PER_TASK);
+                tasks.add(ForkJoinTask.adapt(() -> inRegion(region, start, end, words)));
+            }
+            ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Tests a range of rows against a region and sets the bits of the rows that touch it
+     * Ranges start at a multiple of CHUNK_ROWS, so parallel ranges never share a word
+     * and no block reaches into the next chunk.
+     */
+    private void inRegion(SelectionRegion region, int from, int to, long[] words) {
+        java.awt.Rectangle area = region.getBounds();
+        int[] mask = new int[HitKernels.BLOCK];
+        for (int start = from; start < to; start += HitKernels.BLOCK) {
+            Chunk chunk = chunks[start >> CHUNK_SHIFT];
+            int first = start & (CHUNK_ROWS - 1);
+            int last = first + Math.min(to - start, HitKernels.BLOCK);
+            HitKernels.intersects(chunk.hitLeft, chunk.hitTop, chunk.hitRight, chunk.hitBottom, first, last,
+                area.x, area.y, area.x + area.width, area.y + area.height, mask);
+            for (int i = first; i < last; i++) {
+                if (mask[i - first] != 0 && ((chunk.flags[i] & EXACT_HIT) != 0
+                        ? region.intersectsBox(chunk.hitLeft[i], chunk.hitTop[i], chunk.hitRight[i], chunk.hitBottom[i])
+                        : chunk.objects[i].intersects(region))) {
+                    int row = start + i - first;
+                    words[row >> 6] |= 1L << row;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the rows whose painted bounds overlap a canvas area
+     * The rows tested end early at the end of a chunk.
+     *
+     * @param from First row to test
+     * @param to   Row after the last row to test; at most HitKernels.BLOCK rows after from
+     * @param mask Receives 1 for an overlap and 0 otherwise, at index row - from
+     * @return Row after the last row tested
+     */
+    public int overlapping(int from, int to, int left, int top, int right, int bottom, int[] mask) {
+        Chunk chunk = chunks[from >> CHUNK_SHIFT];
+        int first = from & (CHUNK_ROWS - 1);
+        int last = first + Math.min(to - from, CHUNK_ROWS - first);
+        HitKernels.intersects(chunk.boundsLeft, chunk.boundsTop, chunk.boundsRight, chunk.boundsBottom,
+            first, last, left, top, right, bottom, mask);
+        return from + last - first;
+    }
+
+    /**
+     * Draws one row through a planner, which sets the color and stroke only when they
+     * change
+     *
+     * @param row     Row to draw
+     * @param planner Planner of the graphics to draw on
+     */
+    public void draw(int row, RenderPlanner planner) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        byte kind = chunk.kinds[i];
+        if (kind == OTHER) {
+            planner.shape(chunk.objects[i]);
+            return;
+        }
+
+        byte flags = chunk.flags[i];
+        boolean filled = (flags & FILLED) != 0;
+        int x = chunk.hitLeft[i];
+        int y = chunk.hitTop[i];
+        int width = chunk.hitRight[i] - x;
+        int height = chunk.hitBottom[i] - y;
+        switch (kind) {
+            case LINE:
+                int x1 = (flags & FLIP_X) != 0 ? x + width : x;
+                int y1 = (flags & FLIP_Y) != 0 ? y + height : y;
+                planner.line(chunk.colors[i], chunk.strokeWidths[i], x1, y1, 2 * x + width - x1, 2 * y + height - y1);
+                break;
+            case RECTANGLE:
+                planner.rectangle(chunk.colors[i], chunk.strokeWidths[i], filled, x, y, width, height);
+                break;
+            default:
+                planner.oval(chunk.colors[i], chunk.strokeWidths[i], filled, x, y, width, height);
+                break;
+        }
+    }
+
+    /**
+     * Fills the area in which a row is found by a click, grown by a margin, like
+     * Shape.drawPickMask
+     *
+     * @param row      Row to draw
+     * @param g2d      Graphics of the pick buffer with the canvas transform applied
+     * @param dilation Margin in canvas units added on every side
+     */
+    public void drawPickMask(int row, Graphics2D g2d, double dilation) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int i = row & (CHUNK_ROWS - 1);
+        if (chunk.kinds[i] == OTHER) {
+            chunk.objects[i].drawPickMask(g2d, dilation);
+            return;
+        }
+        g2d.fill(new java.awt.geom.Rectangle2D.Double(chunk.hitLeft[i] - dilation, chunk.hitTop[i] - dilation,
+            chunk.hitRight[i] - chunk.hitLeft[i] + 2 * dilation, chunk.hitBottom[i] - chunk.hitTop[i] + 2 * dilation));
+    }
+
+    /**
+     * Gets the number of rows used in a chunk
+     */
+    private int rowsIn(int c) {
+        return Math.min(CHUNK_ROWS, size - (c << CHUNK_SHIFT));
+    }
+
+    /**
+     * Gets the chunk of a row ready to be changed, copying it if a frozen version can see the row
+     */
+    private Chunk changeable(int row) {
+        checkChangeable();
+        int c = row >> CHUNK_SHIFT;
+        Chunk chunk = chunks[c];
+        return (row & (CHUNK_ROWS - 1)) < chunk.frozenRows ? copy(c) : chunk;
+    }
+
+    /**
+     * Replaces a chunk by a copy that no frozen version shares
+     */
+    private Chunk copy(int c) {
+        Chunk chunk = new Chunk(chunks[c], chunks[c].capacity());
+        chunks[c] = chunk;
+        return chunk;
+    }
+
+    /**
+     * Copies all columns and the handle of a row to another row
+     */
+    private void copyRow(int from, int to) {
+        Chunk source = chunks[from >> CHUNK_SHIFT];
+        int i = from & (CHUNK_ROWS - 1);
+        Chunk target = changeable(to);
+        int j = to & (CHUNK_ROWS - 1);
+        target.kinds[j] = source.kinds[i];
+        target.flags[j] = source.flags[i];
+        target.boundsLeft[j] = source.boundsLeft[i];
+        target.boundsTop[j] = source.boundsTop[i];
+        target.boundsRight[j] = source.boundsRight[i];
+        target.boundsBottom[j] = source.boundsBottom[i];
+        target.hitLeft[j] = source.hitLeft[i];
+        target.hitTop[j] = source.hitTop[i];
+        target.hitRight[j] = source.hitRight[i];
+        target.hitBottom[j] = source.hitBottom[i];
+        target.colors[j] = source.colors[i];
+        target.strokeWidths[j] = source.strokeWidths[i];
+        setObject(target, j, source.object(i));
+        ShapeHandle handle = source.handle(i);
+        if (handle != null || target.handles != null) {
+            setHandle(to, handle);
+        }
+    }
+
+    /**
+     * Drops the rows from a new size on
+     * Chunks no longer needed are let go; the rest of a chunk of its own is cleared so
+     * it does not keep removed shapes alive.
+     */
+    private void truncate(int newSize) {
+        size = newSize;
+        int used = (newSize + CHUNK_ROWS - 1) >> CHUNK_SHIFT;
+        if (used < chunks.length) {
+            chunks = Arrays.copyOf(chunks, used);
+        }
+        if (used > 0) {
+            Chunk last = chunks[used - 1];
+            int from = Math.max(rowsIn(used - 1), last.frozenRows);
+            if (from < last.capacity() && last.objects != null) {
+                Arrays.fill(last.objects, from, last.capacity(), null);
+            }
+            if (from < last.capacity() && last.handles != null) {
+                Arrays.fill(last.handles, from, last.capacity(), null);
+            }
+        }
+    }
+
+    /**
+     * Stops changes of a frozen version
+     */
+    private void checkChangeable() {
+        if (frozen) {
+            throw new IllegalStateException("Frozen columns cannot be changed");
+        }
+    }
+
+    /**
+     * Writes the columns of a shape into a row of a chunk
+     */
+    private static void write(Chunk chunk, int i, Shape shape) {
+        Class<?> type = shape.getClass();
+        byte kind = type == Line.class ? LINE : type == Rectangle.class ? RECTANGLE : type == Circle.class ? OVAL : OTHER;
+        chunk.kinds[i] = kind;
+        chunk.flags[i] = (byte) ((shape.isFilled() ? FILLED : 0) | (BOX_HIT_TEST.get(type) ? EXACT_HIT : 0)
+            | (shape.x1 > shape.x2 ? FLIP_X : 0) | (shape.y1 > shape.y2 ? FLIP_Y : 0));
+        java.awt.Rectangle box = shape.getBounds();
+        chunk.boundsLeft[i] = box.x;
+        chunk.boundsTop[i] = box.y;
+        chunk.boundsRight[i] = box.x + box.width;
+        chunk.boundsBottom[i] = box.y + box.height;
+        java.awt.Rectangle hit = shape.getHitBounds();
+        chunk.hitLeft[i] = hit.x;
+        chunk.hitTop[i] = hit.y;
+        chunk.hitRight[i] = hit.x + hit.width;
+        chunk.hitBottom[i] = hit.y + hit.height;
+        chunk.colors[i] = shape.color == null ? 0 : shape.color.getRGB();
+        chunk.strokeWidths[i] = shape.getStrokeWidth();
+        setObject(chunk, i, kind == OTHER ? shape : null);
+    }
+
+    /**
+     * Stores the Shape object of a row, making the object column of the chunk when first needed
+     */
+    private static void setObject(Chunk chunk, int i, Shape shape) {
+        if (chunk.objects == null) {
+            if (shape == null) {
+                return;
+            }
+            chunk.objects = new Shape[chunk.capacity()];
+        }
+        chunk.objects[i] = shape;
+    }
+}
@@ -0,0 +1,187 @@
+import java.awt.*;
+import java.util.function.Consumer;
+
+/**
+ * ShapeHandle stands for one shape stored in the columns of a layer
+ * Layers keep their shapes as rows of ShapeColumns, not as Shape objects. A handle is
+ * made the first time a row is asked for through getShapes() or a hit-test, and the
+ * columns keep its row up to date when shapes are removed or reordered. The handle
+ * itself holds no shape data: reading methods ask the row, and changing methods
+ * change the row through the layer, so the change is reported and undo keeps the old
+ * version. Handles must only be used on the Event Dispatch Thread.
+ *
+ * A handle whose shape was removed from its layer keeps the last version of the shape.
+ */
+public class ShapeHandle extends Shape {
+    private static final long serialVersionUID = 1L;
+    private Layer layer;     // Layer that holds the shape, or null once it was removed
+    private int row;         // Row of the shape in the layer's columns
+    private Shape removed;   // Last version of the shape after it was removed, or null
+
+    /**
+     * Constructor - creates the handle of a row
+     *
+     * @param layer The layer that holds the shape
+     * @param row   The row of the shape in the layer's columns
+     */
+    ShapeHandle(Layer layer, int row) {
+        super(null, 0, 0, 0, 0, false);
+        this.layer = layer;
+        this.row = row;
+    }
+
+    /**
+     * Gets the layer that holds the shape
+     *
+     * @return The layer, or null if the shape was removed
+     */
+    Layer getLayer() {
+        return layer;
+    }
+
+    /**
+     * Gets the row of the shape in the layer's columns
+     */
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Tells the handle its new row, after the rows of the layer have moved
+     */
+    void setRow(int row) {
+        this.row = row;
+    }
+
+    /**
+     * Binds the handle to a row of a layer again, e.g. after an undo put its shape back
+     */
+    void attach(Layer layer, int row) {
+        this.layer = layer;
+        this.row = row;
+        this.removed = null;
+    }
+
+    /**
+     * Unbinds the handle after its shape was removed from the layer
+     *
+     * @param last Copy of the shape as it was when it was removed
+     */
+    void detach(Shape last) {
+        this.layer = null;
+        this.removed = last;
+    }
+
+    /**
+     * Gets the current version of the shape, which must not be changed
+     */
+    private Shape value() {
+        return layer != null ? layer.getColumns().getShape(row) : removed;
+    }
+
+    /**
+     * Changes the shape through its layer, or the removed version if it has none
+     */
+    private void change(Consumer<Shape> change) {
+        if (layer == null) {
+            change.accept(removed);
+            return;
+        }
+        Shape shape = layer.getColumns().copyShape(row);
+        change.accept(shape);
+        layer.setShape(row, shape);
+    }
+
+    @Override
+    public void draw(Graphics g) {
+        value().draw(g);
+    }
+
+    @Override
+    public void setEndPoint(int x2, int y2) {
+        change(shape -> shape.setEndPoint(x2, y2));
+    }
+
+    @Override
+    public void setFilled(boolean filled) {
+        change(shape -> shape.setFilled(filled));
+    }
+
+    @Override
+    public boolean isFilled() {
+        return value().isFilled();
+    }
+
+    @Override
+    public void move(int dx, int dy) {
+        change(shape -> shape.move(dx, dy));
+    }
+
+    @Override
+    public void scale(double sx, double sy, int originX, int originY) {
+        change(shape -> shape.scale(sx, sy, originX, originY));
+    }
+
+    @Override
+    public void setColor(Color color) {
+        change(shape -> shape.setColor(color));
+    }
+
+    @Override
+    public void setStrokeWidth(float width) {
+        change(shape -> shape.setStrokeWidth(width));
+    }
+
+    @Override
+    public float getStrokeWidth() {
+        return value().getStrokeWidth();
+    }
+
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return layer != null ? layer.getColumns().getBounds(row) : removed.getBounds();
+    }
+
+    @Override
+    public java.awt.Rectangle getHandleBounds() {
+        return value().getHandleBounds();
+    }
+
+    @Override
+    public boolean containsPoint(int x, int y) {
+        return value().containsPoint(x, y);
+    }
+
+    @Override
+    public java.awt.Rectangle getHitBounds() {
+        return value().getHitBounds();
+    }
+
+    @Override
+    public boolean intersects(SelectionRegion region) {
+        return value().intersects(region);
+    }
+
+    @Override
+    public void drawPickMask(Graphics2D g2d, double dilation) {
+        value().drawPickMask(g2d, dilation);
+    }
+
+    @Override
+    public boolean isResizeHandle(int x, int y) {
+        return value().isResizeHandle(x, y);
+    }
+
+    @Override
+    public void drawSelectionHandles(Graphics g) {
+        value().drawSelectionHandles(g);
+    }
+
+    /**
+     * Gets a copy of the current version of the shape, not bound to the layer
+     */
+    @Override
+    public Shape copy() {
+        return layer != null ? layer.getColumns().copyShape(row) : removed.copy();
+    }
+}
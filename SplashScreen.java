@@ -4,11 +4,15 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A splash screen that displays when the application starts up
  * This creates a professional-looking loading screen similar to Adobe Photoshop
- * It shows a logo, title, and progress bar with fade-in and fade-out animations
+ * It shows a logo, title, and a progress bar that follows the real start-up work:
+ * the warm-up tasks of StartupWarmup run on worker threads while the main window is
+ * built on the Event Dispatch Thread, and the window opens as soon as all of it is done
  */
 public class SplashScreen extends JWindow {
     // Constants for splash screen size and timing
@@ -17,11 +21,11 @@ public class SplashScreen extends JWindow {
     
     // UI components and animation properties
     private JProgressBar progressBar;    // Shows loading progress
-    private Timer timer;                 // Controls the progress updates
-    private int progress = 0;            // Current progress (0-100)
+    private int stepsDone = 0;           // Start-up steps finished so far
+    private int stepCount;               // Start-up steps in total (warm-up tasks and main window)
+    private JFrame mainFrame;            // Main window, shown when all steps are done
     private float opacity = 0.0f;        // Current opacity for fade effects
     private Timer fadeInTimer;           // Controls fade-in animation
-    private Timer fadeOutTimer;          // Controls fade-out animation
     
     /**
      * Constructor - creates the splash screen with all its visual elements
@@ -48,6 +52,7 @@ public class SplashScreen extends JWindow {
                 g2d.setColor(new Color(100, 100, 100));
                 g2d.setStroke(new BasicStroke(2));
                 g2d.draw(new RoundRectangle2D.Float(1, 1, getWidth()-3, getHeight()-3, 15, 15));
+                StartupProfile.mark(StartupProfile.SPLASH, null);
             }
         };
         panel.setLayout(new BorderLayout());
@@ -160,10 +165,12 @@ public class SplashScreen extends JWindow {
     }
     
     /**
-     * Shows the splash screen with animations
-     * First fades in, then shows progress, then fades out and launches the main app
+     * Shows the splash screen and starts loading the application
+     * The splash fades in while the warm-up tasks run and the main window is built;
+     * once everything is done the splash closes and the main window is shown
      * 
-     * @param mainFrame The main application frame to show after splash screen
+     * @param mainFrame The main application frame to show after splash screen,
+     *                  or null to build a new DrawingApp
      */
     public void showSplash(final JFrame mainFrame) {
         // Setup fade-in timer - gradually increases opacity from 0 to 1
@@ -178,7 +185,6 @@ public class SplashScreen extends JWindow {
                     }
                 } else {
                     fadeInTimer.stop();
-                    startProgressTimer();  // Start showing progress after fade-in completes
                 }
             }
         });
@@ -186,56 +192,39 @@ public class SplashScreen extends JWindow {
         // Start fade-in animation
         setVisible(true);
         fadeInTimer.start();
-    }
-    
-    /**
-     * Starts the progress timer to simulate loading
-     * Updates the progress bar from 0% to 100%
-     */
-    private void startProgressTimer() {
-        // Setup progress timer - updates progress bar every 30ms
-        timer = new Timer(30, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                progress += 1;  // Increment progress by 1%
-                progressBar.setValue(progress);
-                
-                if (progress >= 100) {
-                    timer.stop();
-                    startFadeOutTimer();  // Start fade-out when progress reaches 100%
-                }
-            }
+        
+        // Start the warm-up tasks on worker threads, one progress step each
+        Map<String, Runnable> tasks = StartupWarmup.getTasks();
+        stepCount = tasks.size() + 1;
+        progressBar.setMaximum(stepCount);
+        for (Map.Entry<String, Runnable> task : tasks.entrySet()) {
+            CompletableFuture.runAsync(() -> StartupWarmup.run(task.getKey(), task.getValue()))
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                    }
+                    SwingUtilities.invokeLater(this::stepDone);
+                });
+        }
+        
+        // Build the main window meanwhile on the Event Dispatch Thread
+        SwingUtilities.invokeLater(() -> {
+            this.mainFrame = mainFrame != null ? mainFrame : new DrawingApp();
+            stepDone();
         });
-        timer.start();
     }
     
     /**
-     * Starts the fade-out timer after loading completes
-     * Gradually decreases opacity from 1 to 0, then launches the main app
+     * Counts one finished start-up step and opens the main window after the last one
      */
-    private void startFadeOutTimer() {
-        // Setup fade-out timer - gradually decreases opacity from 1 to 0
-        fadeOutTimer = new Timer(50, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (opacity > 0.0f) {
-                    opacity -= 0.1f;  // Decrease opacity by 10% each step
-                    if (opacity < 0.0f) opacity = 0.0f;
-                    if (isTranslucencySupported()) {
-                        setOpacity(opacity);
-                    }
-                } else {
-                    fadeOutTimer.stop();
-                    dispose();  // Remove splash screen from memory
-                    
-                    // Show the main application frame
-                    SwingUtilities.invokeLater(() -> {
-                        DrawingApp app = new DrawingApp();
-                        app.setVisible(true);
-                    });
-                }
-            }
-        });
-        fadeOutTimer.start();
+    private void stepDone() {
+        stepsDone++;
+        progressBar.setValue(stepsDone);
+        if (stepsDone == stepCount) {
+            fadeInTimer.stop();
+            mainFrame.setVisible(true);
+            StartupProfile.mark(StartupProfile.FRAME, null);
+            dispose();  // Remove splash screen from memory
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,188 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StartupBenchmark measures cold starts of the application with and without the
+ * class-data-sharing archive made by build.sh
+ * Run it with: java -cp build/drawingtool.jar StartupBenchmark [runs] [--save-baseline]
+ *
+ * Every run starts a new JVM with DrawingApp, which reports its start-up milestones
+ * (see StartupProfile) and exits after the first paint of the canvas. The benchmark
+ * prints the median time from launching the JVM to the splash screen, the main window
+ * and the first paint. The runs with and without the archive take turns so both see
+ * the same machine load.
+ *
+ * When a baseline file exists, a median more than 20% (and 50 ms) slower than the
+ * baseline makes the benchmark exit with status 1, which stops build.sh. With
+ * --save-baseline the measured medians are written as the new baseline instead.
+ *
+ * Settings (system properties):
+ *   drawingtool.startup.archive  - archive file (default drawingtool.jsa next to the jar)
+ *   drawingtool.startup.baseline - baseline file (default startup-baseline.properties)
+ */
+public class StartupBenchmark {
+    private static final String[] MILESTONES = {
+        StartupProfile.SPLASH, StartupProfile.FRAME, StartupProfile.PAINT
+    };
+    private static final double TOLERANCE = 0.2;      // Allowed slowdown against the baseline
+    private static final long SLACK_MILLIS = 50;      // Allowed slowdown for very short times
+    private static final long TIMEOUT_SECONDS = 120;  // Longest a single start may take
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = 5;
+        boolean saveBaseline = false;
+        for (String arg : args) {
+            if (arg.equals("--save-baseline")) {
+                saveBaseline = true;
+            } else {
+                runs = Integer.parseInt(arg);
+            }
+        }
+        String classPath = System.getProperty("java.class.path");
+        File archive = new File(System.getProperty("drawingtool.startup.archive",
+            new File(new File(classPath.split(File.pathSeparator)[0]).getAbsoluteFile().getParentFile(),
+                     "drawingtool.jsa").getPath()));
+        File baselineFile = new File(System.getProperty("drawingtool.startup.baseline",
+            "startup-baseline.properties"));
+
+        // One list of times per variant and milestone
+        Map<String, List<Long>> times = new HashMap<>();
+        List<String> variants = new ArrayList<>();
+        variants.add("default");
+        if (archive.isFile()) {
+            variants.add("archive");
+        } else {
+            System.out.println("No archive at " + archive + ", run build.sh to create it");
+        }
+
+        // Start once per variant first, so the class files are in the OS cache for all runs
+        for (String variant : variants) {
+            start(classPath, variant.equals("archive") ? archive : null);
+        }
+        for (int run = 0; run < runs; run++) {
+            for (String variant : variants) {
+                Map<String, Long> result = start(classPath, variant.equals("archive") ? archive : null);
+                for (String milestone : MILESTONES) {
+                    times.computeIfAbsent(variant + "." + milestone, key -> new ArrayList<>())
+                        .add(result.get(milestone));
+                }
+            }
+        }
+
+        Properties medians = new Properties();
+        System.out.println(String.format("%-10s %10s %10s %10s", "ms", MILESTONES[0], MILESTONES[1], MILESTONES[2]));
+        for (String variant : variants) {
+            StringBuilder line = new StringBuilder(String.format("%-10s", variant));
+            for (String milestone : MILESTONES) {
+                long median = median(times.get(variant + "." + milestone));
+                medians.setProperty(variant + "." + milestone, Long.toString(median));
+                line.append(String.format(" %10d", median));
+            }
+            System.out.println(line);
+        }
+
+        if (saveBaseline) {
+            try (FileWriter out = new FileWriter(baselineFile)) {
+                medians.store(out, "Start-up medians in milliseconds, written by StartupBenchmark");
+            }
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+        if (!baselineFile.isFile()) {
+            System.out.println("No baseline at " + baselineFile + ", run with --save-baseline to create it");
+            return;
+        }
+
+        Properties baseline = new Properties();
+        try (FileReader in = new FileReader(baselineFile)) {
+            baseline.load(in);
+        }
+        boolean regressed = false;
+        for (String key : medians.stringPropertyNames()) {
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                continue;
+            }
+            long limit = Math.max((long) (Long.parseLong(expected) * (1 + TOLERANCE)),
+                                  Long.parseLong(expected) + SLACK_MILLIS);
+            long measured = Long.parseLong(medians.getProperty(key));
+            if (measured > limit) {
+                System.out.println("Regression: " + key + " took " + measured + " ms, baseline "
+                    + expected + " ms, limit " + limit + " ms");
+                regressed = true;
+            }
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+        System.out.println("Start-up is within " + Math.round(TOLERANCE * 100) + "% of the baseline");
+    }
+
+    /**
+     * Starts the application once and waits until it exits after its first paint
+     *
+     * @param archive The class-data-sharing archive to use, or null to start without one
+     * @return The time from launching the JVM to each milestone, in milliseconds
+     */
+    private static Map<String, Long> start(String classPath, File archive) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        if (archive != null) {
+            // Fail instead of silently starting without the archive if it does not match
+            command.add("-Xshare:on");
+            command.add("-XX:SharedArchiveFile=" + archive.getPath());
+        }
+        command.addAll(Arrays.asList(
+            "-Ddrawingtool.startup.report=true",
+            "-Ddrawingtool.startup.exit=true",
+            "-cp", classPath,
+            "DrawingApp"));
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        long launched = System.currentTimeMillis();
+        Process process = builder.start();
+        Map<String, Long> result = new HashMap<>();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && parts[0].equals("startup")) {
+                    result.put(parts[1], Long.parseLong(parts[2]) - launched);
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+        for (String milestone : MILESTONES) {
+            if (!result.containsKey(milestone)) {
+                throw new IllegalStateException("The application did not report '" + milestone
+                    + "' (exit status " + process.exitValue() + "):\n" + output);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the median of a list of times
+     */
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        return sorted.get(sorted.size() / 2);
+    }
+}
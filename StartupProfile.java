@@ -0,0 +1,113 @@
+import javax.swing.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * StartupProfile records when the application reaches its start-up milestones
+ * The milestones are the splash screen being painted, the main window being shown and
+ * the first paint of the canvas. StartupBenchmark starts the application with these
+ * settings to measure cold starts, and build.sh uses the training run to create the
+ * class-data-sharing archive that drawingtool.sh starts the application with.
+ *
+ * Settings (system properties):
+ *   drawingtool.startup.report - "true" prints "startup <milestone> <epoch millis>" lines
+ *   drawingtool.startup.exit   - "true" exits after the first paint of the canvas;
+ *                                "train" first draws every kind of shape and exports
+ *                                the drawing, so all of that code gets loaded
+ *
+ * All methods must be called on the Event Dispatch Thread.
+ */
+public class StartupProfile {
+    public static final String SPLASH = "splash"; // The splash screen was painted
+    public static final String FRAME = "frame";   // The main window was shown
+    public static final String PAINT = "paint";   // The canvas was painted for the first time
+
+    private static final boolean REPORT = Boolean.getBoolean("drawingtool.startup.report");
+    private static final String EXIT = System.getProperty("drawingtool.startup.exit", "");
+    private static final Set<String> reached = new HashSet<>(); // Milestones already recorded
+
+    private StartupProfile() {
+        // Only holds static methods
+    }
+
+    /**
+     * Records a milestone the first time it is reached
+     * After the first paint the application exits if drawingtool.startup.exit asks for it
+     *
+     * @param milestone SPLASH, FRAME or PAINT
+     * @param panel     The canvas, used by the training run; may be null for other milestones
+     */
+    public static void mark(String milestone, DrawingPanel panel) {
+        if (!reached.add(milestone)) {
+            return;
+        }
+        if (REPORT) {
+            System.out.println("startup " + milestone + " " + System.currentTimeMillis());
+        }
+        if (milestone.equals(PAINT) && !EXIT.isEmpty()) {
+            // Leave the paint that reached the milestone first
+            SwingUtilities.invokeLater(() -> {
+                if (EXIT.equals("train")) {
+                    train(panel);
+                }
+                System.exit(0);
+            });
+        }
+    }
+
+    /**
+     * Uses the editor the way a short session would: draws each kind of shape, selects
+     * and moves one, undoes and redoes, zooms and exports the drawing
+     */
+    private static void train(DrawingPanel panel) {
+        String[] tools = {"Line", "Rectangle", "Circle", "Free"};
+        for (int i = 0; i < tools.length; i++) {
+            panel.setShape(tools[i]);
+            panel.setFilled(i % 2 == 1);
+            drag(panel, 40 + i * 60, 40, 90 + i * 60, 100);
+        }
+        panel.setFilled(false);
+        panel.setCurrentImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+        drag(panel, 40, 140, 80, 180);
+        panel.setCurrentText("Text");
+        drag(panel, 120, 160, 120, 160);
+
+        panel.setSelectMode(true);
+        drag(panel, 65, 70, 75, 80);
+        drag(panel, 10, 10, 300, 200);
+        panel.undo();
+        panel.redo();
+        panel.zoomIn();
+        panel.resetView();
+        panel.paintImmediately(0, 0, panel.getWidth(), panel.getHeight());
+
+        try {
+            File file = File.createTempFile("drawingtool-training", ".png");
+            panel.saveDrawing(file);
+            file.delete();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a mouse press, a few drags and a release to the canvas
+     */
+    private static void drag(DrawingPanel panel, int x1, int y1, int x2, int y2) {
+        long when = System.currentTimeMillis();
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_PRESSED, when,
+            MouseEvent.BUTTON1_DOWN_MASK, x1, y1, 1, false, MouseEvent.BUTTON1));
+        for (int step = 1; step <= 4; step++) {
+            int x = x1 + (x2 - x1) * step / 4;
+            int y = y1 + (y2 - y1) * step / 4;
+            panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_DRAGGED, when + step,
+                MouseEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.NOBUTTON));
+        }
+        panel.dispatchEvent(new MouseEvent(panel, MouseEvent.MOUSE_RELEASED, when + 5,
+            0, x2, y2, 1, false, MouseEvent.BUTTON1));
+    }
+}
@@ -0,0 +1,132 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * StartupWarmup holds the work done behind the splash screen before the editor opens
+ * Each task loads something the editor would otherwise load the first time the user
+ * needs it: the font list, the ImageIO plug-ins, the icons and checkerboard, and the
+ * code that draws and hit-tests shapes. The tasks are independent of each other and of
+ * the Swing components, so the splash screen runs them at the same time on worker threads.
+ */
+public class StartupWarmup {
+    private static final int SHAPE_ROUNDS = 200; // Times the sample layer is drawn and hit-tested
+
+    private StartupWarmup() {
+        // Only holds static tasks
+    }
+
+    /**
+     * Gets the warm-up tasks by name, in the order they should be started
+     */
+    public static Map<String, Runnable> getTasks() {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("Fonts", StartupWarmup::loadFonts);
+        tasks.put("Image formats", StartupWarmup::loadImageFormats);
+        tasks.put("Icons", StartupWarmup::prepareImages);
+        tasks.put("Shapes", StartupWarmup::exerciseShapes);
+        return Collections.unmodifiableMap(tasks);
+    }
+
+    /**
+     * Runs one task and records how long it took
+     * Errors are printed and do not stop the start-up; the editor loads the rest lazily
+     */
+    public static void run(String name, Runnable task) {
+        DrawingEvents.WarmupEvent event = new DrawingEvents.WarmupEvent();
+        event.begin();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.task = name;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts loading the font catalog and lays out text in the editor's default font
+     * The catalog keeps loading in the background, so a slow font list does not hold up
+     * the start; the first text shape finds its font already loaded
+     */
+    private static void loadFonts() {
+        FontCatalog.getFamilyNames();
+        BufferedImage image = new BufferedImage(64, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        for (Font font : new Font[] {
+                new Font("Arial", Font.PLAIN, 12),
+                new Font("Arial", Font.BOLD, 24),
+                new Font(Font.DIALOG, Font.PLAIN, 12)}) {
+            g2d.setFont(font);
+            g2d.drawString("Layer 1 0123456789", 0, 12);
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * Loads the ImageIO plug-ins and writes and reads back a small PNG
+     * Opening or exporting the first image then does not pay for the plug-in scan
+     */
+    private static void loadImageFormats() {
+        ImageIO.getReaderFormatNames();
+        ImageIO.getWriterFormatNames();
+        try {
+            BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Draws the layer icons and the checkerboard tile, which are cached for the editor
+     */
+    private static void prepareImages() {
+        LayerPanel.prepareIcons();
+        DrawingPanel.checkerboardPaint();
+    }
+
+    /**
+     * Draws and hit-tests a layer with one shape of every kind a number of times
+     * so the drawing code is compiled before the user starts working
+     */
+    private static void exerciseShapes() {
+        BufferedImage picture = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        FreeDrawing stroke = new FreeDrawing(Color.BLACK, 5, 5, 5, 5, false);
+        for (int i = 1; i < 20; i++) {
+            stroke.addPoint(5 + i * 3, 5 + (i % 4) * 5);
+        }
+        Layer layer = new Layer("Warm-up");
+        layer.addShape(new Line(Color.BLACK, 0, 0, 60, 40, false));
+        layer.addShape(new Rectangle(Color.RED, 10, 10, 50, 30, false));
+        layer.addShape(new Rectangle(Color.RED, 12, 12, 40, 20, true));
+        layer.addShape(new Circle(Color.BLUE, 20, 5, 60, 45, false));
+        layer.addShape(new Circle(Color.BLUE, 25, 10, 50, 35, true));
+        layer.addShape(stroke);
+        layer.addShape(new TextShape("Text", Color.BLACK, 5, 50, new Font("Arial", Font.PLAIN, 12)));
+        layer.addShape(new ImageShape(picture, 40, 40, 60, 60));
+
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        SelectionRegion region = SelectionRegion.rectangle(0, 0, 32, 32);
+        for (int i = 0; i < SHAPE_ROUNDS; i++) {
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            layer.draw(g2d);
+            g2d.dispose();
+            layer.getShapeAt(i % 64, (i * 7) % 64);
+            layer.getShapesIn(region);
+        }
+    }
+}
@@ -16,14 +16,43 @@ public class Text extends Shape{
         g2d.setColor(color);
         g2d.setFont(font);
         g2d.drawString(text, x1, y1);
-        drawSelectionHandles(g);
+    }
+    
+    @Override
+    public java.awt.Rectangle getBounds() {
+        java.awt.Rectangle bounds = TextShape.textBounds(text, font, x1, y1);
+        return bounds.union(super.getBounds());
+    }
+    
+    @Override
+    public void drawPickMask(Graphics2D g2d, double dilation) {
+        java.awt.geom.Rectangle2D box = hitBox();
+        g2d.fill(new java.awt.geom.Rectangle2D.Double(box.getX() - dilation, box.getY() - dilation,
+            box.getWidth() + 2 * dilation, box.getHeight() + 2 * dilation));
+    }
+    
+    @Override
+    public java.awt.Rectangle getHitBounds() {
+        java.awt.geom.Rectangle2D box = hitBox();
+        int left = (int) Math.floor(box.getMinX());
+        int top = (int) Math.floor(box.getMinY());
+        return new java.awt.Rectangle(left, top,
+            (int) Math.ceil(box.getMaxX()) - left, (int) Math.ceil(box.getMaxY()) - top);
     }
     
     @Override
     public boolean containsPoint(int x, int y) {
-        FontMetrics fm = new FontMetrics(font) {};
-        int width = fm.stringWidth(text);
-        int height = fm.getHeight();
-        return x >= x1 && x <= x1 + width && y >= y1 - height && y <= y1;
+        java.awt.geom.Rectangle2D box = hitBox();
+        return x >= box.getMinX() && x <= box.getMaxX() && y >= box.getMinY() && y <= box.getMaxY();
+    }
+    
+    /**
+     * Gets the clickable box of the text: its advance width and line height above the baseline
+     * Measured from the font directly, since an empty FontMetrics subclass cannot measure strings
+     */
+    private java.awt.geom.Rectangle2D hitBox() {
+        java.awt.geom.Rectangle2D bounds = font.getStringBounds(text,
+            new java.awt.font.FontRenderContext(null, true, true));
+        return new java.awt.geom.Rectangle2D.Double(x1, y1 - bounds.getHeight(), bounds.getWidth(), bounds.getHeight());
     }
-} 
\ No newline at end of file
+}
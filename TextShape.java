@@ -34,6 +34,30 @@ public class TextShape extends Shape {
         g.drawString(text, x1, y1);
     }
     
+    /**
+     * Gets the area the text paints, measured from its font
+     * The text is drawn with its baseline at (x1,y1)
+     */
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return textBounds(text, font, x1, y1);
+    }
+    
+    /**
+     * Measures the area a string paints when drawn with its baseline at (x,y)
+     * Adds a margin for italic overhang and antialiasing
+     */
+    static java.awt.Rectangle textBounds(String text, Font font, int x, int y) {
+        java.awt.geom.Rectangle2D bounds = font.getStringBounds(text,
+            new java.awt.font.FontRenderContext(null, true, true));
+        int pad = font.getSize() / 4 + 2;
+        return new java.awt.Rectangle(
+            x + (int) Math.floor(bounds.getX()) - pad,
+            y + (int) Math.floor(bounds.getY()) - pad,
+            (int) Math.ceil(bounds.getWidth()) + 2 * pad,
+            (int) Math.ceil(bounds.getHeight()) + 2 * pad);
+    }
+    
     /**
      * Changes the text content
      * 
@@ -0,0 +1,140 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * TileCache stores rendered layer tiles for all layers under one memory budget
+ * Tiles are fixed-size squares of device pixels at a quantized zoom level. When the
+ * budget is exceeded, the least recently drawn tiles are evicted first.
+ *
+ * The budget is set with the drawingtool.tileCacheMB system property (default 256).
+ * All methods are synchronized because tiles are rendered on worker threads.
+ */
+public class TileCache {
+    public static final int TILE_SIZE = 256;                            // Tile width and height in device pixels
+    public static final long TILE_BYTES = (long) TILE_SIZE * TILE_SIZE * 4;
+
+    // Stored for tiles without any shape, so empty areas cost no memory
+    public static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+
+    private static final TileCache SHARED = new TileCache(Long.getLong("drawingtool.tileCacheMB", 256) * 1024 * 1024);
+
+    private final long budget;    // Maximum bytes of tile images
+    private long bytes;           // Bytes currently used by tile images
+    private final LinkedHashMap<Key, BufferedImage> tiles = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * Identifies one tile of one layer
+     */
+    public static final class Key {
+        final LayerCache owner;  // Cache of the layer the tile belongs to
+        final int level;         // Quantized zoom level (device pixels per canvas unit * 1000)
+        final int tx, ty;        // Tile column and row
+
+        Key(LayerCache owner, int level, int tx, int ty) {
+            this.owner = owner;
+            this.level = level;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        /**
+         * Gets the canvas area covered by this tile
+         */
+        java.awt.Rectangle canvasBounds() {
+            double scale = level / 1000.0;
+            int left = (int) Math.floor(tx * TILE_SIZE / scale);
+            int top = (int) Math.floor(ty * TILE_SIZE / scale);
+            int right = (int) Math.ceil((tx + 1) * TILE_SIZE / scale);
+            int bottom = (int) Math.ceil((ty + 1) * TILE_SIZE / scale);
+            return new java.awt.Rectangle(left, top, right - left, bottom - top);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return owner == k.owner && level == k.level && tx == k.tx && ty == k.ty;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(owner), level, tx, ty);
+        }
+    }
+
+    /**
+     * Constructor - creates an empty cache with the given budget
+     *
+     * @param budget Maximum number of bytes used by tile images
+     */
+    public TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the cache shared by all layers
+     */
+    public static TileCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets the memory budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets a tile and marks it as recently used
+     *
+     * @return The tile image, EMPTY for an empty tile, or null if the tile is not cached
+     */
+    public synchronized BufferedImage get(Key key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Adds a rendered tile and evicts old tiles if the budget is exceeded
+     */
+    public synchronized void put(Key key, BufferedImage image) {
+        BufferedImage old = tiles.put(key, image);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += sizeOf(image);
+        key.owner.tileAdded(key);
+
+        Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            Map.Entry<Key, BufferedImage> eldest = it.next();
+            if (eldest.getKey() == key) {
+                continue;
+            }
+            bytes -= sizeOf(eldest.getValue());
+            eldest.getKey().owner.tileRemoved(eldest.getKey());
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes a tile so it is rendered again the next time it is needed
+     */
+    public synchronized void remove(Key key) {
+        BufferedImage old = tiles.remove(key);
+        if (old != null) {
+            bytes -= sizeOf(old);
+            key.owner.tileRemoved(key);
+        }
+    }
+
+    /**
+     * Gets the number of bytes a tile image takes
+     */
+    private static long sizeOf(BufferedImage image) {
+        return image == EMPTY ? 0 : (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
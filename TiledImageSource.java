@@ -0,0 +1,686 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * TiledImageSource shows an image that is too large to decode at once, such as a scan
+ * of tens of thousands of pixels, as the background of the canvas
+ * The image is divided into tiles of TILE_SIZE pixels at several levels of detail;
+ * level n reads every 2^n-th pixel of every 2^n-th row. Drawing only uses the tiles of
+ * the visible area at the level the zoom needs. Tiles that are not loaded yet are read
+ * in the background through ImageReader source regions and subsampling, and in the
+ * meantime the area is drawn from a coarser level.
+ *
+ * Loaded tiles are kept in memory up to a few screens' worth and also written to a
+ * tile cache on disk, so coming back to an area later, also in the next session, does
+ * not decode the image again. The canvas shows the image at 0,0 with one image pixel
+ * per canvas pixel.
+ *
+ * Each image has its own folder in the tile cache. Opening an image removes the folders
+ * whose image has changed or is gone, and then the least recently used folders until
+ * the cache fits into its limit again.
+ *
+ * Settings (system properties):
+ *   drawingtool.tiles.cache - tile cache folder (default ~/.interactive-drawing-tool/tiles)
+ *   drawingtool.tiles.limit - size of the tile cache in megabytes (default 1024)
+ */
+public class TiledImageSource {
+    public static final int TILE_SIZE = 256;          // Width and height of a tile, in pixels
+    public static final long LARGE_PIXELS = 32_000_000L; // Images with more pixels are opened tiled
+    private static final int OVERVIEW_SIZE = 2048;    // The coarsest level fits into this size
+    private static final int REGION_TILES = 8;        // Tiles per side of one region read
+    private static final int SCREENS_CACHED = 3;      // Screens' worth of tiles kept in memory
+    private static final String SOURCE_FILE = "source.txt"; // Names the image a cache folder belongs to
+    private static final List<File> openFolders = new ArrayList<>(); // Cache folders of open images
+
+    private final File file;
+    private final int width, height;       // Size of the full image
+    private final int levelCount;          // Number of levels of detail, the coarsest is levelCount - 1
+    private final File cacheFolder;        // Tiles of this image on disk
+    private final int maxTiles;            // Tiles kept in memory
+    private final LinkedHashMap<Long, BufferedImage> tiles =
+        new LinkedHashMap<>(16, 0.75f, true);                  // Loaded tiles, least recently used first
+    private final LinkedHashSet<Long> wanted = new LinkedHashSet<>(); // Tiles waiting to be loaded
+    private final ExecutorService loader;  // Loads the wanted tiles, one region at a time
+    private boolean loading;               // Whether the loader is working on the wanted tiles
+    private Consumer<java.awt.Rectangle> tileListener; // Told the canvas area of newly loaded tiles
+    private ImageInputStream input;        // Open image file, used by the loader only
+    private ImageReader reader;            // Reader of the image, used by the loader only
+    private volatile boolean closed;
+
+    /**
+     * Constructor - reads the size of the image and starts loading its coarsest level
+     *
+     * @param file The image file
+     * @throws IOException If the file is not an image that can be read
+     */
+    public TiledImageSource(File file) throws IOException {
+        this.file = file;
+        Dimension size = readSize(file);
+        this.width = size.width;
+        this.height = size.height;
+        int levels = 1;
+        while (Math.max(width, height) >> (levels - 1) > OVERVIEW_SIZE) {
+            levels++;
+        }
+        this.levelCount = levels;
+        this.cacheFolder = new File(getCacheRoot(), fingerprint(file));
+        synchronized (openFolders) {
+            openFolders.add(cacheFolder);
+        }
+        this.maxTiles = SCREENS_CACHED * tilesPerScreen();
+        this.loader = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Tile loader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        loader.execute(this::prepareCache);
+
+        // The coarsest level is always available to draw missing tiles from
+        int top = levelCount - 1;
+        List<Long> overview = new ArrayList<>();
+        for (int row = 0; row < rows(top); row++) {
+            for (int col = 0; col < cols(top); col++) {
+                overview.add(key(top, col, row));
+            }
+        }
+        request(overview);
+    }
+
+    /**
+     * Checks if an image file has so many pixels that it should be opened tiled
+     * Only the header of the file is read. Files that cannot be read are not large.
+     */
+    public static boolean isLarge(File file) {
+        try {
+            Dimension size = readSize(file);
+            return (long) size.width * size.height > LARGE_PIXELS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the width of the full image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the full image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets who is told when tiles have been loaded
+     * The listener is called on the Event Dispatch Thread with the canvas area of the tiles.
+     */
+    public synchronized void setTileListener(Consumer<java.awt.Rectangle> tileListener) {
+        this.tileListener = tileListener;
+    }
+
+    /**
+     * Draws the part of the image in an area of the canvas
+     * Missing tiles are drawn from a coarser level if one is loaded, and requested.
+     * Can be called from any thread.
+     *
+     * @param g2d   Graphics with the canvas transformation applied
+     * @param area  Area of the canvas to draw
+     * @param scale Device pixels per canvas pixel, which decides the level of detail
+     */
+    public void draw(Graphics2D g2d, java.awt.Rectangle area, double scale) {
+        int level = 0;
+        while (level < levelCount - 1 && scale * (2 << level) <= 1.0) {
+            level++;
+        }
+        int span = TILE_SIZE << level;
+        int firstCol = Math.max(0, Math.floorDiv(area.x, span));
+        int firstRow = Math.max(0, Math.floorDiv(area.y, span));
+        int lastCol = Math.min(cols(level) - 1, Math.floorDiv(area.x + area.width - 1, span));
+        int lastRow = Math.min(rows(level) - 1, Math.floorDiv(area.y + area.height - 1, span));
+
+        List<Long> missing = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                if (!drawTile(g2d, level, col, row, level)) {
+                    missing.add(key(level, col, row));
+                    for (int coarser = level + 1; coarser < levelCount; coarser++) {
+                        if (drawTile(g2d, level, col, row, coarser)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            request(missing);
+        }
+    }
+
+    /**
+     * Stops loading and frees the loaded tiles; the tiles on disk are kept
+     */
+    public void close() {
+        closed = true;
+        synchronized (openFolders) {
+            openFolders.remove(cacheFolder);
+        }
+        synchronized (this) {
+            wanted.clear();
+            tiles.clear();
+            tileListener = null;
+        }
+        loader.execute(this::closeReader);
+        loader.shutdown();
+    }
+
+    /**
+     * Draws the canvas area of a tile from the tile covering it at some level, if loaded
+     *
+     * @param level  Level of the tile to draw
+     * @param source Level to take the pixels from, the same or a coarser one
+     * @return False if the tile at the source level is not loaded
+     */
+    private boolean drawTile(Graphics2D g2d, int level, int col, int row, int source) {
+        int shift = source - level;
+        BufferedImage tile;
+        synchronized (this) {
+            tile = tiles.get(key(source, col >> shift, row >> shift));
+        }
+        if (tile == null) {
+            return false;
+        }
+        // Canvas area of the tile, cut off at the edges of the image
+        int span = TILE_SIZE << level;
+        int x = col * span;
+        int y = row * span;
+        int w = Math.min(span, width - x);
+        int h = Math.min(span, height - y);
+
+        // Pixels of the source tile that cover that area
+        int sourceX = (col - ((col >> shift) << shift)) * (TILE_SIZE >> shift);
+        int sourceY = (row - ((row >> shift) << shift)) * (TILE_SIZE >> shift);
+        int sourceW = Math.max(1, Math.min(tile.getWidth() - sourceX, (w + (1 << source) - 1) >> source));
+        int sourceH = Math.max(1, Math.min(tile.getHeight() - sourceY, (h + (1 << source) - 1) >> source));
+        g2d.drawImage(tile, x, y, x + w, y + h, sourceX, sourceY, sourceX + sourceW, sourceY + sourceH, null);
+        return true;
+    }
+
+    /**
+     * Adds tiles to the wanted tiles and makes sure the loader is working on them
+     * The oldest wanted tiles are forgotten when more than fit into memory are waiting
+     */
+    private synchronized void request(List<Long> keys) {
+        if (closed) {
+            return;
+        }
+        for (Long key : keys) {
+            wanted.remove(key);
+            wanted.add(key);
+        }
+        Iterator<Long> oldest = wanted.iterator();
+        while (wanted.size() > maxTiles) {
+            oldest.next();
+            oldest.remove();
+        }
+        if (!loading) {
+            loading = true;
+            loader.execute(this::loadWanted);
+        }
+    }
+
+    /**
+     * Loads wanted tiles until none are left, the most recently wanted level first
+     * Runs on the loader thread
+     */
+    private void loadWanted() {
+        while (!closed) {
+            List<Long> batch = new ArrayList<>();
+            synchronized (this) {
+                if (wanted.isEmpty()) {
+                    loading = false;
+                    return;
+                }
+                int level = -1;
+                for (Long key : wanted) {
+                    level = levelOf(key);
+                }
+                for (Iterator<Long> keys = wanted.iterator(); keys.hasNext();) {
+                    Long key = keys.next();
+                    if (levelOf(key) == level && !tiles.containsKey(key)) {
+                        batch.add(key);
+                    }
+                    if (levelOf(key) == level) {
+                        keys.remove();
+                    }
+                }
+            }
+            try {
+                load(batch);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            } catch (OutOfMemoryError e) {
+                synchronized (this) {
+                    tiles.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads tiles of one level, from the disk cache where possible and else from the image
+     * Tiles not on disk are read in regions of at most REGION_TILES x REGION_TILES tiles.
+     */
+    private void load(List<Long> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        int level = levelOf(keys.get(0));
+        List<Long> missing = new ArrayList<>();
+        List<Long> loaded = new ArrayList<>();
+        for (Long key : keys) {
+            File tileFile = tileFile(key);
+            BufferedImage tile = tileFile.isFile() ? ImageIO.read(tileFile) : null;
+            if (tile != null) {
+                store(key, tile);
+                loaded.add(key);
+            } else {
+                missing.add(key);
+            }
+        }
+        tilesLoaded(loaded);
+
+        // Read the remaining tiles region by region, each with a bounded size
+        while (!missing.isEmpty() && !closed) {
+            int regionCol = Math.floorDiv(colOf(missing.get(0)), REGION_TILES) * REGION_TILES;
+            int regionRow = Math.floorDiv(rowOf(missing.get(0)), REGION_TILES) * REGION_TILES;
+            int firstCol = Integer.MAX_VALUE, firstRow = Integer.MAX_VALUE, lastCol = -1, lastRow = -1;
+            for (Iterator<Long> keysLeft = missing.iterator(); keysLeft.hasNext();) {
+                long key = keysLeft.next();
+                int col = colOf(key);
+                int row = rowOf(key);
+                if (col >= regionCol && col < regionCol + REGION_TILES
+                        && row >= regionRow && row < regionRow + REGION_TILES) {
+                    firstCol = Math.min(firstCol, col);
+                    firstRow = Math.min(firstRow, row);
+                    lastCol = Math.max(lastCol, col);
+                    lastRow = Math.max(lastRow, row);
+                    keysLeft.remove();
+                }
+            }
+            List<Long> written = readRegion(level, firstCol, firstRow, lastCol, lastRow);
+            tilesLoaded(written);
+            for (Long key : written) {
+                BufferedImage tile;
+                synchronized (this) {
+                    tile = tiles.get(key);
+                }
+                if (tile != null) {
+                    writeTile(key, tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a block of tiles of one level from the image in one read
+     *
+     * @return The keys of the tiles that were read
+     */
+    private List<Long> readRegion(int level, int firstCol, int firstRow, int lastCol, int lastRow) throws IOException {
+        ImageReader imageReader = getReader();
+        int span = TILE_SIZE << level;
+        java.awt.Rectangle region = new java.awt.Rectangle(firstCol * span, firstRow * span,
+            (lastCol - firstCol + 1) * span, (lastRow - firstRow + 1) * span)
+            .intersection(new java.awt.Rectangle(0, 0, width, height));
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(1 << level, 1 << level, 0, 0);
+
+        DrawingEvents.ImageDecodeEvent event = new DrawingEvents.ImageDecodeEvent();
+        event.begin();
+        BufferedImage image = imageReader.read(0, param);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "tile region";
+            event.path = file.getAbsolutePath();
+            event.fileBytes = file.length();
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            event.commit();
+        }
+
+        // Copy each tile out of the region, so the region itself can be freed
+        List<Long> keys = new ArrayList<>();
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int x = (col - firstCol) * TILE_SIZE;
+                int y = (row - firstRow) * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, image.getWidth() - x);
+                int h = Math.min(TILE_SIZE, image.getHeight() - y);
+                if (w <= 0 || h <= 0) {
+                    continue;
+                }
+                BufferedImage tile = new BufferedImage(w, h, type);
+                Graphics2D g2d = tile.createGraphics();
+                g2d.drawImage(image, -x, -y, null);
+                g2d.dispose();
+                long key = key(level, col, row);
+                store(key, tile);
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Keeps a loaded tile in memory, forgetting the least recently drawn tiles if needed
+     * The tiles of the coarsest level are never forgotten, they stand in for missing tiles.
+     */
+    private synchronized void store(long key, BufferedImage tile) {
+        if (closed) {
+            return;
+        }
+        tiles.put(key, tile);
+        Iterator<Map.Entry<Long, BufferedImage>> oldest = tiles.entrySet().iterator();
+        int overviewTiles = cols(levelCount - 1) * rows(levelCount - 1);
+        while (tiles.size() > maxTiles + overviewTiles && oldest.hasNext()) {
+            if (levelOf(oldest.next().getKey()) != levelCount - 1) {
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Tells the listener on the Event Dispatch Thread which canvas area new tiles cover
+     */
+    private void tilesLoaded(List<Long> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        java.awt.Rectangle area = null;
+        for (Long key : keys) {
+            int span = TILE_SIZE << levelOf(key);
+            java.awt.Rectangle bounds = new java.awt.Rectangle(colOf(key) * span, rowOf(key) * span, span, span);
+            area = area == null ? bounds : area.union(bounds);
+        }
+        java.awt.Rectangle changed = area.intersection(new java.awt.Rectangle(0, 0, width, height));
+        SwingUtilities.invokeLater(() -> {
+            Consumer<java.awt.Rectangle> listener;
+            synchronized (this) {
+                listener = tileListener;
+            }
+            if (listener != null && !closed) {
+                listener.accept(changed);
+            }
+        });
+    }
+
+    /**
+     * Opens the image for reading regions, the first time it is needed
+     */
+    private ImageReader getReader() throws IOException {
+        if (reader == null) {
+            input = ImageIO.createImageInputStream(file);
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException(file.getName() + " is not an image format that can be read");
+            }
+            reader = readers.next();
+            reader.setInput(input, false, true);
+        }
+        return reader;
+    }
+
+    /**
+     * Closes the image file; runs on the loader thread after the last load
+     */
+    private void closeReader() {
+        if (reader != null) {
+            reader.dispose();
+            reader = null;
+        }
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            input = null;
+        }
+    }
+
+    /**
+     * Writes a tile to the disk cache, replacing the file in one step
+     */
+    private void writeTile(long key, BufferedImage tile) {
+        try {
+            cacheFolder.mkdirs();
+            File target = tileFile(key);
+            File temporary = new File(cacheFolder, target.getName() + ".tmp");
+            ImageIO.write(tile, "png", temporary);
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Marks the cache folder of this image as just used and records the image it belongs
+     * to, then trims the rest of the cache
+     */
+    private void prepareCache() {
+        try {
+            cacheFolder.mkdirs();
+            Files.write(new File(cacheFolder, SOURCE_FILE).toPath(),
+                file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            cacheFolder.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        trimCache(getCacheRoot(), getCacheLimit());
+    }
+
+    /**
+     * Removes the cache folders of images that changed or are gone, then the least
+     * recently used folders until the cache is no larger than the limit
+     * Folders of images that are open are never removed, but count towards the limit.
+     *
+     * @param root  The folder of the disk cache
+     * @param limit Largest size of the cache in bytes
+     */
+    static void trimCache(File root, long limit) {
+        File[] folders = root.listFiles(File::isDirectory);
+        if (folders == null) {
+            return;
+        }
+        List<File> unused = new ArrayList<>();
+        Map<File, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (File folder : folders) {
+            boolean open;
+            synchronized (openFolders) {
+                open = openFolders.contains(folder);
+            }
+            if (!open && isStale(folder)) {
+                deleteFolder(folder);
+                continue;
+            }
+            long size = 0;
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File tileFile : files) {
+                    size += tileFile.length();
+                }
+            }
+            total += size;
+            if (!open) {
+                sizes.put(folder, size);
+                unused.add(folder);
+            }
+        }
+        unused.sort(Comparator.comparingLong(File::lastModified));
+        for (File folder : unused) {
+            if (total <= limit) {
+                break;
+            }
+            total -= sizes.get(folder);
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Checks if the image of a cache folder changed or is gone since its tiles were written
+     * Folders that do not name their image are left to the size limit.
+     */
+    private static boolean isStale(File folder) {
+        File source = new File(folder, SOURCE_FILE);
+        if (!source.isFile()) {
+            return false;
+        }
+        try {
+            String path = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+            return !fingerprint(new File(path)).equals(folder.getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a cache folder and the tiles in it
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File tileFile : files) {
+                tileFile.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Gets the file of a tile in the disk cache
+     */
+    private File tileFile(long key) {
+        return new File(cacheFolder, levelOf(key) + "_" + colOf(key) + "_" + rowOf(key) + ".png");
+    }
+
+    /**
+     * Gets the number of tile columns of a level
+     */
+    private int cols(int level) {
+        int span = TILE_SIZE << level;
+        return (width + span - 1) / span;
+    }
+
+    /**
+     * Gets the number of tile rows of a level
+     */
+    private int rows(int level) {
+        int span = TILE_SIZE << level;
+        return (height + span - 1) / span;
+    }
+
+    private static long key(int level, int col, int row) {
+        return ((long) level << 48) | ((long) col << 24) | row;
+    }
+
+    private static int levelOf(long key) {
+        return (int) (key >>> 48);
+    }
+
+    private static int colOf(long key) {
+        return (int) ((key >>> 24) & 0xFFFFFF);
+    }
+
+    private static int rowOf(long key) {
+        return (int) (key & 0xFFFFFF);
+    }
+
+    /**
+     * Reads the size of the first image of a file from its header
+     */
+    private static Dimension readSize(File file) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException(file.getName() + " is not an image format that can be read");
+            }
+            ImageReader imageReader = readers.next();
+            try {
+                imageReader.setInput(stream, true, true);
+                return new Dimension(imageReader.getWidth(0), imageReader.getHeight(0));
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of tiles it takes to cover the screen
+     */
+    private static int tilesPerScreen() {
+        Dimension screen;
+        try {
+            screen = Toolkit.getDefaultToolkit().getScreenSize();
+        } catch (HeadlessException e) {
+            screen = new Dimension(1920, 1080);
+        }
+        return (screen.width / TILE_SIZE + 2) * (screen.height / TILE_SIZE + 2);
+    }
+
+    /**
+     * Gets the folder of the disk cache, from the setting or in the application folder of the user
+     */
+    private static File getCacheRoot() {
+        String path = System.getProperty("drawingtool.tiles.cache");
+        return path != null ? new File(path)
+            : new File(new File(System.getProperty("user.home"), ".interactive-drawing-tool"), "tiles");
+    }
+
+    /**
+     * Gets the size limit of the disk cache in bytes, from the setting in megabytes
+     */
+    private static long getCacheLimit() {
+        return Long.getLong("drawingtool.tiles.limit", 1024) * 1024 * 1024;
+    }
+
+    /**
+     * Names the cache folder of an image after its path, size and modification time,
+     * so a changed file does not show the tiles of its old content
+     */
+    private static String fingerprint(File file) {
+        CRC32 crc = new CRC32();
+        String text = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue()) + "-" + TILE_SIZE;
+    }
+}
@@ -0,0 +1,82 @@
+import java.awt.Point;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+
+/**
+ * ViewState publishes how the canvas is being viewed: zoom, pan and the active tool
+ * The DrawingPanel updates it whenever its view changes, and listeners such as the
+ * status bar are told about the change right away. Nothing has to poll the panel, so
+ * an idle editor does not wake up the Event Dispatch Thread.
+ *
+ * Setting a property to its current value does not notify anyone.
+ * All methods must be called on the Event Dispatch Thread.
+ */
+public class ViewState {
+    public static final String ZOOM = "zoomFactor"; // Property name of the zoom factor (Double)
+    public static final String PAN = "pan";         // Property name of the pan offset (Point)
+    public static final String TOOL = "tool";       // Property name of the active tool (String)
+
+    private final PropertyChangeSupport support = new PropertyChangeSupport(this);
+    private double zoomFactor = 1.0;  // Zoom of the canvas (1.0 = 100%)
+    private int panX, panY;           // Offset of the canvas in screen pixels
+    private String tool = "Line";     // Name of the active tool, "Select" in select mode
+
+    /**
+     * Gets the zoom factor of the canvas
+     */
+    public double getZoomFactor() {
+        return zoomFactor;
+    }
+
+    /**
+     * Gets the offset of the canvas in screen pixels
+     */
+    public Point getPan() {
+        return new Point(panX, panY);
+    }
+
+    /**
+     * Gets the name of the active tool
+     */
+    public String getTool() {
+        return tool;
+    }
+
+    /**
+     * Updates the zoom and pan, notifying the listeners of the properties that changed
+     */
+    public void setView(double zoomFactor, int panX, int panY) {
+        double oldZoom = this.zoomFactor;
+        Point oldPan = getPan();
+        this.zoomFactor = zoomFactor;
+        this.panX = panX;
+        this.panY = panY;
+        support.firePropertyChange(ZOOM, oldZoom, zoomFactor);
+        support.firePropertyChange(PAN, oldPan, getPan());
+    }
+
+    /**
+     * Updates the active tool, notifying the listeners if it changed
+     */
+    public void setTool(String tool) {
+        String oldTool = this.tool;
+        this.tool = tool;
+        support.firePropertyChange(TOOL, oldTool, tool);
+    }
+
+    /**
+     * Registers a listener for changes of one property
+     *
+     * @param property ZOOM, PAN or TOOL
+     */
+    public void addPropertyChangeListener(String property, PropertyChangeListener listener) {
+        support.addPropertyChangeListener(property, listener);
+    }
+
+    /**
+     * Unregisters a listener of one property
+     */
+    public void removePropertyChangeListener(String property, PropertyChangeListener listener) {
+        support.removePropertyChangeListener(property, listener);
+    }
+}
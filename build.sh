@@ -0,0 +1,26 @@
+#!/bin/sh
+# Builds the Interactive Drawing Tool into build/drawingtool.jar and creates its
+# class-data-sharing archive, build/drawingtool.jsa, from a training run.
+# The training run opens the editor, so it needs a display.
+#
+#   ./build.sh          compile, package and train
+#   ./build.sh --check  also run StartupBenchmark and IdleBenchmark; the build fails if
+#                       start-up regressed or the idle editor keeps waking its EDT
+set -e
+cd "$(dirname "$0")"
+
+rm -rf build
+mkdir -p build/classes
+javac -encoding UTF-8 -d build/classes *.java
+# Class-data sharing only archives classes loaded from jar files
+jar cf build/drawingtool.jar -C build/classes .
+
+# Open the editor, draw each kind of shape and export; the classes loaded on the way
+# are written to the archive when the JVM exits
+java -XX:ArchiveClassesAtExit=build/drawingtool.jsa -Ddrawingtool.startup.exit=train \
+     -cp build/drawingtool.jar DrawingApp
+
+if [ "$1" = "--check" ]; then
+    java -cp build/drawingtool.jar StartupBenchmark
+    java -cp build/drawingtool.jar IdleBenchmark
+fi
@@ -0,0 +1,9 @@
+#!/bin/sh
+# Starts the Interactive Drawing Tool built by build.sh
+# The class-data-sharing archive is used when it exists; with -Xshare:auto the JVM
+# loads the classes normally if the archive does not match it
+cd "$(dirname "$0")"
+if [ -f build/drawingtool.jsa ]; then
+    exec java -Xshare:auto -XX:SharedArchiveFile=build/drawingtool.jsa -cp build/drawingtool.jar DrawingApp "$@"
+fi
+exec java -cp build/drawingtool.jar DrawingApp "$@"